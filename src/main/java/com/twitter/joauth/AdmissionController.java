@@ -0,0 +1,253 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rate limits requests per consumer key, so that a consumer flooding us is turned away right
+ * after unpacking, before its requests are normalized and signed. Each consumer key gets a
+ * token bucket that holds up to burst permits and refills at permitsPerSecond. The request
+ * hasn't been verified yet, so its token isn't part of the key: a consumer can't get a fresh
+ * bucket by making up a new token for each request.
+ *
+ * The buckets live in a fixed-size table, so memory is bounded however many consumers there
+ * are. The table is split into stripes of a few slots, a key hashes to one stripe, and slots
+ * are claimed and buckets drawn from with compareAndSet, so no thread ever blocks. When a new
+ * key needs a slot, it takes an empty one, else the one whose bucket has been idle the
+ * longest. A bucket that has refilled completely is no different from a new one, so evicting
+ * an idle consumer loses nothing; only when every bucket in a stripe is still refilling is one
+ * evicted early, which lets that consumer start over with a full bucket.
+ */
+public class AdmissionController {
+
+  private static final int SLOTS_PER_STRIPE = 4;
+
+  private final AtomicReferenceArray<Bucket> slots;
+  private final int stripeMask;
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final Ticker ticker;
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param permitsPerSecond the rate a consumer's bucket refills at
+   * @param burst the most permits a bucket holds, i.e. the number of requests a consumer can
+   *   make at once after being idle
+   * @param capacity roughly the number of consumers tracked at once. It's rounded up to a
+   *   power of two.
+   */
+  public AdmissionController(double permitsPerSecond, int burst, int capacity) {
+    this(permitsPerSecond, burst, capacity, Ticker.systemTicker());
+  }
+
+  AdmissionController(double permitsPerSecond, int burst, int capacity, Ticker ticker) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("burst must be at least 1: " + burst);
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+    }
+    int stripes = 1;
+    while (stripes * SLOTS_PER_STRIPE < capacity) {
+      stripes <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<Bucket>(stripes * SLOTS_PER_STRIPE);
+    this.stripeMask = stripes - 1;
+    this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    this.toleranceNanos = intervalNanos * (burst - 1);
+    this.ticker = ticker;
+  }
+
+  /**
+   * take a permit for the request's consumer key, if there's one to take. OAuth2 requests carry
+   * no consumer key, so they're limited by bearer token, and requests of any other kind are
+   * always admitted.
+   */
+  public boolean admit(UnpackedRequest request) {
+    if (request instanceof UnpackedRequest.OAuth1RequestBase) {
+      return tryAcquire(((UnpackedRequest.OAuth1RequestBase) request).consumerKey());
+    } else if (request instanceof UnpackedRequest.OAuth2Request) {
+      return tryAcquire("", ((UnpackedRequest.OAuth2Request) request).token());
+    }
+    return true;
+  }
+
+  /**
+   * take a permit from the bucket for a consumer key, returning false if it's empty
+   */
+  public boolean tryAcquire(String consumerKey) {
+    return tryAcquire(consumerKey, "");
+  }
+
+  private boolean tryAcquire(String consumerKey, String bearerToken) {
+    if (consumerKey == null) consumerKey = "";
+    if (bearerToken == null) bearerToken = "";
+    long now = ticker.read();
+    Bucket bucket = bucketFor(consumerKey, bearerToken, now);
+    while (true) {
+      // the bucket is full again at theoreticalArrival, and empty while that's more than
+      // toleranceNanos away
+      long theoreticalArrival = bucket.fullAt.get();
+      long from = (theoreticalArrival - now > 0) ? theoreticalArrival : now;
+      if (from - now > toleranceNanos) {
+        rejected.incrementAndGet();
+        return false;
+      }
+      if (bucket.fullAt.compareAndSet(theoreticalArrival, from + intervalNanos)) {
+        admitted.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  private Bucket bucketFor(String consumerKey, String bearerToken, long now) {
+    int hash = consumerKey.hashCode() * 31 + bearerToken.hashCode();
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+    int base = (hash & stripeMask) * SLOTS_PER_STRIPE;
+
+    while (true) {
+      int victim = -1;
+      Bucket victimBucket = null;
+      for (int i = base; i < base + SLOTS_PER_STRIPE; i++) {
+        Bucket bucket = slots.get(i);
+        if (bucket == null) {
+          if (victimBucket != null || victim < 0) {
+            victim = i;
+            victimBucket = null;
+          }
+        } else if (bucket.matches(consumerKey, bearerToken)) {
+          return bucket;
+        } else if (victim < 0 || (victimBucket != null && bucket.fullAt.get() - victimBucket.fullAt.get() < 0)) {
+          victim = i;
+          victimBucket = bucket;
+        }
+      }
+
+      Bucket fresh = new Bucket(consumerKey, bearerToken, now);
+      if (slots.compareAndSet(victim, victimBucket, fresh)) {
+        if (victimBucket != null) {
+          evictions.incrementAndGet();
+        }
+        Bucket first = firstMatch(base, consumerKey, bearerToken);
+        if (first != null && first != fresh) {
+          // another thread added the same key to an earlier slot between our scan and our
+          // compareAndSet. Every thread keeps the earliest, so drop ours and use that one.
+          slots.compareAndSet(victim, fresh, null);
+          return first;
+        }
+        return fresh;
+      }
+      // another thread changed the stripe, perhaps adding this very key, so look again
+    }
+  }
+
+  /**
+   * the bucket for a key in the earliest slot of the stripe starting at base
+   */
+  private Bucket firstMatch(int base, String consumerKey, String bearerToken) {
+    for (int i = base; i < base + SLOTS_PER_STRIPE; i++) {
+      Bucket bucket = slots.get(i);
+      if (bucket != null && bucket.matches(consumerKey, bearerToken)) {
+        return bucket;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * the number of requests that got a permit
+   */
+  public long admittedCount() {
+    return admitted.get();
+  }
+
+  /**
+   * the number of requests turned away because their bucket was empty
+   */
+  public long rejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * the number of buckets dropped to make room for another consumer
+   */
+  public long evictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * a Verifier that rejects requests over their consumer's limit with RATE_LIMITED, and passes
+   * the rest on to another Verifier. Requests normalized lazily, as the Unpacker's are, aren't
+   * normalized at all when they're rejected.
+   */
+  public Verifier verifier(Verifier verifier) {
+    return new AdmittingVerifier(this, verifier);
+  }
+
+  static class AdmittingVerifier implements Verifier {
+    private final AdmissionController admission;
+    private final Verifier verifier;
+
+    AdmittingVerifier(AdmissionController admission, Verifier verifier) {
+      this.admission = admission;
+      this.verifier = verifier;
+    }
+
+    @Override
+    public VerifierResult verify(UnpackedRequest.OAuth1Request request, String tokenSecret, String consumerSecret) {
+      if (!admission.tryAcquire(request.consumerKey())) {
+        return VerifierResult.RATE_LIMITED;
+      }
+      return verifier.verify(request, tokenSecret, consumerSecret);
+    }
+
+    @Override
+    public VerifierResult verify(UnpackedRequest.OAuth1TwoLeggedRequest request, String consumerSecret) {
+      if (!admission.tryAcquire(request.consumerKey())) {
+        return VerifierResult.RATE_LIMITED;
+      }
+      return verifier.verify(request, consumerSecret);
+    }
+  }
+
+  /**
+   * a token bucket, held as the time it will be full again, in Ticker nanoseconds. A consumer's
+   * bucket has an empty bearerToken, and an OAuth2 token's an empty consumerKey.
+   */
+  private static class Bucket {
+    final String consumerKey;
+    final String bearerToken;
+    final AtomicLong fullAt;
+
+    Bucket(String consumerKey, String bearerToken, long now) {
+      this.consumerKey = consumerKey;
+      this.bearerToken = bearerToken;
+      this.fullAt = new AtomicLong(now);
+    }
+
+    boolean matches(String consumerKey, String bearerToken) {
+      return this.consumerKey.equals(consumerKey) && this.bearerToken.equals(bearerToken);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a bounded cache in front of an asynchronous loader, such as a lookup in a remote store.
+ *
+ * - concurrent gets for a key that isn't cached share a single load
+ * - a null value means the key is unknown, and is cached for the shorter negativeTtl, so
+ *   repeated lookups of garbage keys don't all reach the loader
+ * - a value that's within refreshAhead of expiring is reloaded in the background on its next
+ *   get, while the old value keeps being served, so hot keys never miss
+ * - failed loads aren't cached; every get waiting on one fails, and the next get tries again
+ *
+ * Entries are evicted when the cache grows beyond maximumSize, least recently used first.
+ */
+public class AsyncLoadingCache<K, V> {
+
+  // CacheBuilder's own default
+  static final int DEFAULT_SHARDS = 4;
+
+  private final AsyncFunction<K, V> loader;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final long refreshAheadNanos;
+  private final Ticker ticker;
+  private final Cache<K, Entry> cache;
+  private final ConcurrentMap<K, Entry> entries;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong loadSuccessCount = new AtomicLong();
+  private final AtomicLong loadExceptionCount = new AtomicLong();
+  private final AtomicLong totalLoadTime = new AtomicLong();
+  private final AtomicLong refreshCount = new AtomicLong();
+
+  /**
+   * @param ttl how long a loaded value is served for
+   * @param negativeTtl how long a null value is served for, or 0 not to cache them
+   * @param refreshAhead how long before a value expires to start reloading it, or 0 not to
+   */
+  public AsyncLoadingCache(
+    AsyncFunction<K, V> loader,
+    long maximumSize,
+    long ttl,
+    long negativeTtl,
+    long refreshAhead,
+    TimeUnit unit
+  ) {
+    this(loader, maximumSize, ttl, negativeTtl, refreshAhead, unit, Ticker.systemTicker());
+  }
+
+  AsyncLoadingCache(
+    AsyncFunction<K, V> loader,
+    long maximumSize,
+    long ttl,
+    long negativeTtl,
+    long refreshAhead,
+    TimeUnit unit,
+    Ticker ticker
+  ) {
+    this(loader, maximumSize, DEFAULT_SHARDS, ttl, negativeTtl, refreshAhead, unit, ticker);
+  }
+
+  /**
+   * @param shards the number of independently locked segments the entries are spread over,
+   *   and so roughly how many threads can update the cache at once. Each segment evicts its
+   *   own least recently used entries.
+   */
+  AsyncLoadingCache(
+    AsyncFunction<K, V> loader,
+    long maximumSize,
+    int shards,
+    long ttl,
+    long negativeTtl,
+    long refreshAhead,
+    TimeUnit unit,
+    Ticker ticker
+  ) {
+    if (refreshAhead >= ttl && refreshAhead > 0) {
+      throw new IllegalArgumentException("refreshAhead must be shorter than ttl");
+    }
+    this.loader = loader;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.negativeTtlNanos = unit.toNanos(negativeTtl);
+    this.refreshAheadNanos = unit.toNanos(refreshAhead);
+    this.ticker = ticker;
+    this.cache = CacheBuilder.newBuilder()
+      .maximumSize(maximumSize)
+      .concurrencyLevel(shards)
+      .recordStats()
+      .build();
+    this.entries = cache.asMap();
+  }
+
+  /**
+   * the value for a key, which completes with null if the key is unknown
+   */
+  public ListenableFuture<V> get(K key) {
+    while (true) {
+      Entry entry = entries.get(key);
+      long now = ticker.read();
+      if (entry != null && (!entry.isDone() || now < entry.expiresAt)) {
+        hitCount.incrementAndGet();
+        if (entry.isDone() && now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+          refresh(key, entry);
+        }
+        return entry.future;
+      }
+
+      Entry loading = new Entry();
+      boolean installed = (entry == null)
+        ? entries.putIfAbsent(key, loading) == null
+        : entries.replace(key, entry, loading);
+      if (installed) {
+        missCount.incrementAndGet();
+        load(key, loading);
+        return loading.future;
+      }
+      // another thread got there first, so use its entry
+    }
+  }
+
+  /**
+   * the value for a key if it's cached and loaded, without loading it
+   */
+  public V getIfPresent(K key) {
+    Entry entry = entries.get(key);
+    if (entry == null || !entry.isDone() || ticker.read() >= entry.expiresAt) {
+      return null;
+    }
+    return Futures.getUnchecked(entry.future);
+  }
+
+  public void invalidate(K key) {
+    entries.remove(key);
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * hits include gets that shared a load already in flight. Load time covers both loads on
+   * a miss and background refreshes.
+   */
+  public CacheStats stats() {
+    return new CacheStats(
+      hitCount.get(),
+      missCount.get(),
+      loadSuccessCount.get(),
+      loadExceptionCount.get(),
+      totalLoadTime.get(),
+      cache.stats().evictionCount());
+  }
+
+  /**
+   * the number of background refreshes started
+   */
+  public long refreshCount() {
+    return refreshCount.get();
+  }
+
+  private void load(final K key, final Entry loading) {
+    final long start = ticker.read();
+    Futures.addCallback(startLoad(key), new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        long now = ticker.read();
+        loadSuccessCount.incrementAndGet();
+        totalLoadTime.addAndGet(now - start);
+        loading.complete(value, now);
+        if (value == null && negativeTtlNanos <= 0) {
+          entries.remove(key, loading);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        loadExceptionCount.incrementAndGet();
+        totalLoadTime.addAndGet(ticker.read() - start);
+        entries.remove(key, loading);
+        loading.future.setException(t);
+      }
+    });
+  }
+
+  private void refresh(final K key, final Entry current) {
+    refreshCount.incrementAndGet();
+    final long start = ticker.read();
+    Futures.addCallback(startLoad(key), new FutureCallback<V>() {
+      @Override
+      public void onSuccess(V value) {
+        long now = ticker.read();
+        loadSuccessCount.incrementAndGet();
+        totalLoadTime.addAndGet(now - start);
+        Entry refreshed = new Entry();
+        refreshed.complete(value, now);
+        if (value == null && negativeTtlNanos <= 0) {
+          entries.remove(key, current);
+        } else {
+          entries.replace(key, current, refreshed);
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        loadExceptionCount.incrementAndGet();
+        totalLoadTime.addAndGet(ticker.read() - start);
+        // keep serving the current value until it expires, and let a later get retry
+        current.refreshing.set(false);
+      }
+    });
+  }
+
+  private ListenableFuture<V> startLoad(K key) {
+    try {
+      ListenableFuture<V> future = loader.apply(key);
+      return (future != null) ? future : Futures.<V>immediateFuture(null);
+    } catch (Throwable t) {
+      return Futures.immediateFailedFuture(t);
+    }
+  }
+
+  private final class Entry {
+    private final SettableFuture<V> future = SettableFuture.create();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile long expiresAt;
+    private volatile long refreshAt;
+
+    boolean isDone() {
+      return future.isDone();
+    }
+
+    void complete(V value, long now) {
+      if (value == null) {
+        expiresAt = now + negativeTtlNanos;
+        refreshAt = Long.MAX_VALUE;
+      } else {
+        expiresAt = now + ttlNanos;
+        refreshAt = (refreshAheadNanos > 0) ? expiresAt - refreshAheadNanos : Long.MAX_VALUE;
+      }
+      future.set(value);
+    }
+  }
+}
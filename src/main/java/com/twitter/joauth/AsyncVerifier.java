@@ -0,0 +1,127 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Verifies requests with secrets fetched from a SecretStore, without blocking the caller. The
+ * cheap checks that need no secrets, the timestamp and the presence of a signature, are made
+ * straight away; the consumer and token secrets are then looked up concurrently, and once both
+ * have arrived the nonce and signature are checked on the executor. The returned future
+ * completes with UNKNOWN_CREDENTIALS if the store doesn't know the consumer or token, and fails
+ * if a lookup fails.
+ *
+ * Any Executor will do, e.g. a fixed thread pool, or one that starts a thread per task where
+ * threads are cheap. Signature checks are CPU bound, so the executor shouldn't be the one the
+ * store completes its lookups on if that's an event loop.
+ */
+public class AsyncVerifier {
+
+  private final Verifier.StandardVerifier verifier;
+  private final SecretStore secretStore;
+  private final Executor executor;
+
+  public AsyncVerifier(Verifier.StandardVerifier verifier, SecretStore secretStore, Executor executor) {
+    this.verifier = verifier;
+    this.secretStore = secretStore;
+    this.executor = executor;
+  }
+
+  /**
+   * verify an OAuth1, two-legged OAuth1 or OAuth2 request. For OAuth2 requests, which aren't
+   * signed, this only checks that the store knows the bearer token. OAuth1 access tokens aren't
+   * bearer tokens.
+   */
+  public ListenableFuture<VerifierResult> verify(UnpackedRequest.OAuthRequest request) {
+    if (request instanceof UnpackedRequest.OAuth1Request) {
+      return verify((UnpackedRequest.OAuth1Request) request);
+    } else if (request instanceof UnpackedRequest.OAuth1TwoLeggedRequest) {
+      return verify((UnpackedRequest.OAuth1TwoLeggedRequest) request);
+    } else if (request instanceof UnpackedRequest.OAuth2Request) {
+      return verify((UnpackedRequest.OAuth2Request) request);
+    }
+    return Futures.immediateFailedFuture(new IllegalArgumentException("unsupported request: " + request));
+  }
+
+  public ListenableFuture<VerifierResult> verify(final UnpackedRequest.OAuth1Request request) {
+    VerifierResult early = precheck(request);
+    if (early != null) {
+      return Futures.immediateFuture(early);
+    }
+
+    @SuppressWarnings("unchecked")
+    ListenableFuture<List<Object>> secrets = Futures.<Object>allAsList(
+      secretStore.consumerCredential(request.consumerKey()),
+      secretStore.tokenSecret(request.token()));
+
+    return Futures.transform(secrets, new Function<List<Object>, VerifierResult>() {
+      @Override
+      public VerifierResult apply(List<Object> secrets) {
+        ConsumerCredential credential = (ConsumerCredential) secrets.get(0);
+        String tokenSecret = (String) secrets.get(1);
+        if (credential == null || tokenSecret == null) {
+          return VerifierResult.UNKNOWN_CREDENTIALS;
+        }
+        return verifier.verify(request, tokenSecret, credential);
+      }
+    }, executor);
+  }
+
+  public ListenableFuture<VerifierResult> verify(final UnpackedRequest.OAuth1TwoLeggedRequest request) {
+    VerifierResult early = precheck(request);
+    if (early != null) {
+      return Futures.immediateFuture(early);
+    }
+
+    return Futures.transform(secretStore.consumerCredential(request.consumerKey()),
+      new Function<ConsumerCredential, VerifierResult>() {
+        @Override
+        public VerifierResult apply(ConsumerCredential credential) {
+          if (credential == null) {
+            return VerifierResult.UNKNOWN_CREDENTIALS;
+          }
+          return verifier.verify(request, credential);
+        }
+      }, executor);
+  }
+
+  public ListenableFuture<VerifierResult> verify(UnpackedRequest.OAuth2Request request) {
+    return Futures.transform(secretStore.bearerToken(request.token()), new Function<String, VerifierResult>() {
+      @Override
+      public VerifierResult apply(String consumerKey) {
+        return (consumerKey == null) ? VerifierResult.UNKNOWN_CREDENTIALS : VerifierResult.OK;
+      }
+    }, executor);
+  }
+
+  /**
+   * the result for a request that fails a check needing no secrets, or null. The nonce isn't
+   * checked here, so a request rejected early doesn't consume it.
+   */
+  VerifierResult precheck(UnpackedRequest.OAuth1RequestBase request) {
+    if (request.timestampSecs() == null || !verifier.validateTimestampSecs(request.timestampSecs())) {
+      return VerifierResult.BAD_TIMESTAMP;
+    }
+    String signature = request.signature();
+    if (signature == null || signature.length() == 0) {
+      return VerifierResult.BAD_SIGNATURE;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,509 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Authenticates a Request end to end: unpacks it, looks up its secrets, and checks its
+ * timestamp, nonce and signature, as a pipeline of Stages run in order. The first stage to
+ * fail a request stops it, so the standard pipeline puts the checks that need no secrets and
+ * no hashing first. The nonce and signature are checked by the StandardVerifier itself, in
+ * the order it's configured with, and are counted in its checkCount and rejectionCount. Every
+ * request gets a Result, holding either the authenticated Principal or a typed Failure, along
+ * with how long each stage took.
+ *
+ * Stages share a Context for the request, which carries the unpacked request and its secrets
+ * from stage to stage, along with a buffer the HMAC is written into. Contexts are pooled, so
+ * the buffer is reused from one request to the next rather than allocated for each.
+ *
+ * OAuth2 requests aren't signed, so the standard stages only check that the secret store knows
+ * their bearer token. OAuth1 access tokens aren't bearer tokens.
+ */
+public class Authenticator {
+
+  /**
+   * the ways a request can fail authentication
+   */
+  public enum Failure {
+    /** the request couldn't be unpacked */
+    MALFORMED,
+    /** the request carried no OAuth credentials */
+    NOT_OAUTH,
+    RATE_LIMITED,
+    BAD_TIMESTAMP,
+    UNKNOWN_CREDENTIALS,
+    BAD_NONCE,
+    BAD_SIGNATURE,
+    /** a stage threw, e.g. because the secret store is down. See Result.cause. */
+    ERROR
+  }
+
+  /**
+   * one step of the pipeline
+   */
+  public interface Stage {
+    String name();
+
+    /**
+     * check the request, returning null to pass it on to the next stage, or the reason it fails
+     */
+    Failure run(Context context) throws Exception;
+  }
+
+  /**
+   * who a request was made by
+   */
+  public static class Principal {
+    private final String consumerKey;
+    private final String token;
+    private final String oAuthVersion;
+
+    public Principal(String consumerKey, String token, String oAuthVersion) {
+      this.consumerKey = consumerKey;
+      this.token = token;
+      this.oAuthVersion = oAuthVersion;
+    }
+
+    /** the consumer key, or null for an OAuth2 request */
+    public String consumerKey() { return consumerKey; }
+    /** the access token, or null for a two-legged request */
+    public String token() { return token; }
+    public String oAuthVersion() { return oAuthVersion; }
+
+    @Override
+    public String toString() {
+      return "Principal(" + consumerKey + ", " + oAuthVersion + ")";
+    }
+  }
+
+  public static class Result {
+    private final Principal principal;
+    private final Failure failure;
+    private final String failedStage;
+    private final Exception cause;
+    private final List<String> stageNames;
+    private final long[] stageNanos;
+
+    Result(Principal principal, Failure failure, String failedStage, Exception cause, List<String> stageNames,
+        long[] stageNanos) {
+      this.principal = principal;
+      this.failure = failure;
+      this.failedStage = failedStage;
+      this.cause = cause;
+      this.stageNames = stageNames;
+      this.stageNanos = stageNanos;
+    }
+
+    public boolean isAuthenticated() { return failure == null; }
+    /** the principal, or null if the request failed */
+    public Principal principal() { return principal; }
+    /** the failure, or null if the request was authenticated */
+    public Failure failure() { return failure; }
+    /** the name of the stage that failed the request, or null */
+    public String failedStage() { return failedStage; }
+    /** the exception behind an ERROR, or null */
+    public Exception cause() { return cause; }
+    public List<String> stageNames() { return stageNames; }
+
+    /**
+     * how long each stage took, in the order of stageNames. Stages after a failure didn't run,
+     * and took 0.
+     */
+    public long stageNanos(int stage) {
+      return stageNanos[stage];
+    }
+
+    public long totalNanos() {
+      long total = 0;
+      for (long nanos : stageNanos) {
+        total += nanos;
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      return "Result(" + (failure == null ? principal : failure + " at " + failedStage) + ", " +
+        Arrays.toString(stageNanos) + ")";
+    }
+  }
+
+  /**
+   * the state of one request as it passes through the stages
+   */
+  public static class Context {
+    private static final int MAC_LENGTH = 64;
+
+    private Request request;
+    private UnpackedRequest unpacked;
+    private ConsumerCredential consumerCredential;
+    private String tokenSecret;
+    private final byte[] macBuffer = new byte[MAC_LENGTH];
+
+    public Request request() { return request; }
+    public UnpackedRequest unpacked() { return unpacked; }
+    public void setUnpacked(UnpackedRequest unpacked) { this.unpacked = unpacked; }
+
+    /**
+     * the unpacked request if it's a signed OAuth1 request, or null
+     */
+    public UnpackedRequest.OAuth1RequestBase oAuth1() {
+      return (unpacked instanceof UnpackedRequest.OAuth1RequestBase)
+        ? (UnpackedRequest.OAuth1RequestBase) unpacked
+        : null;
+    }
+
+    public ConsumerCredential consumerCredential() { return consumerCredential; }
+    public void setConsumerCredential(ConsumerCredential consumerCredential) {
+      this.consumerCredential = consumerCredential;
+    }
+    /** the token secret, or "" for a two-legged request */
+    public String tokenSecret() { return tokenSecret; }
+    public void setTokenSecret(String tokenSecret) { this.tokenSecret = tokenSecret; }
+
+    /**
+     * a buffer large enough for any HMAC the Signer supports
+     */
+    byte[] macBuffer() {
+      return macBuffer;
+    }
+
+    void reset(Request request) {
+      this.request = request;
+      this.unpacked = null;
+      this.consumerCredential = null;
+      this.tokenSecret = null;
+    }
+  }
+
+  private final Stage[] stages;
+  private final List<String> stageNames;
+  private final Queue<Context> idleContexts = new ConcurrentLinkedQueue<Context>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final int maxIdleContexts;
+
+  public Authenticator(List<Stage> stages) {
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("an Authenticator needs at least one stage");
+    }
+    this.stages = stages.toArray(new Stage[stages.size()]);
+    List<String> names = new ArrayList<String>(stages.size());
+    for (Stage stage : stages) {
+      names.add(stage.name());
+    }
+    this.stageNames = Collections.unmodifiableList(names);
+    this.maxIdleContexts = Runtime.getRuntime().availableProcessors() * 4;
+  }
+
+  /**
+   * the standard pipeline: unpack, precheck, secrets, verify
+   */
+  public static Authenticator newAuthenticator(
+    Unpacker unpacker,
+    Verifier.StandardVerifier verifier,
+    SecretStore secretStore
+  ) {
+    return new Authenticator(Arrays.asList(
+      Stages.unpack(unpacker),
+      Stages.precheck(verifier),
+      Stages.secrets(secretStore),
+      Stages.verify(verifier)));
+  }
+
+  /**
+   * the standard pipeline, with requests over their consumer's rate limit turned away right
+   * after unpacking
+   */
+  public static Authenticator newAuthenticator(
+    Unpacker unpacker,
+    AdmissionController admission,
+    Verifier.StandardVerifier verifier,
+    SecretStore secretStore
+  ) {
+    return new Authenticator(Arrays.asList(
+      Stages.unpack(unpacker),
+      Stages.admission(admission),
+      Stages.precheck(verifier),
+      Stages.secrets(secretStore),
+      Stages.verify(verifier)));
+  }
+
+  public List<String> stageNames() {
+    return stageNames;
+  }
+
+  public Result authenticate(Request request) {
+    Context context = borrow(request);
+    try {
+      return run(context);
+    } finally {
+      release(context);
+    }
+  }
+
+  private Result run(Context context) {
+    long[] nanos = new long[stages.length];
+    for (int i = 0; i < stages.length; i++) {
+      long start = System.nanoTime();
+      Failure failure;
+      Exception cause = null;
+      try {
+        failure = stages[i].run(context);
+      } catch (Exception e) {
+        failure = Failure.ERROR;
+        cause = e;
+      }
+      nanos[i] = System.nanoTime() - start;
+      if (failure != null) {
+        return new Result(null, failure, stages[i].name(), cause, stageNames, nanos);
+      }
+    }
+    if (!(context.unpacked() instanceof UnpackedRequest.OAuthRequest)) {
+      // no stage unpacked the request, so there's nobody to authenticate
+      return new Result(null, Failure.NOT_OAUTH, null, null, stageNames, nanos);
+    }
+    return new Result(principalOf(context.unpacked()), null, null, null, stageNames, nanos);
+  }
+
+  static Principal principalOf(UnpackedRequest unpacked) {
+    if (unpacked instanceof UnpackedRequest.OAuth1Request) {
+      UnpackedRequest.OAuth1Request request = (UnpackedRequest.OAuth1Request) unpacked;
+      return new Principal(request.consumerKey(), request.token(), request.oAuthVersionString());
+    } else if (unpacked instanceof UnpackedRequest.OAuth1TwoLeggedRequest) {
+      UnpackedRequest.OAuth1TwoLeggedRequest request = (UnpackedRequest.OAuth1TwoLeggedRequest) unpacked;
+      return new Principal(request.consumerKey(), null, request.oAuthVersionString());
+    } else {
+      UnpackedRequest.OAuth2Request request = (UnpackedRequest.OAuth2Request) unpacked;
+      return new Principal(null, request.token(), request.oAuthVersionString());
+    }
+  }
+
+  private Context borrow(Request request) {
+    Context context = idleContexts.poll();
+    if (context == null) {
+      context = new Context();
+    } else {
+      idleCount.decrementAndGet();
+    }
+    context.reset(request);
+    return context;
+  }
+
+  private void release(Context context) {
+    context.reset(null);
+    if (idleCount.incrementAndGet() <= maxIdleContexts) {
+      idleContexts.offer(context);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * the built-in stages
+   */
+  public static class Stages {
+
+    /**
+     * unpack the request, failing it with MALFORMED or NOT_OAUTH. Every other built-in stage
+     * needs to run after this one.
+     */
+    public static Stage unpack(final Unpacker unpacker) {
+      return new Stage() {
+        @Override
+        public String name() {
+          return "unpack";
+        }
+
+        @Override
+        public Failure run(Context context) {
+          UnpackedRequest unpacked;
+          try {
+            unpacked = unpacker.unpack(context.request());
+          } catch (UnpackerException e) {
+            return Failure.MALFORMED;
+          }
+          if (!(unpacked instanceof UnpackedRequest.OAuthRequest)) {
+            return Failure.NOT_OAUTH;
+          }
+          context.setUnpacked(unpacked);
+          return null;
+        }
+      };
+    }
+
+    /**
+     * turn away requests over their consumer's rate limit
+     */
+    public static Stage admission(final AdmissionController admission) {
+      return new Stage() {
+        @Override
+        public String name() {
+          return "admission";
+        }
+
+        @Override
+        public Failure run(Context context) {
+          return admission.admit(context.unpacked()) ? null : Failure.RATE_LIMITED;
+        }
+      };
+    }
+
+    /**
+     * the checks that need neither secrets nor hashing: the timestamp is within the verifier's
+     * window, and there's a signature to check
+     */
+    public static Stage precheck(final Verifier.StandardVerifier verifier) {
+      return new Stage() {
+        @Override
+        public String name() {
+          return "precheck";
+        }
+
+        @Override
+        public Failure run(Context context) {
+          UnpackedRequest.OAuth1RequestBase request = context.oAuth1();
+          if (request == null) {
+            return null;
+          }
+          if (request.timestampSecs() == null || !verifier.validateTimestampSecs(request.timestampSecs())) {
+            return Failure.BAD_TIMESTAMP;
+          }
+          if (request.signature() == null || request.signature().length() == 0) {
+            return Failure.BAD_SIGNATURE;
+          }
+          return null;
+        }
+      };
+    }
+
+    /**
+     * look up the consumer credential and token secret, or an OAuth2 request's bearer token,
+     * failing requests the store doesn't know with UNKNOWN_CREDENTIALS. The lookups are started
+     * together, then waited for.
+     */
+    public static Stage secrets(final SecretStore secretStore) {
+      return new Stage() {
+        @Override
+        public String name() {
+          return "secrets";
+        }
+
+        @Override
+        public Failure run(Context context) throws InterruptedException, ExecutionException {
+          UnpackedRequest unpacked = context.unpacked();
+          if (unpacked instanceof UnpackedRequest.OAuth2Request) {
+            String token = ((UnpackedRequest.OAuth2Request) unpacked).token();
+            return (secretStore.bearerToken(token).get() == null) ? Failure.UNKNOWN_CREDENTIALS : null;
+          }
+
+          UnpackedRequest.OAuth1RequestBase request = context.oAuth1();
+          if (request == null) {
+            return null;
+          }
+          Future<String> tokenSecret = (request instanceof UnpackedRequest.OAuth1Request)
+            ? secretStore.tokenSecret(((UnpackedRequest.OAuth1Request) request).token())
+            : null;
+          context.setConsumerCredential(secretStore.consumerCredential(request.consumerKey()).get());
+          context.setTokenSecret((tokenSecret == null) ? "" : tokenSecret.get());
+          return (context.consumerCredential() == null || context.tokenSecret() == null)
+            ? Failure.UNKNOWN_CREDENTIALS
+            : null;
+        }
+      };
+    }
+
+    /**
+     * check the nonce and signature with the secrets found by the secrets stage, in the
+     * verifier's Stage order, and overlapping the nonce check if the verifier does. A request
+     * whose signature method isn't the kind the consumer's credential is for fails with
+     * BAD_SIGNATURE. HMAC signatures are written into the Context's buffer and compared without
+     * decoding the presented signature into Strings first.
+     */
+    public static Stage verify(final Verifier.StandardVerifier verifier) {
+      return new Stage() {
+        @Override
+        public String name() {
+          return "verify";
+        }
+
+        @Override
+        public Failure run(final Context context) {
+          UnpackedRequest.OAuth1RequestBase request = context.oAuth1();
+          if (request == null) {
+            return null;
+          }
+          final ConsumerCredential credential = context.consumerCredential();
+          final String tokenSecret = context.tokenSecret();
+          if (credential == null) {
+            throw new IllegalStateException("the verify stage must follow the secrets stage");
+          }
+          VerifierResult result = verifier.runStages(request, new Verifier.StandardVerifier.SignatureCheck() {
+            @Override
+            boolean validate(UnpackedRequest.OAuth1RequestBase request) {
+              if (!credential.accepts(request)) {
+                return false;
+              }
+              if (credential.isRsa()) {
+                return verifier.validateSignature(request, tokenSecret, credential);
+              }
+              return validateHmac(verifier.signer(), request, tokenSecret, credential.secret(),
+                context.macBuffer());
+            }
+          });
+          switch (result) {
+            case OK: return null;
+            case BAD_TIMESTAMP: return Failure.BAD_TIMESTAMP;
+            case BAD_NONCE: return Failure.BAD_NONCE;
+            default: return Failure.BAD_SIGNATURE;
+          }
+        }
+      };
+    }
+
+    static boolean validateHmac(
+      Signer signer,
+      UnpackedRequest.OAuth1RequestBase request,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] macBuffer
+    ) {
+      Signer.SignatureSink sink;
+      try {
+        SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+        sink = (signatureMethod != null)
+          ? signer.newSink(signatureMethod, tokenSecret, consumerSecret)
+          : signer.newSink(request.signatureMethod(), tokenSecret, consumerSecret);
+      } catch (Exception e) {
+        return false;
+      }
+      try {
+        request.writeNormalizedRequest(sink);
+        int length = sink.doFinal(macBuffer, 0);
+        return Base64Util.equalsPercentEncoded(request.signature(), macBuffer, length);
+      } catch (Exception e) {
+        return false;
+      } finally {
+        sink.release();
+      }
+    }
+  }
+}
@@ -22,6 +22,7 @@ package com.twitter.joauth;
 import com.google.common.io.BaseEncoding;
 
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 class Base64Util {
   /**
@@ -48,6 +49,9 @@ class Base64Util {
     20, 21, 22, 23, 24, 25, -1, -1, -1, -1, 63, -1, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37,
     38, 39, 40, 41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51};
 
+  private static final char[] ENCODE_TABLE =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
   /**
@@ -121,10 +125,177 @@ class Base64Util {
     return pos == bytes.length;
   }
 
+  /**
+   * compare a percent-encoded, base64-encoded signature, e.g. a raw oauth_signature value, with
+   * the passed in byte array in a single pass, without building the decoded Strings. This
+   * accepts exactly what equals(UrlCodec.decode(encoded).trim(), bytes) accepts: '+' decodes to
+   * a space and, like any other character outside the base64 alphabet, is skipped, as are
+   * escapes of non-ASCII bytes. An escape that isn't '%' and two hex digits is left to that
+   * slower path, which rejects it, so its corner cases don't have to be reproduced here.
+   */
+  static boolean equalsPercentEncoded(String encoded, byte[] bytes) {
+    return equalsPercentEncoded(encoded, bytes, bytes.length);
+  }
+
+  /**
+   * compare against the first length bytes of the array, e.g. a reused MAC buffer
+   */
+  static boolean equalsPercentEncoded(String encoded, byte[] bytes, int length) {
+    if (encoded == null) {
+      return false;
+    }
+    int encodedLength = encoded.length();
+    boolean eof = false;
+    int bitWorkArea = 0;
+    int modulus = 0;
+    int pos = 0;
+    for (int i = 0; i < encodedLength; i++) {
+      int c = encoded.charAt(i);
+      if (c == '%') {
+        int hi = (i + 2 < encodedLength) ? hexValue(encoded.charAt(i + 1)) : -1;
+        int lo = (hi >= 0) ? hexValue(encoded.charAt(i + 2)) : -1;
+        if (lo < 0) {
+          return equalsDecoded(encoded, bytes, length);
+        }
+        c = (hi << 4) | lo;
+        i += 2;
+      } else if (c == '+') {
+        continue;
+      }
+      // past the padding, keep going only to find malformed escapes
+      if (eof) {
+        continue;
+      }
+      if (c == '=') {
+        eof = true;
+      } else if (c < DECODE_TABLE.length) {
+        int result = DECODE_TABLE[c];
+        if (result >= 0) {
+          modulus = (modulus + 1) % BYTES_PER_ENCODED_BLOCK;
+          bitWorkArea = (bitWorkArea << BITS_PER_ENCODED_BYTE) + result;
+          if (modulus == 0) {
+            if (pos + 3 > length ||
+                bytes[pos] != (byte)((bitWorkArea >> 16) & 0xff) ||
+                bytes[pos + 1] != (byte)((bitWorkArea >> 8) & 0xff) ||
+                bytes[pos + 2] != (byte)(bitWorkArea & 0xff)) {
+              return false;
+            }
+            pos += 3;
+          }
+        }
+      }
+    }
+
+    if (eof && modulus == 2) {
+      if (pos + 1 > length || bytes[pos] != (byte)((bitWorkArea >> 4) & 0xff)) {
+        return false;
+      }
+      pos += 1;
+    } else if (eof && modulus == 3) {
+      bitWorkArea = bitWorkArea >> 2;
+      if (pos + 2 > length ||
+          bytes[pos] != (byte)((bitWorkArea >> 8) & 0xff) ||
+          bytes[pos + 1] != (byte)(bitWorkArea & 0xff)) {
+        return false;
+      }
+      pos += 2;
+    }
+
+    return pos == length;
+  }
+
+  private static boolean equalsDecoded(String encoded, byte[] bytes, int length) {
+    try {
+      byte[] expected = (length == bytes.length) ? bytes : Arrays.copyOf(bytes, length);
+      return equals(UrlCodec.decode(encoded).trim(), expected);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static int hexValue(char c) {
+    if (c >= '0' && c <= '9') return c - '0';
+    if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+    if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+    return -1;
+  }
+
+  /**
+   * decode exactly what equals(String, byte[]) would compare: characters outside the base64
+   * alphabet are skipped, and decoding stops at the first '='. Trailing characters that don't
+   * make up a whole block are only decoded if the input is padded. Decoding once and then
+   * comparing the result is cheaper when one signature is checked against several candidates.
+   */
+  static byte[] decodeLenient(String base64) {
+    byte[] in = base64.getBytes(UTF_8);
+    byte[] out = new byte[(in.length / BYTES_PER_ENCODED_BLOCK + 1) * 3];
+    boolean eof = false;
+    int bitWorkArea = 0;
+    int modulus = 0;
+    int pos = 0;
+    for (int i = 0; i < in.length && !eof; i++) {
+      byte b = in[i];
+      if (b == '=') {
+        eof = true;
+      } else if (b >= 0 && b < DECODE_TABLE.length) {
+        int result = DECODE_TABLE[b];
+        if (result >= 0) {
+          modulus = (modulus + 1) % BYTES_PER_ENCODED_BLOCK;
+          bitWorkArea = (bitWorkArea << BITS_PER_ENCODED_BYTE) + result;
+          if (modulus == 0) {
+            out[pos++] = (byte)((bitWorkArea >> 16) & 0xff);
+            out[pos++] = (byte)((bitWorkArea >> 8) & 0xff);
+            out[pos++] = (byte)(bitWorkArea & 0xff);
+          }
+        }
+      }
+    }
+
+    if (eof && modulus == 2) {
+      out[pos++] = (byte)((bitWorkArea >> 4) & 0xff);
+    } else if (eof && modulus == 3) {
+      bitWorkArea = bitWorkArea >> 2;
+      out[pos++] = (byte)((bitWorkArea >> 8) & 0xff);
+      out[pos++] = (byte)(bitWorkArea & 0xff);
+    }
+
+    byte[] decoded = new byte[pos];
+    System.arraycopy(out, 0, decoded, 0, pos);
+    return decoded;
+  }
+
   static String encode(byte[] bytes) {
     return BaseEncoding.base64().encode(bytes);
   }
 
+  /**
+   * base64-encode a range of bytes, and percent-encode the result into a Normalizer.Sink,
+   * without building the intermediate String
+   */
+  static void encode(byte[] bytes, int offset, int length, Normalizer.Sink sink) {
+    int end = offset + length;
+    int i = offset;
+    while (i + 3 <= end) {
+      int block = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+      UrlCodec.encode(ENCODE_TABLE[(block >> 18) & 0x3f], sink);
+      UrlCodec.encode(ENCODE_TABLE[(block >> 12) & 0x3f], sink);
+      UrlCodec.encode(ENCODE_TABLE[(block >> 6) & 0x3f], sink);
+      UrlCodec.encode(ENCODE_TABLE[block & 0x3f], sink);
+      i += 3;
+    }
+    int remaining = end - i;
+    if (remaining > 0) {
+      int block = (bytes[i] & 0xff) << 16;
+      if (remaining == 2) {
+        block |= (bytes[i + 1] & 0xff) << 8;
+      }
+      UrlCodec.encode(ENCODE_TABLE[(block >> 18) & 0x3f], sink);
+      UrlCodec.encode(ENCODE_TABLE[(block >> 12) & 0x3f], sink);
+      UrlCodec.encode(remaining == 2 ? ENCODE_TABLE[(block >> 6) & 0x3f] : '=', sink);
+      UrlCodec.encode('=', sink);
+    }
+  }
+
   static byte[] decode(String str) {
     return BaseEncoding.base64().decode(str);
   }
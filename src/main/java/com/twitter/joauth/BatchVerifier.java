@@ -0,0 +1,323 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Verifies a batch of OAuth1 requests at once. Requests signed with the same secrets and
+ * signature method are grouped, so that a single keyed Mac checks every request in the group,
+ * and the groups are split into roughly equal slices that are verified in parallel on an
+ * ExecutorService, with the calling thread taking one slice itself. Results are returned in
+ * the order of the entries.
+ *
+ * Each request goes through the verifier's stages in its configured order, just as with
+ * StandardVerifier.verify, but
+ * the requests in a batch aren't checked in order, so if two carry the same nonce, either one
+ * may be the one rejected.
+ */
+public class BatchVerifier {
+
+  private final Verifier.StandardVerifier verifier;
+  private final ExecutorService executor;
+  private final int parallelism;
+
+  /**
+   * verify batches on the calling thread only
+   */
+  public BatchVerifier(Verifier.StandardVerifier verifier) {
+    this(verifier, null, 1);
+  }
+
+  /**
+   * @param executor runs all but one slice of each batch
+   * @param parallelism the number of slices a batch is split into, usually the number of
+   *   threads in the executor plus one for the caller
+   */
+  public BatchVerifier(Verifier.StandardVerifier verifier, ExecutorService executor, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    if (parallelism > 1 && executor == null) {
+      throw new IllegalArgumentException("an executor is required for a parallelism above 1");
+    }
+    this.verifier = verifier;
+    this.executor = executor;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * verify every entry, returning a VerifierResult for each, in the same order
+   */
+  public List<VerifierResult> verifyAll(List<Entry> entries) throws InterruptedException {
+    VerifierResult[] results = new VerifierResult[entries.size()];
+    List<List<Group>> slices = slice(group(entries), entries.size());
+
+    List<Future<?>> futures = new ArrayList<Future<?>>(slices.size());
+    for (int i = 1; i < slices.size(); i++) {
+      futures.add(executor.submit(new Slice(slices.get(i), results)));
+    }
+    if (!slices.isEmpty()) {
+      new Slice(slices.get(0), results).call();
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("batch verification failed: " + e.getCause(), e.getCause());
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * group entries by signature method and secrets, keeping the groups in order of first
+   * appearance
+   */
+  private static List<Group> group(List<Entry> entries) {
+    Map<GroupKey, Group> groups = new LinkedHashMap<GroupKey, Group>();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      UnpackedRequest.OAuth1RequestBase request = entry.request();
+      SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+      GroupKey key = new GroupKey(
+        (signatureMethod != null) ? signatureMethod.name() : request.signatureMethod(),
+        entry.tokenSecret(),
+        entry.consumerSecret());
+      Group group = groups.get(key);
+      if (group == null) {
+        group = new Group();
+        groups.put(key, group);
+      }
+      group.add(i, entry);
+    }
+    return new ArrayList<Group>(groups.values());
+  }
+
+  /**
+   * split the groups into at most parallelism slices of roughly equal numbers of requests.
+   * A group is never split, so one Mac is initialized for it.
+   */
+  private List<List<Group>> slice(List<Group> groups, int requests) {
+    int count = Math.min(parallelism, groups.size());
+    List<List<Group>> slices = new ArrayList<List<Group>>(count);
+    if (count == 0) {
+      return slices;
+    }
+    int perSlice = (requests + count - 1) / count;
+    List<Group> current = new ArrayList<Group>();
+    int size = 0;
+    for (Group group : groups) {
+      current.add(group);
+      size += group.size();
+      if (size >= perSlice && slices.size() < count - 1) {
+        slices.add(current);
+        current = new ArrayList<Group>();
+        size = 0;
+      }
+    }
+    if (!current.isEmpty()) {
+      slices.add(current);
+    }
+    return slices;
+  }
+
+  private class Slice implements Callable<Void> {
+    private final List<Group> groups;
+    private final VerifierResult[] results;
+
+    Slice(List<Group> groups, VerifierResult[] results) {
+      this.groups = groups;
+      this.results = results;
+    }
+
+    @Override
+    public Void call() {
+      for (Group group : groups) {
+        verify(group, results);
+      }
+      return null;
+    }
+  }
+
+  private void verify(Group group, VerifierResult[] results) {
+    Entry first = group.entries.get(0);
+    if (Verifier.StandardVerifier.isRsa(first.request())) {
+      for (int i = 0; i < group.size(); i++) {
+        results[group.indexes[i]] = group.entries.get(i).verify(verifier);
+      }
+      return;
+    }
+
+    GroupSignatureCheck signatureCheck = new GroupSignatureCheck(first);
+    try {
+      for (int i = 0; i < group.size(); i++) {
+        results[group.indexes[i]] = verifier.runStages(group.entries.get(i).request(), signatureCheck);
+      }
+    } finally {
+      signatureCheck.release();
+    }
+  }
+
+  /**
+   * checks the signatures of a group's requests with one sink, which is only keyed once a
+   * request in the group reaches the signature stage
+   */
+  private class GroupSignatureCheck extends Verifier.StandardVerifier.SignatureCheck {
+    private final Entry first;
+    private Signer.SignatureSink sink = null;
+    private boolean keyed = false;
+
+    GroupSignatureCheck(Entry first) {
+      this.first = first;
+    }
+
+    @Override
+    boolean validate(UnpackedRequest.OAuth1RequestBase request) {
+      if (!keyed) {
+        sink = newSink(request, first);
+        keyed = true;
+      }
+      return sink != null && verifier.validateSignature(request, sink);
+    }
+
+    void release() {
+      if (sink != null) {
+        sink.release();
+      }
+    }
+  }
+
+  /**
+   * a sink keyed with the group's secrets, or null if they can't be used as a key. A consumer
+   * secret that's an RSA key is never used as an HMAC key.
+   */
+  private Signer.SignatureSink newSink(UnpackedRequest.OAuth1RequestBase request, Entry entry) {
+    ConsumerCredential credential = ConsumerCredential.fromStored(entry.consumerSecret());
+    if (credential == null || !credential.accepts(request)) {
+      return null;
+    }
+    SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+    Signer signer = verifier.signer();
+    try {
+      return (signatureMethod != null)
+        ? signer.newSink(signatureMethod, entry.tokenSecret(), entry.consumerSecret())
+        : signer.newSink(request.signatureMethod(), entry.tokenSecret(), entry.consumerSecret());
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * a request to verify, with the secrets to verify it against
+   */
+  public static class Entry {
+    private final UnpackedRequest.OAuth1RequestBase request;
+    private final String tokenSecret;
+    private final String consumerSecret;
+    private final boolean twoLegged;
+
+    public Entry(UnpackedRequest.OAuth1Request request, String tokenSecret, String consumerSecret) {
+      this(request, tokenSecret, consumerSecret, false);
+    }
+
+    public Entry(UnpackedRequest.OAuth1TwoLeggedRequest request, String consumerSecret) {
+      this(request, "", consumerSecret, true);
+    }
+
+    private Entry(
+      UnpackedRequest.OAuth1RequestBase request,
+      String tokenSecret,
+      String consumerSecret,
+      boolean twoLegged
+    ) {
+      this.request = request;
+      this.tokenSecret = tokenSecret;
+      this.consumerSecret = consumerSecret;
+      this.twoLegged = twoLegged;
+    }
+
+    public UnpackedRequest.OAuth1RequestBase request() { return request; }
+    public String tokenSecret() { return tokenSecret; }
+    public String consumerSecret() { return consumerSecret; }
+
+    VerifierResult verify(Verifier verifier) {
+      return twoLegged
+        ? verifier.verify((UnpackedRequest.OAuth1TwoLeggedRequest) request, consumerSecret)
+        : verifier.verify((UnpackedRequest.OAuth1Request) request, tokenSecret, consumerSecret);
+    }
+  }
+
+  /**
+   * the entries that share a signature method and secrets, and their indexes in the batch
+   */
+  private static final class Group {
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private int[] indexes = new int[4];
+
+    void add(int index, Entry entry) {
+      int size = entries.size();
+      if (size == indexes.length) {
+        indexes = Arrays.copyOf(indexes, size * 2);
+      }
+      indexes[size] = index;
+      entries.add(entry);
+    }
+
+    int size() {
+      return entries.size();
+    }
+  }
+
+  private static final class GroupKey {
+    private final String signatureMethod;
+    private final String tokenSecret;
+    private final String consumerSecret;
+
+    GroupKey(String signatureMethod, String tokenSecret, String consumerSecret) {
+      this.signatureMethod = signatureMethod;
+      this.tokenSecret = tokenSecret;
+      this.consumerSecret = consumerSecret;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof GroupKey)) return false;
+      GroupKey that = (GroupKey) o;
+      return eq(signatureMethod, that.signatureMethod) &&
+        eq(tokenSecret, that.tokenSecret) &&
+        eq(consumerSecret, that.consumerSecret);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (signatureMethod == null) ? 0 : signatureMethod.hashCode();
+      result = 31 * result + ((tokenSecret == null) ? 0 : tokenSecret.hashCode());
+      result = 31 * result + ((consumerSecret == null) ? 0 : consumerSecret.hashCode());
+      return result;
+    }
+
+    private static boolean eq(String a, String b) {
+      return (a == null) ? b == null : a.equals(b);
+    }
+  }
+}
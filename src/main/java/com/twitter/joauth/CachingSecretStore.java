@@ -0,0 +1,151 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a SecretStore that caches the secrets from another, slower one, typically a remote store.
+ * When a hot consumer's entry is about to expire it's refreshed in the background, and if it
+ * has expired, the threads that miss at once share a single lookup. Unknown consumer keys and
+ * tokens are remembered for negativeTtl, so garbage keys don't all reach the store.
+ *
+ * Consumer credentials, token secrets and bearer tokens are cached separately, each holding up
+ * to maximumSize entries.
+ */
+public class CachingSecretStore implements SecretStore {
+
+  private final AsyncLoadingCache<String, ConsumerCredential> consumerCredentials;
+  private final AsyncLoadingCache<String, String> tokenSecrets;
+  private final AsyncLoadingCache<String, String> bearerTokens;
+
+  /**
+   * @param ttl how long a secret is cached for
+   * @param negativeTtl how long an unknown consumer key or token is remembered for
+   * @param refreshAhead how long before a secret expires to start fetching it again
+   */
+  public CachingSecretStore(
+    SecretStore store,
+    long maximumSize,
+    long ttl,
+    long negativeTtl,
+    long refreshAhead,
+    TimeUnit unit
+  ) {
+    this(store, maximumSize, ttl, negativeTtl, refreshAhead, unit, Ticker.systemTicker());
+  }
+
+  CachingSecretStore(
+    final SecretStore store,
+    long maximumSize,
+    long ttl,
+    long negativeTtl,
+    long refreshAhead,
+    TimeUnit unit,
+    Ticker ticker
+  ) {
+    consumerCredentials = new AsyncLoadingCache<String, ConsumerCredential>(
+      new AsyncFunction<String, ConsumerCredential>() {
+        @Override
+        public ListenableFuture<ConsumerCredential> apply(String consumerKey) {
+          return store.consumerCredential(consumerKey);
+        }
+      }, maximumSize, ttl, negativeTtl, refreshAhead, unit, ticker);
+
+    tokenSecrets = new AsyncLoadingCache<String, String>(new AsyncFunction<String, String>() {
+      @Override
+      public ListenableFuture<String> apply(String token) {
+        return store.tokenSecret(token);
+      }
+    }, maximumSize, ttl, negativeTtl, refreshAhead, unit, ticker);
+
+    bearerTokens = new AsyncLoadingCache<String, String>(new AsyncFunction<String, String>() {
+      @Override
+      public ListenableFuture<String> apply(String token) {
+        return store.bearerToken(token);
+      }
+    }, maximumSize, ttl, negativeTtl, refreshAhead, unit, ticker);
+  }
+
+  @Override
+  public ListenableFuture<ConsumerCredential> consumerCredential(String consumerKey) {
+    return (consumerKey == null)
+      ? Futures.<ConsumerCredential>immediateFuture(null)
+      : consumerCredentials.get(consumerKey);
+  }
+
+  @Override
+  public ListenableFuture<String> tokenSecret(String token) {
+    return (token == null) ? Futures.<String>immediateFuture(null) : tokenSecrets.get(token);
+  }
+
+  @Override
+  public ListenableFuture<String> bearerToken(String token) {
+    return (token == null) ? Futures.<String>immediateFuture(null) : bearerTokens.get(token);
+  }
+
+  /**
+   * drop a consumer's cached credential, e.g. once it's been rotated
+   */
+  public void invalidateConsumer(String consumerKey) {
+    consumerCredentials.invalidate(consumerKey);
+  }
+
+  /**
+   * drop a token's cached secret, e.g. once it's been revoked
+   */
+  public void invalidateToken(String token) {
+    tokenSecrets.invalidate(token);
+  }
+
+  /**
+   * drop a cached bearer token, e.g. once it's been revoked
+   */
+  public void invalidateBearerToken(String token) {
+    bearerTokens.invalidate(token);
+  }
+
+  public void invalidateAll() {
+    consumerCredentials.invalidateAll();
+    tokenSecrets.invalidateAll();
+    bearerTokens.invalidateAll();
+  }
+
+  /**
+   * hit rate, load latency (averageLoadPenalty, in nanoseconds) and evictions for consumer
+   * credentials
+   */
+  public CacheStats consumerStats() {
+    return consumerCredentials.stats();
+  }
+
+  /**
+   * hit rate, load latency (averageLoadPenalty, in nanoseconds) and evictions for token secrets
+   */
+  public CacheStats tokenStats() {
+    return tokenSecrets.stats();
+  }
+
+  /**
+   * hit rate, load latency (averageLoadPenalty, in nanoseconds) and evictions for bearer tokens
+   */
+  public CacheStats bearerStats() {
+    return bearerTokens.stats();
+  }
+}
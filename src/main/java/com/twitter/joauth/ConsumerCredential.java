@@ -0,0 +1,119 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.PublicKey;
+
+/**
+ * what a consumer's signatures are checked with: a shared secret for the HMAC signature methods,
+ * or a public key for RSA-SHA1. The kind of credential a consumer has, not the request's
+ * oauth_signature_method, decides how its requests may be signed, so a consumer's public key,
+ * which isn't a secret, can never be used as an HMAC key.
+ */
+public final class ConsumerCredential {
+
+  private final SignatureMethod.Type type;
+  private final String secret;
+  private final String pem;
+  private final PublicKey publicKey;
+
+  private ConsumerCredential(SignatureMethod.Type type, String secret, String pem, PublicKey publicKey) {
+    this.type = type;
+    this.secret = secret;
+    this.pem = pem;
+    this.publicKey = publicKey;
+  }
+
+  /**
+   * a shared secret, for the HMAC signature methods
+   */
+  public static ConsumerCredential hmac(String secret) {
+    if (secret == null) throw new NullPointerException("secret");
+    return new ConsumerCredential(SignatureMethod.Type.HMAC, secret, null, null);
+  }
+
+  /**
+   * a public key, for RSA-SHA1
+   */
+  public static ConsumerCredential rsa(PublicKey publicKey) {
+    if (publicKey == null) throw new NullPointerException("publicKey");
+    return new ConsumerCredential(SignatureMethod.Type.RSA, null, null, publicKey);
+  }
+
+  /**
+   * a PEM encoded X.509 certificate or public key, for RSA-SHA1. The key is parsed when it's
+   * first used, and cached by the Verifier's RsaSignatureValidator.
+   */
+  public static ConsumerCredential rsa(String pem) {
+    if (pem == null) throw new NullPointerException("pem");
+    return new ConsumerCredential(SignatureMethod.Type.RSA, null, pem, null);
+  }
+
+  /**
+   * the credential for a consumer secret kept as a String, or null for null. A PEM encoded
+   * certificate or public key, armor included, is an RSA key, and anything else is an HMAC
+   * secret. Stores that can tell the two apart some other way should say so with hmac() and
+   * rsa() instead.
+   */
+  public static ConsumerCredential fromStored(String stored) {
+    if (stored == null) return null;
+    return RsaSignatureValidator.isPem(stored) ? rsa(stored) : hmac(stored);
+  }
+
+  public SignatureMethod.Type type() { return type; }
+  public boolean isRsa() { return type == SignatureMethod.Type.RSA; }
+
+  /** the shared secret, or null for an RSA key */
+  public String secret() { return secret; }
+
+  /** the PEM an RSA key is parsed from, or null */
+  public String pem() { return pem; }
+
+  /** the parsed RSA key, or null */
+  public PublicKey publicKey() { return publicKey; }
+
+  /**
+   * true if the request's signature method is the kind this credential is for. A request that
+   * names another kind of method is rejected without its signature being looked at.
+   */
+  public boolean accepts(UnpackedRequest.OAuth1RequestBase request) {
+    return Verifier.StandardVerifier.isRsa(request) == isRsa();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof ConsumerCredential)) return false;
+    ConsumerCredential that = (ConsumerCredential) o;
+    return type == that.type && eq(secret, that.secret) && eq(pem, that.pem) && eq(publicKey, that.publicKey);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = type.hashCode();
+    result = 31 * result + ((secret == null) ? 0 : secret.hashCode());
+    result = 31 * result + ((pem == null) ? 0 : pem.hashCode());
+    result = 31 * result + ((publicKey == null) ? 0 : publicKey.hashCode());
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    // never the secret itself
+    return "ConsumerCredential(" + type + ")";
+  }
+
+  private static boolean eq(Object a, Object b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+}
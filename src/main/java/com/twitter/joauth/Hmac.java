@@ -0,0 +1,583 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A self-contained HMAC-SHA1/HMAC-SHA256 implementation (RFC 2104) that doesn't go through
+ * the JCA. Besides byte ranges, it hashes chars directly, encoding them as UTF-8 on the fly,
+ * so signature base strings never need to be copied into a byte array first.
+ *
+ * An Hmac is not thread safe. After doFinal it is reset to its keyed state, so it can be
+ * reused for any number of messages signed with the same key.
+ */
+final class Hmac {
+
+  static final String HMACSHA1 = "HmacSHA1";
+  static final String HMACSHA256 = "HmacSHA256";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final byte IPAD = 0x36;
+  private static final byte OPAD = 0x5c;
+
+  private final String algorithm;
+  private final Digest inner;
+  private final Digest outer;
+  private final Digest keyedInner;
+  private final Digest keyedOuter;
+  private final byte[] block;
+  private boolean initialized = false;
+
+  private Hmac(String algorithm, Digest inner, Digest outer, Digest keyedInner, Digest keyedOuter) {
+    this.algorithm = algorithm;
+    this.inner = inner;
+    this.outer = outer;
+    this.keyedInner = keyedInner;
+    this.keyedOuter = keyedOuter;
+    this.block = new byte[Digest.BLOCK_LENGTH];
+  }
+
+  /**
+   * create an Hmac for a JCA algorithm name, or return null if it isn't supported
+   */
+  static Hmac forAlgorithm(String algorithm) {
+    if (HMACSHA1.equals(algorithm)) {
+      return new Hmac(algorithm, new Sha1Digest(), new Sha1Digest(), new Sha1Digest(), new Sha1Digest());
+    } else if (HMACSHA256.equals(algorithm)) {
+      return new Hmac(algorithm, new Sha256Digest(), new Sha256Digest(), new Sha256Digest(), new Sha256Digest());
+    } else {
+      return null;
+    }
+  }
+
+  static boolean supports(String algorithm) {
+    return HMACSHA1.equals(algorithm) || HMACSHA256.equals(algorithm);
+  }
+
+  String algorithm() {
+    return algorithm;
+  }
+
+  int macLength() {
+    return inner.digestLength();
+  }
+
+  /**
+   * initialize with the OAuth 1.0a key, the consumer secret and the token secret joined with
+   * an ampersand. Short ASCII secrets, which is nearly all of them, are written straight into
+   * the key block without being encoded into a temporary array.
+   */
+  void init(String tokenSecret, String consumerSecret) {
+    String consumer = String.valueOf(consumerSecret);
+    String token = String.valueOf(tokenSecret);
+    int length = consumer.length() + 1 + token.length();
+
+    if (length <= block.length && isAscii(consumer) && isAscii(token)) {
+      Arrays.fill(block, (byte) 0);
+      int pos = 0;
+      for (int i = 0; i < consumer.length(); i++) block[pos++] = (byte) consumer.charAt(i);
+      block[pos++] = '&';
+      for (int i = 0; i < token.length(); i++) block[pos++] = (byte) token.charAt(i);
+      initFromBlock();
+    } else {
+      byte[] key = (consumer + '&' + token).getBytes(UTF_8);
+      init(key, 0, key.length);
+      Arrays.fill(key, (byte) 0);
+    }
+  }
+
+  void init(byte[] key, int offset, int length) {
+    Arrays.fill(block, (byte) 0);
+    if (length > block.length) {
+      // keys longer than the block size are hashed first
+      inner.reset();
+      inner.update(key, offset, length);
+      inner.doFinal(block, 0);
+    } else {
+      System.arraycopy(key, offset, block, 0, length);
+    }
+    initFromBlock();
+  }
+
+  private void initFromBlock() {
+    inner.reset();
+    outer.reset();
+    for (int i = 0; i < block.length; i++) {
+      inner.update((byte) (block[i] ^ IPAD));
+      outer.update((byte) (block[i] ^ OPAD));
+    }
+    Arrays.fill(block, (byte) 0);
+
+    keyedInner.copyFrom(inner);
+    keyedOuter.copyFrom(outer);
+    initialized = true;
+  }
+
+  void update(byte b) {
+    inner.update(b);
+  }
+
+  void update(byte[] input, int offset, int length) {
+    inner.update(input, offset, length);
+  }
+
+  void update(ByteBuffer input) {
+    if (input.hasArray()) {
+      inner.update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+      input.position(input.limit());
+    } else {
+      while (input.hasRemaining()) {
+        inner.update(input.get());
+      }
+    }
+  }
+
+  void update(CharSequence input, int start, int end) {
+    inner.update(input, start, end);
+  }
+
+  void update(char[] input, int offset, int length) {
+    inner.update(input, offset, length);
+  }
+
+  /**
+   * write the mac into out, and reset to the keyed state
+   */
+  int doFinal(byte[] out, int offset) {
+    if (!initialized) {
+      throw new IllegalStateException("Hmac not initialized");
+    }
+    int length = macLength();
+    if (offset < 0 || out.length - offset < length) {
+      throw new IllegalArgumentException("output buffer too short for " + length + " byte mac");
+    }
+    inner.doFinal(block, 0);
+    outer.update(block, 0, length);
+    outer.doFinal(out, offset);
+
+    inner.copyFrom(keyedInner);
+    outer.copyFrom(keyedOuter);
+    return length;
+  }
+
+  byte[] doFinal() {
+    byte[] out = new byte[macLength()];
+    doFinal(out, 0);
+    return out;
+  }
+
+  /**
+   * discard any data hashed since the last doFinal
+   */
+  void reset() {
+    if (initialized) {
+      inner.copyFrom(keyedInner);
+      outer.copyFrom(keyedOuter);
+    }
+  }
+
+  /**
+   * A bounded pool of Hmacs for one algorithm, like MacPool: a borrow from an empty pool
+   * creates an Hmac, and a release to a full pool drops it. Pooled Hmacs keep the key they
+   * were last initialized with, so a borrowed Hmac must always be initialized before use.
+   */
+  static final class Pool {
+    private final String algorithm;
+    private final int maxIdle;
+    private final Queue<Hmac> idle = new ConcurrentLinkedQueue<Hmac>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    Pool(String algorithm, int maxIdle) {
+      if (!supports(algorithm)) {
+        throw new IllegalArgumentException("unsupported algorithm: " + algorithm);
+      }
+      this.algorithm = algorithm;
+      this.maxIdle = maxIdle;
+    }
+
+    Hmac borrow() {
+      Hmac hmac = idle.poll();
+      if (hmac == null) {
+        return forAlgorithm(algorithm);
+      }
+      idleCount.decrementAndGet();
+      return hmac;
+    }
+
+    void release(Hmac hmac) {
+      // discard any partially-hashed data, e.g. if signing threw half way through
+      hmac.reset();
+      if (idleCount.incrementAndGet() <= maxIdle) {
+        idle.offer(hmac);
+      } else {
+        idleCount.decrementAndGet();
+      }
+    }
+  }
+
+  private static boolean isAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) return false;
+    }
+    return true;
+  }
+
+  /**
+   * the Merkle-Damgard plumbing shared by SHA-1 and SHA-256: 64 byte blocks, and a big-endian
+   * bit count in the final block.
+   */
+  abstract static class Digest {
+    static final int BLOCK_LENGTH = 64;
+
+    private final byte[] buffer = new byte[BLOCK_LENGTH];
+    private int bufferLength = 0;
+    private long byteCount = 0;
+
+    abstract int digestLength();
+
+    abstract void resetState();
+
+    abstract void processBlock(byte[] input, int offset);
+
+    abstract void writeState(byte[] out, int offset);
+
+    abstract void copyStateFrom(Digest other);
+
+    void reset() {
+      bufferLength = 0;
+      byteCount = 0;
+      resetState();
+    }
+
+    void copyFrom(Digest other) {
+      System.arraycopy(other.buffer, 0, buffer, 0, other.bufferLength);
+      bufferLength = other.bufferLength;
+      byteCount = other.byteCount;
+      copyStateFrom(other);
+    }
+
+    void update(byte b) {
+      buffer[bufferLength++] = b;
+      byteCount++;
+      if (bufferLength == BLOCK_LENGTH) {
+        processBlock(buffer, 0);
+        bufferLength = 0;
+      }
+    }
+
+    void update(byte[] input, int offset, int length) {
+      byteCount += length;
+      if (bufferLength > 0) {
+        int n = Math.min(BLOCK_LENGTH - bufferLength, length);
+        System.arraycopy(input, offset, buffer, bufferLength, n);
+        bufferLength += n;
+        offset += n;
+        length -= n;
+        if (bufferLength < BLOCK_LENGTH) {
+          return;
+        }
+        processBlock(buffer, 0);
+        bufferLength = 0;
+      }
+      while (length >= BLOCK_LENGTH) {
+        processBlock(input, offset);
+        offset += BLOCK_LENGTH;
+        length -= BLOCK_LENGTH;
+      }
+      if (length > 0) {
+        System.arraycopy(input, offset, buffer, 0, length);
+        bufferLength = length;
+      }
+    }
+
+    /**
+     * hash chars as UTF-8, matching String.getBytes, which replaces unpaired surrogates with '?'
+     */
+    void update(CharSequence input, int start, int end) {
+      int i = start;
+      while (i < end) {
+        char c = input.charAt(i++);
+        if (c < 0x80) {
+          update((byte) c);
+        } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(input.charAt(i))) {
+          updateCodePoint(Character.toCodePoint(c, input.charAt(i++)));
+        } else {
+          updateChar(c);
+        }
+      }
+    }
+
+    void update(char[] input, int offset, int length) {
+      int i = offset;
+      int end = offset + length;
+      while (i < end) {
+        char c = input[i++];
+        if (c < 0x80) {
+          update((byte) c);
+        } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(input[i])) {
+          updateCodePoint(Character.toCodePoint(c, input[i++]));
+        } else {
+          updateChar(c);
+        }
+      }
+    }
+
+    private void updateChar(char c) {
+      if (c < 0x800) {
+        update((byte) (0xc0 | (c >> 6)));
+        update((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        update((byte) '?');
+      } else {
+        update((byte) (0xe0 | (c >> 12)));
+        update((byte) (0x80 | ((c >> 6) & 0x3f)));
+        update((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+
+    private void updateCodePoint(int codePoint) {
+      update((byte) (0xf0 | (codePoint >> 18)));
+      update((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+      update((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+      update((byte) (0x80 | (codePoint & 0x3f)));
+    }
+
+    void doFinal(byte[] out, int offset) {
+      long bitCount = byteCount << 3;
+
+      buffer[bufferLength++] = (byte) 0x80;
+      if (bufferLength > BLOCK_LENGTH - 8) {
+        Arrays.fill(buffer, bufferLength, BLOCK_LENGTH, (byte) 0);
+        processBlock(buffer, 0);
+        bufferLength = 0;
+      }
+      Arrays.fill(buffer, bufferLength, BLOCK_LENGTH - 8, (byte) 0);
+      for (int i = 0; i < 8; i++) {
+        buffer[BLOCK_LENGTH - 1 - i] = (byte) (bitCount >>> (8 * i));
+      }
+      processBlock(buffer, 0);
+      writeState(out, offset);
+      reset();
+    }
+
+    static int readInt(byte[] input, int offset) {
+      return (input[offset] << 24) | ((input[offset + 1] & 0xff) << 16) |
+        ((input[offset + 2] & 0xff) << 8) | (input[offset + 3] & 0xff);
+    }
+
+    static void writeInt(int value, byte[] out, int offset) {
+      out[offset] = (byte) (value >>> 24);
+      out[offset + 1] = (byte) (value >>> 16);
+      out[offset + 2] = (byte) (value >>> 8);
+      out[offset + 3] = (byte) value;
+    }
+  }
+
+  /**
+   * SHA-1, per FIPS 180-4. The message schedule is kept in a rolling 16 word window.
+   */
+  static final class Sha1Digest extends Digest {
+    private final int[] h = new int[5];
+    private final int[] w = new int[16];
+
+    Sha1Digest() {
+      resetState();
+    }
+
+    @Override
+    int digestLength() {
+      return 20;
+    }
+
+    @Override
+    void resetState() {
+      h[0] = 0x67452301;
+      h[1] = 0xefcdab89;
+      h[2] = 0x98badcfe;
+      h[3] = 0x10325476;
+      h[4] = 0xc3d2e1f0;
+    }
+
+    @Override
+    void copyStateFrom(Digest other) {
+      System.arraycopy(((Sha1Digest) other).h, 0, h, 0, h.length);
+    }
+
+    @Override
+    void processBlock(byte[] input, int offset) {
+      for (int t = 0; t < 16; t++) {
+        w[t] = readInt(input, offset + 4 * t);
+      }
+
+      int a = h[0];
+      int b = h[1];
+      int c = h[2];
+      int d = h[3];
+      int e = h[4];
+
+      for (int t = 0; t < 80; t++) {
+        int wt;
+        if (t < 16) {
+          wt = w[t];
+        } else {
+          wt = Integer.rotateLeft(w[(t - 3) & 15] ^ w[(t - 8) & 15] ^ w[(t - 14) & 15] ^ w[t & 15], 1);
+          w[t & 15] = wt;
+        }
+
+        int f;
+        if (t < 20) {
+          f = ((b & c) | (~b & d)) + 0x5a827999;
+        } else if (t < 40) {
+          f = (b ^ c ^ d) + 0x6ed9eba1;
+        } else if (t < 60) {
+          f = ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc;
+        } else {
+          f = (b ^ c ^ d) + 0xca62c1d6;
+        }
+
+        int temp = Integer.rotateLeft(a, 5) + f + e + wt;
+        e = d;
+        d = c;
+        c = Integer.rotateLeft(b, 30);
+        b = a;
+        a = temp;
+      }
+
+      h[0] += a;
+      h[1] += b;
+      h[2] += c;
+      h[3] += d;
+      h[4] += e;
+    }
+
+    @Override
+    void writeState(byte[] out, int offset) {
+      for (int i = 0; i < h.length; i++) {
+        writeInt(h[i], out, offset + 4 * i);
+      }
+    }
+  }
+
+  /**
+   * SHA-256, per FIPS 180-4. The message schedule is kept in a rolling 16 word window.
+   */
+  static final class Sha256Digest extends Digest {
+    private static final int[] K = {
+      0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+      0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+      0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+      0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+      0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+      0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+      0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+      0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] h = new int[8];
+    private final int[] w = new int[16];
+
+    Sha256Digest() {
+      resetState();
+    }
+
+    @Override
+    int digestLength() {
+      return 32;
+    }
+
+    @Override
+    void resetState() {
+      h[0] = 0x6a09e667;
+      h[1] = 0xbb67ae85;
+      h[2] = 0x3c6ef372;
+      h[3] = 0xa54ff53a;
+      h[4] = 0x510e527f;
+      h[5] = 0x9b05688c;
+      h[6] = 0x1f83d9ab;
+      h[7] = 0x5be0cd19;
+    }
+
+    @Override
+    void copyStateFrom(Digest other) {
+      System.arraycopy(((Sha256Digest) other).h, 0, h, 0, h.length);
+    }
+
+    @Override
+    void processBlock(byte[] input, int offset) {
+      for (int t = 0; t < 16; t++) {
+        w[t] = readInt(input, offset + 4 * t);
+      }
+
+      int a = h[0];
+      int b = h[1];
+      int c = h[2];
+      int d = h[3];
+      int e = h[4];
+      int f = h[5];
+      int g = h[6];
+      int hh = h[7];
+
+      for (int t = 0; t < 64; t++) {
+        int wt;
+        if (t < 16) {
+          wt = w[t];
+        } else {
+          int w15 = w[(t - 15) & 15];
+          int w2 = w[(t - 2) & 15];
+          int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+          int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+          wt = w[t & 15] + s0 + w[(t - 7) & 15] + s1;
+          w[t & 15] = wt;
+        }
+
+        int sigma1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+        int ch = (e & f) ^ (~e & g);
+        int temp1 = hh + sigma1 + ch + K[t] + wt;
+        int sigma0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+        int maj = (a & b) ^ (a & c) ^ (b & c);
+        int temp2 = sigma0 + maj;
+
+        hh = g;
+        g = f;
+        f = e;
+        e = d + temp1;
+        d = c;
+        c = b;
+        b = a;
+        a = temp1 + temp2;
+      }
+
+      h[0] += a;
+      h[1] += b;
+      h[2] += c;
+      h[3] += d;
+      h[4] += e;
+      h[5] += f;
+      h[6] += g;
+      h[7] += hh;
+    }
+
+    @Override
+    void writeState(byte[] out, int offset) {
+      for (int i = 0; i < h.length; i++) {
+        writeInt(h[i], out, offset + 4 * i);
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Mac;
+
+/**
+ * A bounded pool of Mac instances for a single algorithm. Macs are borrowed for the duration
+ * of one signature and then returned. The pool is not tied to threads, so it stays small
+ * no matter how many (possibly virtual) threads sign concurrently; a borrow from an empty
+ * pool simply creates a new Mac, and a release to a full pool drops it.
+ *
+ * Pooled Macs still hold the key they were last initialized with, so callers must always
+ * call Mac.init with their own key before using a borrowed Mac.
+ */
+class MacPool {
+
+  private final String algorithm;
+  private final int maxIdle;
+  private final Queue<Mac> idle = new ConcurrentLinkedQueue<Mac>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  MacPool(String algorithm, int maxIdle) {
+    this.algorithm = algorithm;
+    this.maxIdle = maxIdle;
+  }
+
+  String algorithm() {
+    return algorithm;
+  }
+
+  Mac borrow() throws NoSuchAlgorithmException {
+    Mac mac = idle.poll();
+    if (mac == null) {
+      return newMac();
+    }
+    idleCount.decrementAndGet();
+    return mac;
+  }
+
+  void release(Mac mac) {
+    // reset any partially-hashed data, e.g. if signing threw half way through
+    mac.reset();
+    if (idleCount.incrementAndGet() <= maxIdle) {
+      idle.offer(mac);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  Mac newMac() throws NoSuchAlgorithmException {
+    return Mac.getInstance(algorithm);
+  }
+}
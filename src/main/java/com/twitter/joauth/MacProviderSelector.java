@@ -0,0 +1,249 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.nio.charset.Charset;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Picks the fastest installed JCA provider for each HMAC algorithm. Every provider that offers
+ * an algorithm is first checked against the default provider on a handful of keys and messages;
+ * those that agree are then timed signing a typical request (a key init, then a hash over a few
+ * hundred bytes) for a short, fixed slice of time, and the fastest is chosen. The default
+ * provider wins ties, and remains the choice if it's the only one.
+ *
+ * Each candidate is timed for warmupMillis plus measureMillis, so with the defaults and the
+ * usual one or two providers per algorithm, selection takes a few hundred milliseconds at most.
+ */
+public class MacProviderSelector {
+
+  static final List<String> DEFAULT_ALGORITHMS = Collections.unmodifiableList(
+    Arrays.asList(Hmac.HMACSHA1, Hmac.HMACSHA256, SignatureMethod.HMAC_SHA512.algorithm()));
+  static final long DEFAULT_WARMUP_MILLIS = 20;
+  static final long DEFAULT_MEASURE_MILLIS = 30;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Logger log = Logger.getLogger("MacProviderSelector");
+
+  private static final int OPS_PER_BATCH = 64;
+  private static final int MESSAGE_LENGTH = 320;
+
+  private final List<String> algorithms;
+  private final long warmupNanos;
+  private final long measureNanos;
+
+  public MacProviderSelector() {
+    this(DEFAULT_ALGORITHMS, DEFAULT_WARMUP_MILLIS, DEFAULT_MEASURE_MILLIS);
+  }
+
+  public MacProviderSelector(List<String> algorithms, long warmupMillis, long measureMillis) {
+    this.algorithms = algorithms;
+    this.warmupNanos = warmupMillis * 1000000L;
+    this.measureNanos = measureMillis * 1000000L;
+  }
+
+  /**
+   * measure the installed providers for HmacSHA1, HmacSHA256 and HmacSHA512 with the default timings
+   */
+  public static Selection select() {
+    return new MacProviderSelector().run();
+  }
+
+  /**
+   * measure every installed provider of each algorithm, and choose the fastest. The selection
+   * is only logged at FINE, since it may be run on every startup; callers that want it in their
+   * logs can log the returned Selection.
+   */
+  public Selection run() {
+    long start = System.nanoTime();
+    List<Measurement> measurements = new ArrayList<Measurement>();
+    Map<String, Provider> chosen = new HashMap<String, Provider>();
+
+    for (String algorithm : algorithms) {
+      Provider[] providers = Security.getProviders("Mac." + algorithm);
+      if (providers == null) continue;
+
+      byte[][] expected = null;
+      Measurement fastest = null;
+      for (Provider provider : providers) {
+        Measurement measurement;
+        try {
+          if (expected == null) {
+            // the first provider is the default, and the reference for the others
+            expected = sampleOutputs(Mac.getInstance(algorithm));
+          }
+          Mac mac = Mac.getInstance(algorithm, provider);
+          if (!Arrays.deepEquals(expected, sampleOutputs(mac))) {
+            measurement = new Measurement(algorithm, provider, -1, false, "output differs from the default provider");
+          } else {
+            measurement = new Measurement(algorithm, provider, time(mac), true, null);
+          }
+        } catch (Exception e) {
+          measurement = new Measurement(algorithm, provider, -1, false, e.toString());
+        }
+        measurements.add(measurement);
+
+        if (measurement.usable() && (fastest == null || measurement.nanosPerOp() < fastest.nanosPerOp())) {
+          fastest = measurement;
+        }
+      }
+      if (fastest != null) {
+        chosen.put(algorithm, fastest.provider());
+      }
+    }
+
+    Selection selection = new Selection(chosen, measurements, System.nanoTime() - start);
+    if (log.isLoggable(Level.FINE)) {
+      log.log(Level.FINE, selection.toString());
+    }
+    return selection;
+  }
+
+  private static byte[][] sampleOutputs(Mac mac) throws Exception {
+    String[] keys = { "&", "kd94hf93k423kf44&pfkkdhi9sl3r4s00", repeat('k', 100) + "&" + repeat('t', 40) };
+    String[] messages = { "", "GET&http%3A%2F%2Fexample.com%2F&a%3Db", repeat('m', 1000) };
+    byte[][] outputs = new byte[keys.length * messages.length][];
+    int i = 0;
+    for (String key : keys) {
+      for (String message : messages) {
+        mac.init(new SecretKeySpec(key.getBytes(UTF_8), mac.getAlgorithm()));
+        outputs[i++] = mac.doFinal(message.getBytes(UTF_8));
+      }
+    }
+    return outputs;
+  }
+
+  /**
+   * nanoseconds per key init and signature over a typical normalized request
+   */
+  private double time(Mac mac) throws Exception {
+    SecretKeySpec key = new SecretKeySpec("kd94hf93k423kf44&pfkkdhi9sl3r4s00".getBytes(UTF_8), mac.getAlgorithm());
+    byte[] message = repeat('m', MESSAGE_LENGTH).getBytes(UTF_8);
+
+    runFor(mac, key, message, warmupNanos);
+    long start = System.nanoTime();
+    long ops = runFor(mac, key, message, measureNanos);
+    return (double) (System.nanoTime() - start) / ops;
+  }
+
+  private static long runFor(Mac mac, SecretKeySpec key, byte[] message, long nanos) throws Exception {
+    long deadline = System.nanoTime() + nanos;
+    long ops = 0;
+    int sink = 0;
+    do {
+      for (int i = 0; i < OPS_PER_BATCH; i++) {
+        mac.init(key);
+        mac.update(message);
+        sink += mac.doFinal()[0];
+      }
+      ops += OPS_PER_BATCH;
+    } while (System.nanoTime() < deadline);
+    // keep the JIT from eliding the work
+    return (sink == Integer.MIN_VALUE) ? ops + 1 : ops;
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  /**
+   * the timing for one provider of one algorithm
+   */
+  public static class Measurement {
+    private final String algorithm;
+    private final Provider provider;
+    private final double nanosPerOp;
+    private final boolean usable;
+    private final String reason;
+
+    Measurement(String algorithm, Provider provider, double nanosPerOp, boolean usable, String reason) {
+      this.algorithm = algorithm;
+      this.provider = provider;
+      this.nanosPerOp = nanosPerOp;
+      this.usable = usable;
+      this.reason = reason;
+    }
+
+    public String algorithm() { return algorithm; }
+    public Provider provider() { return provider; }
+    /** nanoseconds per signature, or -1 if the provider wasn't usable */
+    public double nanosPerOp() { return nanosPerOp; }
+    /** false if the provider failed, or didn't produce the same output as the default provider */
+    public boolean usable() { return usable; }
+    /** why the provider wasn't usable, or null */
+    public String reason() { return reason; }
+
+    @Override
+    public String toString() {
+      if (usable) {
+        return String.format("%s/%s: %.0fns", algorithm, provider.getName(), nanosPerOp);
+      } else {
+        return String.format("%s/%s: unusable (%s)", algorithm, provider.getName(), reason);
+      }
+    }
+  }
+
+  /**
+   * the provider chosen for each algorithm, along with every measurement taken
+   */
+  public static class Selection {
+    private final Map<String, Provider> providers;
+    private final List<Measurement> measurements;
+    private final long elapsedNanos;
+
+    Selection(Map<String, Provider> providers, List<Measurement> measurements, long elapsedNanos) {
+      this.providers = Collections.unmodifiableMap(providers);
+      this.measurements = Collections.unmodifiableList(measurements);
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * the chosen provider for each algorithm, by JCA algorithm name
+     */
+    public Map<String, Provider> providers() { return providers; }
+    public List<Measurement> measurements() { return measurements; }
+    /** how long selection took */
+    public long elapsedNanos() { return elapsedNanos; }
+
+    /**
+     * a Signer bound to the chosen providers
+     */
+    public Signer.ProviderSigner signer() {
+      return new Signer.ProviderSigner(providers);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder("mac providers selected in ");
+      builder.append(elapsedNanos / 1000000).append("ms:");
+      for (String algorithm : providers.keySet()) {
+        builder.append(' ').append(algorithm).append('=').append(providers.get(algorithm).getName());
+      }
+      builder.append(' ').append(measurements);
+      return builder.toString();
+    }
+  }
+}
@@ -0,0 +1,364 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * a read-only SecretStore backed by snapshot files of sorted secrets, which are memory-mapped
+ * rather than read onto the heap. A lookup is a binary search over the mapped file, and
+ * allocates only the encoded key and the String it returns, so millions of consumers cost no
+ * more heap or GC time than a handful.
+ *
+ * A new snapshot is swapped in atomically; lookups already under way finish against the old
+ * one, whose mapping is released once it's garbage collected. Write snapshots with
+ * writeSnapshot, which writes to a temporary file and renames it into place.
+ *
+ * Consumer secrets are always read from a snapshot, and a PEM armored one is an RSA-SHA1 key
+ * (see ConsumerCredential.fromStored). Token secrets, and the consumer keys of OAuth2 bearer
+ * tokens, come from snapshots too if they're given, or otherwise aren't known.
+ */
+public class MappedSecretStore implements SecretStore {
+
+  private final AtomicReference<Snapshot> consumerSecrets;
+  private final AtomicReference<Snapshot> tokenSecrets;
+  private final AtomicReference<Snapshot> bearerTokens;
+
+  public MappedSecretStore(File consumerSecrets) throws IOException {
+    this(consumerSecrets, null);
+  }
+
+  /**
+   * @param tokenSecrets a snapshot of token secrets, or null
+   */
+  public MappedSecretStore(File consumerSecrets, File tokenSecrets) throws IOException {
+    this(consumerSecrets, tokenSecrets, null);
+  }
+
+  /**
+   * @param tokenSecrets a snapshot of token secrets, or null
+   * @param bearerTokens a snapshot of the consumer keys of bearer tokens, or null
+   */
+  public MappedSecretStore(File consumerSecrets, File tokenSecrets, File bearerTokens) throws IOException {
+    this.consumerSecrets = new AtomicReference<Snapshot>(Snapshot.open(consumerSecrets));
+    this.tokenSecrets = new AtomicReference<Snapshot>((tokenSecrets == null) ? null : Snapshot.open(tokenSecrets));
+    this.bearerTokens = new AtomicReference<Snapshot>((bearerTokens == null) ? null : Snapshot.open(bearerTokens));
+  }
+
+  @Override
+  public ListenableFuture<ConsumerCredential> consumerCredential(String consumerKey) {
+    return Futures.immediateFuture(ConsumerCredential.fromStored(getConsumerSecret(consumerKey)));
+  }
+
+  @Override
+  public ListenableFuture<String> tokenSecret(String token) {
+    return Futures.immediateFuture(getTokenSecret(token));
+  }
+
+  @Override
+  public ListenableFuture<String> bearerToken(String token) {
+    return Futures.immediateFuture(getBearerToken(token));
+  }
+
+  /**
+   * the consumer secret for a consumer key, or null
+   */
+  public String getConsumerSecret(String consumerKey) {
+    return (consumerKey == null) ? null : consumerSecrets.get().get(consumerKey);
+  }
+
+  /**
+   * the secret for a token, or null
+   */
+  public String getTokenSecret(String token) {
+    Snapshot snapshot = tokenSecrets.get();
+    return (snapshot == null || token == null) ? null : snapshot.get(token);
+  }
+
+  /**
+   * the consumer key a bearer token was issued to, or null
+   */
+  public String getBearerToken(String token) {
+    Snapshot snapshot = bearerTokens.get();
+    return (snapshot == null || token == null) ? null : snapshot.get(token);
+  }
+
+  /**
+   * map a new snapshot of consumer secrets, and swap it in once it's been checked
+   */
+  public void swapConsumerSecrets(File file) throws IOException {
+    consumerSecrets.set(Snapshot.open(file));
+  }
+
+  /**
+   * map a new snapshot of token secrets, and swap it in once it's been checked
+   */
+  public void swapTokenSecrets(File file) throws IOException {
+    tokenSecrets.set(Snapshot.open(file));
+  }
+
+  /**
+   * map a new snapshot of bearer tokens, and swap it in once it's been checked
+   */
+  public void swapBearerTokens(File file) throws IOException {
+    bearerTokens.set(Snapshot.open(file));
+  }
+
+  public int consumerCount() {
+    return consumerSecrets.get().size();
+  }
+
+  /**
+   * write a snapshot of secrets, by key, to a uniquely named temporary file next to file, and
+   * then rename it over file, so a store never maps a partly written snapshot and concurrent
+   * writers don't clobber each other's temporary files. The rename must replace file in one
+   * step, so this fails rather than deleting file first on platforms that won't rename over
+   * an existing file.
+   */
+  public static void writeSnapshot(Map<String, String> secrets, File file) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile("." + file.getName() + ".", ".tmp", dir);
+    boolean renamed = false;
+    try {
+      Snapshot.write(secrets, tmp);
+      renamed = tmp.renameTo(file);
+      if (!renamed) {
+        throw new IOException("could not rename " + tmp + " over " + file);
+      }
+    } finally {
+      if (!renamed) {
+        tmp.delete();
+      }
+    }
+  }
+
+  /**
+   * a mapped snapshot file. The layout is
+   *
+   *   magic (int), version (int), count (int)
+   *   count record offsets (int), in ascending order of key
+   *   count records of key length (unsigned short), key, secret length (unsigned short), secret
+   *
+   * with keys and secrets encoded as UTF-8, and keys ordered by their unsigned bytes.
+   */
+  static final class Snapshot {
+    static final int MAGIC = 0x4a4f5353;
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 12;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_LENGTH = 0xffff;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private Snapshot(MappedByteBuffer buffer, int count) {
+      this.buffer = buffer;
+      this.count = count;
+    }
+
+    int size() {
+      return count;
+    }
+
+    static Snapshot open(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        long length = channel.size();
+        if (length > Integer.MAX_VALUE) {
+          throw new IOException(file + " is too large to map");
+        }
+        if (length < HEADER_LENGTH) {
+          throw new IOException(file + " is not a secret snapshot");
+        }
+        // the mapping stays valid once the file is closed
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+          throw new IOException(file + " is not a secret snapshot");
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER_LENGTH + 4L * count > length) {
+          throw new IOException(file + " is truncated");
+        }
+        check(file, buffer, count, (int) length);
+        return new Snapshot(buffer, count);
+      } finally {
+        raf.close();
+      }
+    }
+
+    /**
+     * check that every record lies within the file and that the keys are in strictly
+     * ascending order, as the binary search in get needs, so a corrupt snapshot is rejected
+     * before it's swapped in rather than failing or missing lookups. Bounds are checked in
+     * long arithmetic so that no offset can overflow them.
+     */
+    private static void check(File file, MappedByteBuffer buffer, int count, int length) throws IOException {
+      long recordsStart = HEADER_LENGTH + 4L * count;
+      int previous = -1;
+      for (int i = 0; i < count; i++) {
+        int offset = buffer.getInt(HEADER_LENGTH + 4 * i);
+        if (offset < recordsStart || offset + 2L > length) {
+          throw new IOException(file + " has a bad record offset");
+        }
+        long valueOffset = offset + 2L + (buffer.getShort(offset) & MAX_LENGTH);
+        if (valueOffset + 2 > length || valueOffset + 2 + (buffer.getShort((int) valueOffset) & MAX_LENGTH) > length) {
+          throw new IOException(file + " has a truncated record");
+        }
+        if (previous >= 0 && compareKeys(buffer, previous, offset) >= 0) {
+          throw new IOException(file + " has keys out of order");
+        }
+        previous = offset;
+      }
+    }
+
+    /**
+     * compare the keys of the records at two offsets, as unsigned bytes
+     */
+    private static int compareKeys(MappedByteBuffer buffer, int a, int b) {
+      int aLength = buffer.getShort(a) & MAX_LENGTH;
+      int bLength = buffer.getShort(b) & MAX_LENGTH;
+      int common = Math.min(aLength, bLength);
+      for (int i = 0; i < common; i++) {
+        int cmp = (buffer.get(a + 2 + i) & 0xff) - (buffer.get(b + 2 + i) & 0xff);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return aLength - bLength;
+    }
+
+    /**
+     * binary search for the key, comparing its encoding with the mapped bytes in place
+     */
+    String get(String key) {
+      byte[] keyBytes = key.getBytes(UTF_8);
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        int offset = buffer.getInt(HEADER_LENGTH + 4 * mid);
+        int cmp = compare(offset, keyBytes);
+        if (cmp < 0) {
+          low = mid + 1;
+        } else if (cmp > 0) {
+          high = mid - 1;
+        } else {
+          int valueOffset = offset + 2 + keyBytes.length;
+          int valueLength = buffer.getShort(valueOffset) & MAX_LENGTH;
+          byte[] value = new byte[valueLength];
+          for (int i = 0; i < valueLength; i++) {
+            value[i] = buffer.get(valueOffset + 2 + i);
+          }
+          return new String(value, UTF_8);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * compare the key of the record at offset with keyBytes, as unsigned bytes. Only absolute
+     * gets are used, so the shared buffer's position is never touched.
+     */
+    private int compare(int offset, byte[] keyBytes) {
+      int length = buffer.getShort(offset) & MAX_LENGTH;
+      int common = Math.min(length, keyBytes.length);
+      for (int i = 0; i < common; i++) {
+        int a = buffer.get(offset + 2 + i) & 0xff;
+        int b = keyBytes[i] & 0xff;
+        if (a != b) {
+          return a - b;
+        }
+      }
+      return length - keyBytes.length;
+    }
+
+    static void write(Map<String, String> secrets, File file) throws IOException {
+      byte[][] keys = new byte[secrets.size()][];
+      byte[][] values = new byte[secrets.size()][];
+      String[] names = secrets.keySet().toArray(new String[secrets.size()]);
+      final byte[][] encoded = new byte[names.length][];
+      Integer[] order = new Integer[names.length];
+      for (int i = 0; i < names.length; i++) {
+        encoded[i] = names[i].getBytes(UTF_8);
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return compareUnsigned(encoded[a], encoded[b]);
+        }
+      });
+      for (int i = 0; i < order.length; i++) {
+        keys[i] = encoded[order[i]];
+        values[i] = secrets.get(names[order[i]]).getBytes(UTF_8);
+        if (keys[i].length > MAX_LENGTH || values[i].length > MAX_LENGTH) {
+          throw new IOException("key or secret too long for " + names[order[i]]);
+        }
+        if (i > 0 && compareUnsigned(keys[i - 1], keys[i]) == 0) {
+          throw new IOException("more than one key encodes to the same bytes as " + names[order[i]]);
+        }
+      }
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(keys.length);
+        long offset = HEADER_LENGTH + 4L * keys.length;
+        for (int i = 0; i < keys.length; i++) {
+          if (offset > Integer.MAX_VALUE) {
+            throw new IOException("too many secrets for one snapshot");
+          }
+          out.writeInt((int) offset);
+          offset += 4 + keys[i].length + values[i].length;
+        }
+        for (int i = 0; i < keys.length; i++) {
+          out.writeShort(keys[i].length);
+          out.write(keys[i]);
+          out.writeShort(values[i].length);
+          out.write(values[i]);
+        }
+      } finally {
+        out.close();
+      }
+    }
+
+    private static int compareUnsigned(byte[] a, byte[] b) {
+      int common = Math.min(a.length, b.length);
+      for (int i = 0; i < common; i++) {
+        int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return a.length - b.length;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.SecureRandom;
+
+/**
+ * a trait for generating nonces for outbound requests, the client side counterpart
+ * of NonceValidator
+ */
+public interface NonceGenerator {
+
+  String nextNonce();
+
+  /**
+   * a singleton of the StripedNonceGenerator class
+   */
+  public final NonceGenerator STANDARD_NONCE_GENERATOR = new StripedNonceGenerator();
+
+  /**
+   * generates nonces of 16 random bytes, encoded as 22 chars of unpadded url-safe base64, so
+   * they need no percent-encoding.
+   *
+   * A single SecureRandom serializes every thread that asks it for bytes, so the generator is
+   * split into a power of two stripes, each with its own SecureRandom, a buffer of random bytes
+   * that's refilled a few hundred bytes at a time, and a scratch array for the encoded chars.
+   * A thread always uses the same stripe, and with at least as many stripes as cores, threads
+   * rarely contend. The only allocation per nonce is the String itself.
+   */
+  public static class StripedNonceGenerator implements NonceGenerator {
+
+    static final int NONCE_BYTES = 16;
+    static final int NONCE_CHARS = 22;
+
+    private static final int NONCES_PER_REFILL = 32;
+    private static final char[] URL_SAFE_BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public StripedNonceGenerator() {
+      this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedNonceGenerator(int minStripes) {
+      int size = 1;
+      while (size < minStripes) {
+        size <<= 1;
+      }
+      stripes = new Stripe[size];
+      for (int i = 0; i < size; i++) {
+        stripes[i] = new Stripe();
+      }
+      mask = size - 1;
+    }
+
+    int stripeCount() {
+      return stripes.length;
+    }
+
+    @Override
+    public String nextNonce() {
+      Stripe stripe = stripes[stripeIndex(Thread.currentThread().getId())];
+      synchronized (stripe) {
+        return stripe.nextNonce();
+      }
+    }
+
+    private int stripeIndex(long threadId) {
+      // thread ids are sequential, so spread them before masking
+      long h = threadId * 0x9E3779B97F4A7C15L;
+      return (int) (h >>> 32) & mask;
+    }
+
+    private static final class Stripe {
+      private final SecureRandom random = new SecureRandom();
+      private final byte[] bytes = new byte[NONCE_BYTES * NONCES_PER_REFILL];
+      private final char[] chars = new char[NONCE_CHARS];
+      private int position = bytes.length;
+
+      String nextNonce() {
+        if (position == bytes.length) {
+          random.nextBytes(bytes);
+          position = 0;
+        }
+        int c = 0;
+        int end = position + NONCE_BYTES - 1;
+        // 15 bytes make five whole 4 char blocks, and the last byte makes two more chars
+        while (position < end) {
+          int block = ((bytes[position] & 0xff) << 16) |
+            ((bytes[position + 1] & 0xff) << 8) |
+            (bytes[position + 2] & 0xff);
+          chars[c++] = URL_SAFE_BASE64[(block >> 18) & 0x3f];
+          chars[c++] = URL_SAFE_BASE64[(block >> 12) & 0x3f];
+          chars[c++] = URL_SAFE_BASE64[(block >> 6) & 0x3f];
+          chars[c++] = URL_SAFE_BASE64[block & 0x3f];
+          position += 3;
+        }
+        int last = bytes[position++] & 0xff;
+        chars[c++] = URL_SAFE_BASE64[last >> 2];
+        chars[c] = URL_SAFE_BASE64[(last & 0x3) << 4];
+        return new String(chars);
+      }
+    }
+  }
+
+  /**
+   * for testing. always returns the same nonce.
+   */
+  public static class ConstNonceGenerator implements NonceGenerator {
+
+    private final String nonce;
+
+    public ConstNonceGenerator(String nonce) {
+      this.nonce = nonce;
+    }
+
+    @Override
+    public String nextNonce() {
+      return nonce;
+    }
+  }
+
+  /**
+   * the current time in seconds, for oauth_timestamp. currentTimeSecs reads the system clock on
+   * every call, which costs no more than a cached value would without a thread to update it. The
+   * decimal String for the current second is cached, so at most one is built per second however
+   * many requests are signed.
+   */
+  public static class TimestampSource {
+
+    /**
+     * a singleton of the TimestampSource class
+     */
+    public static final TimestampSource STANDARD_TIMESTAMP_SOURCE = new TimestampSource();
+
+    private volatile Second current = new Second(-1L, null);
+
+    public long currentTimeSecs() {
+      return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * the decimal String for timestampSecs, which is cached if it's the current second
+     */
+    public String toString(long timestampSecs) {
+      Second second = current;
+      if (second.secs == timestampSecs) {
+        return second.str;
+      }
+      String str = Long.toString(timestampSecs);
+      if (timestampSecs > second.secs) {
+        // racing threads may each build the String for a new second, which is harmless
+        current = new Second(timestampSecs, str);
+      }
+      return str;
+    }
+
+    private static final class Second {
+      private final long secs;
+      private final String str;
+
+      Second(long secs, String str) {
+        this.secs = secs;
+        this.str = str;
+      }
+    }
+  }
+}
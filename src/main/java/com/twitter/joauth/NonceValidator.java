@@ -12,6 +12,13 @@
 
 package com.twitter.joauth;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 /**
  * a trait for validating a nonce. Nonce-validation is pretty domain-specific,
  * so we leave it as an exercise for the reader
@@ -33,6 +40,38 @@ public interface NonceValidator {
     }
   }
 
+  /**
+   * remembers the nonces it has seen in memory, and rejects any nonce seen within the last
+   * ttl. The ttl should cover the Verifier's whole timestamp window, ahead and behind, since a
+   * request is only replayable while its timestamp is accepted.
+   *
+   * At most maximumSize nonces are remembered; beyond that the oldest are forgotten early, and
+   * could be replayed, so size it for the request rate times the ttl. Nonces are only
+   * remembered by this process, so it suits a single verifying process, not a fleet.
+   */
+  public static class InMemoryNonceValidator implements NonceValidator {
+
+    private final ConcurrentMap<String, Boolean> seen;
+
+    public InMemoryNonceValidator(long maximumSize, long ttl, TimeUnit unit) {
+      this(maximumSize, ttl, unit, Ticker.systemTicker());
+    }
+
+    InMemoryNonceValidator(long maximumSize, long ttl, TimeUnit unit, Ticker ticker) {
+      Cache<String, Boolean> cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(ttl, unit)
+        .ticker(ticker)
+        .build();
+      this.seen = cache.asMap();
+    }
+
+    @Override
+    public boolean validate(String nonce) {
+      return nonce != null && seen.putIfAbsent(nonce, Boolean.TRUE) == null;
+    }
+  }
+
   /**
    * for testing. always returns the same result.
    */
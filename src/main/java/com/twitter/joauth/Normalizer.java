@@ -54,6 +54,72 @@ public abstract class Normalizer {
     );
   }
 
+  /**
+   * write the normalized request into a Sink, such as one that feeds a Mac, instead of
+   * returning it as a String. The default implementation appends the result of normalize;
+   * StandardNormalizer streams the pieces directly.
+   */
+  public void normalize(
+    String scheme,
+    String host,
+    int port,
+    String verb,
+    String path,
+    List<Request.Pair> params,
+    OAuthParams.OAuth1Params oAuth1Params,
+    Sink sink
+  ) {
+    String normalized = normalize(scheme, host, port, verb, path, params, oAuth1Params);
+    sink.append(normalized, 0, normalized.length());
+  }
+
+  public void normalize(Request.ParsedRequest req, OAuthParams.OAuth1Params oAuth1Params, Sink sink) {
+    normalize(
+      req.scheme(),
+      req.host(),
+      req.port(),
+      req.verb(),
+      req.path(),
+      req.params(),
+      oAuth1Params,
+      sink
+    );
+  }
+
+  /**
+   * receives the normalized request a piece at a time
+   */
+  public interface Sink {
+    void append(char c);
+    void append(CharSequence chars, int start, int end);
+  }
+
+  /**
+   * a Sink that collects the normalized request in a StringBuilder
+   */
+  public static class StringBuilderSink implements Sink {
+    private final StringBuilder builder;
+
+    public StringBuilderSink(StringBuilder builder) {
+      this.builder = builder;
+    }
+
+    @Override
+    public void append(char c) {
+      builder.append(c);
+    }
+
+    @Override
+    public void append(CharSequence chars, int start, int end) {
+      builder.append(chars, start, end);
+    }
+
+    @Override
+    public String toString() {
+      return builder.toString();
+    }
+  }
+
   /**
    * the standard implementation of the Normalizer trait. Though stateless and threadsafe,
    * this is a class rather than an object to allow easy access from Java. Scala codebases
@@ -72,6 +138,21 @@ public abstract class Normalizer {
     };
     */
 
+    private static final Comparator<Request.Pair> PAIR_COMPARATOR = new Comparator<Request.Pair>() {
+      @Override
+      public int compare(Request.Pair thisPair, Request.Pair thatPair) {
+        // sort params first by key, then by value
+        int keyCompare = thisPair.key.compareTo(thatPair.key);
+        if (keyCompare == 0) {
+          return thisPair.value.compareTo(thatPair.value);
+        } else {
+          return keyCompare;
+        }
+      }
+    };
+
+    private static final String SCHEME_SEPARATOR = "://";
+
     @Override
     public String normalize(
         String scheme,
@@ -82,54 +163,59 @@ public abstract class Normalizer {
         List<Request.Pair> params,
         OAuthParams.OAuth1Params oAuth1Params
     ) {
-
       // We only need the stringbuilder for the duration of this method
-      StringBuilder paramsBuilder = new StringBuilder(512);
+      StringBuilder builder = new StringBuilder(512);
+      normalize(scheme, host, port, verb, path, params, oAuth1Params, new StringBuilderSink(builder));
+      return builder.toString();
+    }
 
+    /**
+     * streams the normalized request into the sink, percent-encoding the request url and the
+     * parameter string as they're written, rather than building each of them as a String first
+     */
+    @Override
+    public void normalize(
+        String scheme,
+        String host,
+        int port,
+        String verb,
+        String path,
+        List<Request.Pair> params,
+        OAuthParams.OAuth1Params oAuth1Params,
+        Sink sink
+    ) {
       // first, concatenate the params and the oAuth1Params together.
       // the parameters are already URLEncoded, so we leave them alone
-      ArrayList<Request.Pair> sigParams = new ArrayList<Request.Pair>();
+      List<Request.Pair> oAuthParams = oAuth1Params.toList(false);
+      ArrayList<Request.Pair> sigParams = new ArrayList<Request.Pair>(params.size() + oAuthParams.size());
       sigParams.addAll(params);
-      sigParams.addAll(oAuth1Params.toList(false));
-
-      Collections.sort(sigParams, new Comparator<Request.Pair>() {
-        @Override
-        public int compare(Request.Pair thisPair, Request.Pair thatPair) {
-          // sort params first by key, then by value
-          int keyCompare = thisPair.key.compareTo(thatPair.key);
-          if (keyCompare == 0) {
-            return thisPair.value.compareTo(thatPair.value);
-          } else {
-            return keyCompare;
-          }
-        }
-      });
-
-      if (!sigParams.isEmpty()) {
-        Request.Pair head = sigParams.get(0);
-        paramsBuilder.append(head.key).append('=').append(head.value);
-        for (int i=1; i<sigParams.size(); i++) {
-          Request.Pair pair = sigParams.get(i);
-          paramsBuilder.append('&').append(pair.key).append('=').append(pair.value);
-        }
-      }
+      sigParams.addAll(oAuthParams);
 
-      StringBuilder requestUrlBuilder = new StringBuilder(512);
-      requestUrlBuilder.append(scheme.toLowerCase());
-      requestUrlBuilder.append("://");
-      requestUrlBuilder.append(host.toLowerCase());
-      if (includePortString(port, scheme)) {
-        requestUrlBuilder.append(":").append(port);
-      }
-      requestUrlBuilder.append(path);
+      Collections.sort(sigParams, PAIR_COMPARATOR);
 
-      StringBuilder normalizedBuilder = new StringBuilder(512);
+      String upperVerb = verb.toUpperCase();
+      sink.append(upperVerb, 0, upperVerb.length());
+      sink.append('&');
 
-      normalizedBuilder.append(verb.toUpperCase());
-      normalizedBuilder.append('&').append(UrlCodec.encode(requestUrlBuilder.toString()));
-      normalizedBuilder.append('&').append(UrlCodec.encode(paramsBuilder.toString()));
+      UrlCodec.encode(scheme.toLowerCase(), sink);
+      UrlCodec.encode(SCHEME_SEPARATOR, sink);
+      UrlCodec.encode(host.toLowerCase(), sink);
+      if (includePortString(port, scheme)) {
+        UrlCodec.encode(':', sink);
+        UrlCodec.encode(Integer.toString(port), sink);
+      }
+      UrlCodec.encode(path, sink);
+      sink.append('&');
 
-      return normalizedBuilder.toString();
+      for (int i = 0; i < sigParams.size(); i++) {
+        Request.Pair pair = sigParams.get(i);
+        if (i > 0) {
+          UrlCodec.encode('&', sink);
+        }
+        UrlCodec.encode(pair.key, sink);
+        UrlCodec.encode('=', sink);
+        UrlCodec.encode(pair.value, sink);
+      }
     }
 
     /**
@@ -0,0 +1,123 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the bearer tokens of OAuth2 requests to the Principals they were issued to, caching
+ * what a TokenService says about each token. Hot tokens are served from memory, and the
+ * threads that miss on a token at once share a single call to the service. Tokens the service
+ * doesn't know are remembered for negativeTtl, so garbage tokens don't all reach it.
+ *
+ * The cache is an LRU split into shards, each locked and evicted independently, so resolving
+ * tokens doesn't contend on one lock. Entries aren't refreshed ahead of expiry: a revoked
+ * token is served for at most ttl, or until it's invalidated, whichever comes first.
+ */
+public class OAuth2TokenResolver {
+
+  /**
+   * what resolves tokens when they aren't cached, typically a remote token service
+   */
+  public interface TokenService {
+    /**
+     * the principal a token was issued to, or null if the token is unknown or revoked
+     */
+    ListenableFuture<Authenticator.Principal> resolve(String token);
+  }
+
+  private final AsyncLoadingCache<String, Authenticator.Principal> principals;
+
+  /**
+   * @param shards the number of shards the cache is split into
+   * @param ttl how long a resolved token is cached for
+   * @param negativeTtl how long an unknown token is remembered for, or 0 not to
+   */
+  public OAuth2TokenResolver(
+    TokenService service,
+    long maximumSize,
+    int shards,
+    long ttl,
+    long negativeTtl,
+    TimeUnit unit
+  ) {
+    this(service, maximumSize, shards, ttl, negativeTtl, unit, Ticker.systemTicker());
+  }
+
+  OAuth2TokenResolver(
+    final TokenService service,
+    long maximumSize,
+    int shards,
+    long ttl,
+    long negativeTtl,
+    TimeUnit unit,
+    Ticker ticker
+  ) {
+    principals = new AsyncLoadingCache<String, Authenticator.Principal>(
+      new AsyncFunction<String, Authenticator.Principal>() {
+        @Override
+        public ListenableFuture<Authenticator.Principal> apply(String token) {
+          return service.resolve(token);
+        }
+      }, maximumSize, shards, ttl, negativeTtl, 0, unit, ticker);
+  }
+
+  /**
+   * the principal the request's bearer token was issued to, or null if it's unknown
+   */
+  public ListenableFuture<Authenticator.Principal> resolve(UnpackedRequest.OAuth2Request request) {
+    return resolve(request.token());
+  }
+
+  public ListenableFuture<Authenticator.Principal> resolve(String token) {
+    return (token == null || token.length() == 0)
+      ? Futures.<Authenticator.Principal>immediateFuture(null)
+      : principals.get(token);
+  }
+
+  /**
+   * the cached principal for a token, or null if it isn't cached, without calling the service
+   */
+  public Authenticator.Principal getIfPresent(String token) {
+    return (token == null) ? null : principals.getIfPresent(token);
+  }
+
+  /**
+   * forget a token, e.g. once it's been revoked. A resolution already in flight still
+   * completes for the callers waiting on it, but isn't cached.
+   */
+  public void invalidate(String token) {
+    principals.invalidate(token);
+  }
+
+  public void invalidateAll() {
+    principals.invalidateAll();
+  }
+
+  public long size() {
+    return principals.size();
+  }
+
+  /**
+   * hit rate, resolution latency (averageLoadPenalty, in nanoseconds) and evictions
+   */
+  public CacheStats stats() {
+    return principals.stats();
+  }
+}
@@ -43,6 +43,8 @@ public class OAuthParams {
 
   public static final String HMAC_SHA1 = "HMAC-SHA1";
   public static final String HMAC_SHA256 = "HMAC-SHA256";
+  public static final String HMAC_SHA512 = "HMAC-SHA512";
+  public static final String RSA_SHA1 = "RSA-SHA1";
   public static final String ONE_DOT_OH = "1.0";
   public static final String ONE_DOT_OH_A = "1.0a";
 
@@ -0,0 +1,255 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * A RequestSigner is the client side counterpart of the Unpacker and Verifier. Given the
+ * method, url and parameters of an outbound request, it fills in a nonce and timestamp, signs
+ * the request with the consumer and token credentials it was created with, and writes the
+ * value of the Authorization header, "OAuth oauth_consumer_key=...", into a caller supplied
+ * StringBuilder.
+ *
+ * The normalized request is streamed straight into the Signer rather than built as a String,
+ * and the header is written directly into the caller's buffer, so a caller that reuses its
+ * StringBuilder makes very little garbage per request. A RequestSigner is immutable and
+ * threadsafe; pass a null token and token secret for two-legged requests.
+ */
+public class RequestSigner {
+
+  private static final String OAUTH = "OAuth ";
+  private static final String SEPARATOR = "\", ";
+  private static final String EQUALS_QUOTE = "=\"";
+
+  private final String consumerKey;
+  private final String encodedConsumerKey;
+  private final String consumerSecret;
+  private final String token;
+  private final String encodedToken;
+  private final String tokenSecret;
+  private final String signatureMethod;
+  private final SignatureMethod resolvedSignatureMethod;
+  private final Signer signer;
+  private final Normalizer normalizer;
+  private final NonceGenerator nonceGenerator;
+  private final NonceGenerator.TimestampSource timestampSource;
+
+  public RequestSigner(String consumerKey, String consumerSecret, String token, String tokenSecret) {
+    this(
+      consumerKey,
+      consumerSecret,
+      token,
+      tokenSecret,
+      OAuthParams.HMAC_SHA1,
+      Signer.getStandardSigner(),
+      Normalizer.getStandardNormalizer()
+    );
+  }
+
+  public RequestSigner(
+    String consumerKey,
+    String consumerSecret,
+    String token,
+    String tokenSecret,
+    String signatureMethod,
+    Signer signer,
+    Normalizer normalizer
+  ) {
+    this(
+      consumerKey,
+      consumerSecret,
+      token,
+      tokenSecret,
+      signatureMethod,
+      signer,
+      normalizer,
+      NonceGenerator.STANDARD_NONCE_GENERATOR,
+      NonceGenerator.TimestampSource.STANDARD_TIMESTAMP_SOURCE
+    );
+  }
+
+  public RequestSigner(
+    String consumerKey,
+    String consumerSecret,
+    String token,
+    String tokenSecret,
+    String signatureMethod,
+    Signer signer,
+    Normalizer normalizer,
+    NonceGenerator nonceGenerator,
+    NonceGenerator.TimestampSource timestampSource
+  ) {
+    this(
+      consumerKey,
+      consumerSecret,
+      token,
+      tokenSecret,
+      signatureMethod,
+      signer,
+      normalizer,
+      nonceGenerator,
+      timestampSource,
+      SignatureMethod.getStandardRegistry()
+    );
+  }
+
+  /**
+   * @param signatureMethods the registry to resolve the signature method in, which should be
+   *   the one the signer uses
+   */
+  public RequestSigner(
+    String consumerKey,
+    String consumerSecret,
+    String token,
+    String tokenSecret,
+    String signatureMethod,
+    Signer signer,
+    Normalizer normalizer,
+    NonceGenerator nonceGenerator,
+    NonceGenerator.TimestampSource timestampSource,
+    SignatureMethod.Registry signatureMethods
+  ) {
+    if (consumerKey == null) throw new IllegalArgumentException("consumerKey must not be null");
+    if (consumerSecret == null) throw new IllegalArgumentException("consumerSecret must not be null");
+
+    this.consumerKey = consumerKey;
+    this.encodedConsumerKey = UrlCodec.encode(consumerKey);
+    this.consumerSecret = consumerSecret;
+    this.token = token;
+    this.encodedToken = UrlCodec.encode(token);
+    this.tokenSecret = (tokenSecret == null) ? "" : tokenSecret;
+    this.signatureMethod = signatureMethod;
+    this.resolvedSignatureMethod = signatureMethods.get(signatureMethod);
+    this.signer = signer;
+    this.normalizer = normalizer;
+    this.nonceGenerator = nonceGenerator;
+    this.timestampSource = timestampSource;
+  }
+
+  public String consumerKey() { return consumerKey; }
+  public String token() { return token; }
+  public String signatureMethod() { return signatureMethod; }
+
+  /**
+   * sign the request, and return the value of its Authorization header
+   */
+  public String authorizationHeader(
+    String verb,
+    String scheme,
+    String host,
+    int port,
+    String path,
+    List<Request.Pair> params
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+    StringBuilder builder = new StringBuilder(256);
+    appendAuthorizationHeader(builder, verb, scheme, host, port, path, params);
+    return builder.toString();
+  }
+
+  public void appendAuthorizationHeader(StringBuilder out, Request.ParsedRequest request)
+    throws NoSuchAlgorithmException, InvalidKeyException {
+
+    appendAuthorizationHeader(
+      out,
+      request.verb(),
+      request.scheme(),
+      request.host(),
+      request.port(),
+      request.path(),
+      request.params()
+    );
+  }
+
+  /**
+   * sign the request, and append the value of its Authorization header to out. As for the
+   * Normalizer, params are the query and body parameters of the request, already percent-encoded.
+   */
+  public void appendAuthorizationHeader(
+    StringBuilder out,
+    String verb,
+    String scheme,
+    String host,
+    int port,
+    String path,
+    List<Request.Pair> params
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+    // the Normalizer takes the oauth params percent-encoded, as they're sent in the header
+    String nonce = UrlCodec.encode(nextNonce());
+    long timestampSecs = currentTimeSecs();
+    String timestampStr = timestampSource.toString(timestampSecs);
+
+    OAuthParams.OAuth1Params oAuth1Params = new OAuthParams.OAuth1Params(
+      encodedToken,
+      encodedConsumerKey,
+      nonce,
+      timestampSecs,
+      timestampStr,
+      null,
+      signatureMethod,
+      OAuthParams.ONE_DOT_OH
+    );
+
+    byte[] signature;
+    Signer.SignatureSink signatureSink = (resolvedSignatureMethod != null)
+      ? signer.newSink(resolvedSignatureMethod, tokenSecret, consumerSecret)
+      : signer.newSink(signatureMethod, tokenSecret, consumerSecret);
+    try {
+      normalizer.normalize(scheme, host, port, verb, path, params, oAuth1Params, signatureSink);
+      signature = signatureSink.doFinal();
+    } finally {
+      signatureSink.release();
+    }
+
+    Normalizer.Sink sink = new Normalizer.StringBuilderSink(out);
+    out.append(OAUTH);
+    appendEncodedParam(out, OAuthParams.OAUTH_CONSUMER_KEY, encodedConsumerKey);
+    out.append(SEPARATOR);
+    appendEncodedParam(out, OAuthParams.OAUTH_NONCE, nonce);
+    out.append(SEPARATOR);
+    out.append(OAuthParams.OAUTH_SIGNATURE).append(EQUALS_QUOTE);
+    Base64Util.encode(signature, 0, signature.length, sink);
+    out.append(SEPARATOR);
+    appendParam(sink, out, OAuthParams.OAUTH_SIGNATURE_METHOD, signatureMethod);
+    out.append(SEPARATOR);
+    appendParam(sink, out, OAuthParams.OAUTH_TIMESTAMP, timestampStr);
+    out.append(SEPARATOR);
+    if (token != null) {
+      appendEncodedParam(out, OAuthParams.OAUTH_TOKEN, encodedToken);
+      out.append(SEPARATOR);
+    }
+    appendParam(sink, out, OAuthParams.OAUTH_VERSION, OAuthParams.ONE_DOT_OH);
+    out.append('"');
+  }
+
+  private static void appendParam(Normalizer.Sink sink, StringBuilder out, String key, String value) {
+    out.append(key).append(EQUALS_QUOTE);
+    UrlCodec.encode(value, sink);
+  }
+
+  private static void appendEncodedParam(StringBuilder out, String key, String encodedValue) {
+    out.append(key).append(EQUALS_QUOTE).append(encodedValue);
+  }
+
+  protected String nextNonce() {
+    return nonceGenerator.nextNonce();
+  }
+
+  protected long currentTimeSecs() {
+    return timestampSource.currentTimeSecs();
+  }
+}
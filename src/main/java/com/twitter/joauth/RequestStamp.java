@@ -0,0 +1,335 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.io.BaseEncoding;
+
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Mints and checks compact, short-lived stamps saying that a request has been verified, so
+ * that services behind the one that verified it can skip verifying its signature again. A
+ * stamp carries the consumer key, the token, a SHA-256 digest of the normalized request, a
+ * digest of the request's oauth_signature and an expiry time, and is protected with
+ * HMAC-SHA256 under a key shared by the services.
+ *
+ * check binds a stamp to the request it arrives with through the oauth_signature, which a hop
+ * can read from the request without normalizing it. That only shows the stamp was minted for
+ * a request with the same signature: a hop that acts on the rest of the request, rather than
+ * just on the consumer key and token, should also call Stamp.matches, which normalizes the
+ * request and compares its digest.
+ *
+ * Only mint a stamp for a request the Verifier returned OK for. Stamps are URL-safe base64,
+ * so they can be passed on in a header. A stamp can be replayed until it expires, so the ttl
+ * should be just long enough for the request to reach the last hop, plus any clock skew
+ * between hosts.
+ *
+ * A stamp looks like
+ *   version (1 byte) | expiresAtSecs (8) | request digest (32) | signature digest (16) |
+ *   consumer key length (2) | consumer key | token length (2) | token | HMAC-SHA256 (32)
+ * with lengths and times big-endian, the consumer key and token in UTF-8, and the signature
+ * digest the first 16 bytes of the SHA-256 digest of the oauth_signature in UTF-8.
+ */
+public class RequestStamp {
+
+  private static final byte VERSION = 2;
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final int DIGEST_LENGTH = 32;
+  private static final int SIGNATURE_DIGEST_LENGTH = 16;
+  private static final int MAC_LENGTH = 32;
+  private static final int SIGNATURE_DIGEST_AT = 1 + 8 + DIGEST_LENGTH;
+  private static final int HEADER_LENGTH = SIGNATURE_DIGEST_AT + SIGNATURE_DIGEST_LENGTH;
+  private static final int MAX_STRING_LENGTH = 0xffff;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+
+  private final MacPool macs;
+  private final long ttlSecs;
+  private final NonceGenerator.TimestampSource timestampSource;
+
+  /**
+   * @param key the HMAC-SHA256 key shared by every service that mints or checks stamps
+   * @param ttl how long a stamp is accepted for after it's minted
+   */
+  public RequestStamp(byte[] key, long ttl, TimeUnit unit) {
+    this(key, ttl, unit, NonceGenerator.TimestampSource.STANDARD_TIMESTAMP_SOURCE);
+  }
+
+  public RequestStamp(byte[] key, long ttl, TimeUnit unit, NonceGenerator.TimestampSource timestampSource) {
+    if (key == null || key.length == 0) {
+      throw new IllegalArgumentException("a stamp key is required");
+    }
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("ttl must be positive: " + ttl);
+    }
+    final SecretKeySpec keySpec = new SecretKeySpec(key, MAC_ALGORITHM);
+    // the pool is ours alone, so its Macs are keyed once, when they're created
+    this.macs = new MacPool(MAC_ALGORITHM, Runtime.getRuntime().availableProcessors() * 2) {
+      @Override
+      Mac newMac() throws NoSuchAlgorithmException {
+        Mac mac = super.newMac();
+        try {
+          mac.init(keySpec);
+        } catch (InvalidKeyException e) {
+          throw new IllegalArgumentException("invalid stamp key: " + e, e);
+        }
+        return mac;
+      }
+    };
+    try {
+      macs.release(macs.borrow());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    this.ttlSecs = Math.max(1L, unit.toSeconds(ttl));
+    this.timestampSource = timestampSource;
+  }
+
+  /**
+   * the claims a valid stamp carries
+   */
+  public static class Stamp {
+    private final String consumerKey;
+    private final String token;
+    private final byte[] requestDigest;
+    private final long expiresAtSecs;
+
+    Stamp(String consumerKey, String token, byte[] requestDigest, long expiresAtSecs) {
+      this.consumerKey = consumerKey;
+      this.token = token;
+      this.requestDigest = requestDigest;
+      this.expiresAtSecs = expiresAtSecs;
+    }
+
+    public String consumerKey() { return consumerKey; }
+    /** the token, or "" for a two-legged request */
+    public String token() { return token; }
+    public long expiresAtSecs() { return expiresAtSecs; }
+
+    /**
+     * the SHA-256 digest of the normalized request the stamp was minted for
+     */
+    public byte[] requestDigest() {
+      return requestDigest.clone();
+    }
+
+    /**
+     * true if the stamp was minted for this request. This normalizes the request, so it's for
+     * hops that must bind the stamp to the request they received and can afford to.
+     */
+    public boolean matches(UnpackedRequest.OAuth1RequestBase request) {
+      return consumerKey.equals(request.consumerKey()) &&
+        token.equals(tokenOf(request)) &&
+        MessageDigest.isEqual(requestDigest, digest(request));
+    }
+
+    @Override
+    public String toString() {
+      return "Stamp(" + consumerKey + ", " + expiresAtSecs + ")";
+    }
+  }
+
+  /**
+   * mint a stamp for a request that has just been verified
+   */
+  public String mint(UnpackedRequest.OAuth1RequestBase request) {
+    if (request.signature() == null) {
+      throw new IllegalArgumentException("can't stamp a request without a signature");
+    }
+    byte[] consumerKey = request.consumerKey().getBytes(UTF_8);
+    byte[] token = tokenOf(request).getBytes(UTF_8);
+    if (consumerKey.length > MAX_STRING_LENGTH || token.length > MAX_STRING_LENGTH) {
+      throw new IllegalArgumentException("consumer key or token too long to stamp");
+    }
+
+    byte[] stamp = new byte[HEADER_LENGTH + 2 + consumerKey.length + 2 + token.length + MAC_LENGTH];
+    stamp[0] = VERSION;
+    putLong(stamp, 1, timestampSource.currentTimeSecs() + ttlSecs);
+    System.arraycopy(digest(request), 0, stamp, 9, DIGEST_LENGTH);
+    System.arraycopy(signatureDigest(request.signature()), 0, stamp, SIGNATURE_DIGEST_AT, SIGNATURE_DIGEST_LENGTH);
+    int pos = putBytes(stamp, HEADER_LENGTH, consumerKey);
+    pos = putBytes(stamp, pos, token);
+    sign(stamp, pos, stamp, pos);
+    return ENCODING.encode(stamp);
+  }
+
+  /**
+   * the claims of a stamp minted with our key that hasn't expired yet, for a request with this
+   * oauth_signature, or null if it's malformed, forged, expired or was minted for a request
+   * with a different signature. Pass the signature in the form UnpackedRequest.signature()
+   * has it.
+   */
+  public Stamp check(String encoded, String signature) {
+    if (encoded == null || signature == null) {
+      return null;
+    }
+    byte[] stamp;
+    try {
+      stamp = ENCODING.decode(encoded);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    int signedLength = stamp.length - MAC_LENGTH;
+    if (signedLength < HEADER_LENGTH + 4) {
+      return null;
+    }
+
+    byte[] expected = new byte[MAC_LENGTH];
+    sign(stamp, signedLength, expected, 0);
+    if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(stamp, signedLength, stamp.length))) {
+      return null;
+    }
+
+    // only our own stamps get this far, but check their layout anyway
+    if (stamp[0] != VERSION) {
+      return null;
+    }
+    if (!MessageDigest.isEqual(
+      signatureDigest(signature),
+      Arrays.copyOfRange(stamp, SIGNATURE_DIGEST_AT, HEADER_LENGTH))) {
+      return null;
+    }
+    long expiresAtSecs = getLong(stamp, 1);
+    if (timestampSource.currentTimeSecs() > expiresAtSecs) {
+      return null;
+    }
+    int consumerKeyLength = getShort(stamp, HEADER_LENGTH);
+    int tokenAt = HEADER_LENGTH + 2 + consumerKeyLength;
+    if (tokenAt + 2 > signedLength) {
+      return null;
+    }
+    int tokenLength = getShort(stamp, tokenAt);
+    if (tokenAt + 2 + tokenLength != signedLength) {
+      return null;
+    }
+    return new Stamp(
+      new String(stamp, HEADER_LENGTH + 2, consumerKeyLength, UTF_8),
+      new String(stamp, tokenAt + 2, tokenLength, UTF_8),
+      Arrays.copyOfRange(stamp, 9, 9 + DIGEST_LENGTH),
+      expiresAtSecs);
+  }
+
+  private void sign(byte[] in, int length, byte[] out, int offset) {
+    Mac mac;
+    try {
+      mac = macs.borrow();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try {
+      mac.update(in, 0, length);
+      mac.doFinal(out, offset);
+    } catch (Exception e) {
+      throw new IllegalStateException("could not sign stamp: " + e, e);
+    } finally {
+      macs.release(mac);
+    }
+  }
+
+  static String tokenOf(UnpackedRequest.OAuth1RequestBase request) {
+    return (request instanceof UnpackedRequest.OAuth1Request)
+      ? ((UnpackedRequest.OAuth1Request) request).token()
+      : "";
+  }
+
+  /**
+   * the truncated SHA-256 digest of an oauth_signature
+   */
+  static byte[] signatureDigest(String signature) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    return Arrays.copyOf(digest.digest(signature.getBytes(UTF_8)), SIGNATURE_DIGEST_LENGTH);
+  }
+
+  /**
+   * the SHA-256 digest of the request's normalized request, streamed into the digest if the
+   * request hasn't built it as a String
+   */
+  static byte[] digest(UnpackedRequest.OAuth1RequestBase request) {
+    DigestSink sink;
+    try {
+      sink = new DigestSink(MessageDigest.getInstance(DIGEST_ALGORITHM));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    request.writeNormalizedRequest(sink);
+    return sink.doFinal();
+  }
+
+  /**
+   * a SignatureSink that hashes the UTF-8 encoding of what's appended to it
+   */
+  static class DigestSink extends Signer.EncodingSignatureSink {
+    private final MessageDigest digest;
+
+    DigestSink(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    void update(byte[] bytes, int offset, int length) {
+      digest.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] doFinal() {
+      flush();
+      return digest.digest();
+    }
+
+    @Override
+    public int doFinal(byte[] out, int offset) {
+      byte[] result = doFinal();
+      System.arraycopy(result, 0, out, offset, result.length);
+      return result.length;
+    }
+  }
+
+  private static int putBytes(byte[] out, int pos, byte[] bytes) {
+    out[pos] = (byte) (bytes.length >>> 8);
+    out[pos + 1] = (byte) bytes.length;
+    System.arraycopy(bytes, 0, out, pos + 2, bytes.length);
+    return pos + 2 + bytes.length;
+  }
+
+  private static void putLong(byte[] out, int pos, long value) {
+    for (int i = 7; i >= 0; i--) {
+      out[pos + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+
+  private static long getLong(byte[] in, int pos) {
+    long value = 0;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (in[pos + i] & 0xff);
+    }
+    return value;
+  }
+
+  private static int getShort(byte[] in, int pos) {
+    return ((in[pos] & 0xff) << 8) | (in[pos + 1] & 0xff);
+  }
+}
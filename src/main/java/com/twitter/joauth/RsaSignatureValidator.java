@@ -0,0 +1,247 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates RSA-SHA1 signatures against a consumer's public key. For RSA-SHA1 there is no shared
+ * secret: the consumer's ConsumerCredential is its key, either parsed or as a PEM encoded X.509
+ * certificate or public key.
+ *
+ * Parsing a key costs about as much as checking a signature with it, so parsed keys are cached
+ * by consumer key and PEM. A consumer that's rotating keys, and so has more than one PEM in
+ * use, keeps each of them parsed. Signature instances
+ * are kept in a bounded pool rather than looked up from the provider for every request.
+ */
+public class RsaSignatureValidator {
+
+  static final String SHA1_WITH_RSA = "SHA1withRSA";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String BEGIN_CERTIFICATE = "-----BEGIN CERTIFICATE-----";
+  private static final String BEGIN = "-----BEGIN ";
+  private static final String END = "-----END ";
+  private static final String DASHES = "-----";
+
+  private static final long DEFAULT_MAXIMUM_SIZE = 10000;
+  private static final long DEFAULT_EXPIRE_AFTER_ACCESS_MINS = 60;
+  private static final int DEFAULT_MAX_IDLE_SIGNATURES = 2 * Runtime.getRuntime().availableProcessors();
+
+  private final Cache<KeyId, PublicKey> keys;
+  private final int maxIdleSignatures;
+  private final Queue<Signature> idle = new ConcurrentLinkedQueue<Signature>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+
+  public RsaSignatureValidator() {
+    this(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_AFTER_ACCESS_MINS, TimeUnit.MINUTES, DEFAULT_MAX_IDLE_SIGNATURES);
+  }
+
+  public RsaSignatureValidator(long maximumSize, long expireAfterAccess, TimeUnit unit, int maxIdleSignatures) {
+    this.keys = CacheBuilder.newBuilder()
+      .maximumSize(maximumSize)
+      .expireAfterAccess(expireAfterAccess, unit)
+      .recordStats()
+      .build();
+    this.maxIdleSignatures = maxIdleSignatures;
+  }
+
+  /**
+   * hit and miss counts for the parsed key cache
+   */
+  public CacheStats stats() {
+    return keys.stats();
+  }
+
+  /**
+   * drop every parsed key of a consumer
+   */
+  public void invalidate(String consumerKey) {
+    for (KeyId id : keys.asMap().keySet()) {
+      if (id.consumerKey.equals(consumerKey)) {
+        keys.invalidate(id);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    keys.invalidateAll();
+  }
+
+  /**
+   * true if signature is the URL-encoded, base64-encoded RSA-SHA1 signature of normalizedRequest,
+   * made with the private key matching the consumer's PEM encoded certificate or public key
+   */
+  public boolean validate(String consumerKey, String publicKeyPem, String normalizedRequest, String signature) {
+    if (publicKeyPem == null || normalizedRequest == null || signature == null) return false;
+    try {
+      return verify(getPublicKey(consumerKey, publicKeyPem), normalizedRequest, signature);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  /**
+   * true if signature is the URL-encoded, base64-encoded RSA-SHA1 signature of normalizedRequest,
+   * made with the private key matching an RSA consumer credential
+   */
+  public boolean validate(
+    String consumerKey,
+    ConsumerCredential credential,
+    String normalizedRequest,
+    String signature
+  ) {
+    if (credential == null || !credential.isRsa()) return false;
+    if (credential.publicKey() == null) {
+      return validate(consumerKey, credential.pem(), normalizedRequest, signature);
+    }
+    return validate(credential.publicKey(), normalizedRequest, signature);
+  }
+
+  /**
+   * true if signature is the URL-encoded, base64-encoded RSA-SHA1 signature of normalizedRequest,
+   * made with the private key matching publicKey
+   */
+  public boolean validate(PublicKey publicKey, String normalizedRequest, String signature) {
+    if (publicKey == null || normalizedRequest == null || signature == null) return false;
+    try {
+      return verify(publicKey, normalizedRequest, signature);
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private boolean verify(PublicKey publicKey, String normalizedRequest, String signature) throws Exception {
+    byte[] signatureBytes = Base64Util.decode(UrlCodec.decode(signature).trim());
+
+    Signature verifier = borrow();
+    try {
+      verifier.initVerify(publicKey);
+      verifier.update(normalizedRequest.getBytes(UTF_8));
+      return verifier.verify(signatureBytes);
+    } finally {
+      release(verifier);
+    }
+  }
+
+  /**
+   * true if a stored key is PEM armored, which is how a consumer secret is known to be an RSA key
+   */
+  static boolean isPem(String stored) {
+    return stored.contains(BEGIN);
+  }
+
+  /**
+   * the public key for a consumer's PEM, parsed on first use and cached
+   */
+  PublicKey getPublicKey(String consumerKey, String publicKeyPem) throws GeneralSecurityException {
+    if (consumerKey == null) {
+      return parsePublicKey(publicKeyPem);
+    }
+    KeyId id = new KeyId(consumerKey, publicKeyPem);
+    PublicKey publicKey = keys.getIfPresent(id);
+    if (publicKey == null) {
+      // racing threads parse the same key, which is harmless
+      publicKey = parsePublicKey(publicKeyPem);
+      keys.put(id, publicKey);
+    }
+    return publicKey;
+  }
+
+  /**
+   * parse a PEM encoded X.509 certificate, a PEM encoded X.509 SubjectPublicKeyInfo
+   * ("BEGIN PUBLIC KEY"), or the bare base64 of the latter
+   */
+  static PublicKey parsePublicKey(String pem) throws GeneralSecurityException {
+    if (pem.contains(BEGIN_CERTIFICATE)) {
+      CertificateFactory factory = CertificateFactory.getInstance("X.509");
+      return factory.generateCertificate(new ByteArrayInputStream(pem.getBytes(UTF_8))).getPublicKey();
+    }
+
+    byte[] der;
+    try {
+      der = BaseEncoding.base64().decode(CharMatcher.WHITESPACE.removeFrom(stripArmor(pem)));
+    } catch (IllegalArgumentException e) {
+      throw new GeneralSecurityException("malformed public key: " + e.getMessage(), e);
+    }
+    return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(der));
+  }
+
+  private static String stripArmor(String pem) {
+    int begin = pem.indexOf(BEGIN);
+    if (begin < 0) return pem;
+    int bodyStart = pem.indexOf(DASHES, begin + BEGIN.length());
+    int end = pem.indexOf(END, begin);
+    if (bodyStart < 0 || end < 0) return pem;
+    return pem.substring(bodyStart + DASHES.length(), end);
+  }
+
+  private Signature borrow() throws NoSuchAlgorithmException {
+    Signature signature = idle.poll();
+    if (signature == null) {
+      return Signature.getInstance(SHA1_WITH_RSA);
+    }
+    idleCount.decrementAndGet();
+    return signature;
+  }
+
+  private void release(Signature signature) {
+    // a pooled Signature is always re-initialized with initVerify before it's used again
+    if (idleCount.incrementAndGet() <= maxIdleSignatures) {
+      idle.offer(signature);
+    } else {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  private static final class KeyId {
+    private final String consumerKey;
+    private final String pem;
+
+    KeyId(String consumerKey, String pem) {
+      this.consumerKey = consumerKey;
+      this.pem = pem;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof KeyId)) return false;
+      KeyId that = (KeyId) o;
+      return consumerKey.equals(that.consumerKey) && pem.equals(that.pem);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * consumerKey.hashCode() + pem.hashCode();
+    }
+  }
+}
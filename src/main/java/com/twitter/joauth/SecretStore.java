@@ -0,0 +1,105 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * a trait for looking up the secrets that requests are verified with. Lookups return futures,
+ * so a store backed by a remote service needn't block the caller. A lookup completes with null
+ * if the key or token is unknown, and fails if the store itself fails.
+ */
+public interface SecretStore {
+
+  /**
+   * the credential for a consumer key: an HMAC secret, or for RSA-SHA1 consumers a public key.
+   * Its type, not the request, decides which signature methods the consumer may use.
+   */
+  ListenableFuture<ConsumerCredential> consumerCredential(String consumerKey);
+
+  /**
+   * the secret for an OAuth1 access token
+   */
+  ListenableFuture<String> tokenSecret(String token);
+
+  /**
+   * the consumer key an OAuth2 bearer token was issued to. Bearer tokens are looked up apart
+   * from OAuth1 access tokens, which are sent in the clear and so must never be accepted as
+   * bearer tokens.
+   */
+  ListenableFuture<String> bearerToken(String token);
+
+  /**
+   * for testing. keeps secrets in memory, and completes every lookup immediately.
+   */
+  public static class InMemorySecretStore implements SecretStore {
+
+    private final ConcurrentMap<String, ConsumerCredential> consumerCredentials =
+      new ConcurrentHashMap<String, ConsumerCredential>();
+    private final ConcurrentMap<String, String> tokenSecrets = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> bearerTokens = new ConcurrentHashMap<String, String>();
+
+    /**
+     * a consumer whose secret is read by ConsumerCredential.fromStored, so a PEM is an RSA key
+     */
+    public InMemorySecretStore putConsumer(String consumerKey, String consumerSecret) {
+      return putConsumer(consumerKey, ConsumerCredential.fromStored(consumerSecret));
+    }
+
+    public InMemorySecretStore putConsumer(String consumerKey, ConsumerCredential credential) {
+      consumerCredentials.put(consumerKey, credential);
+      return this;
+    }
+
+    public InMemorySecretStore putToken(String token, String tokenSecret) {
+      tokenSecrets.put(token, tokenSecret);
+      return this;
+    }
+
+    public InMemorySecretStore putBearerToken(String token, String consumerKey) {
+      bearerTokens.put(token, consumerKey);
+      return this;
+    }
+
+    public void removeConsumer(String consumerKey) {
+      consumerCredentials.remove(consumerKey);
+    }
+
+    public void removeToken(String token) {
+      tokenSecrets.remove(token);
+    }
+
+    public void removeBearerToken(String token) {
+      bearerTokens.remove(token);
+    }
+
+    @Override
+    public ListenableFuture<ConsumerCredential> consumerCredential(String consumerKey) {
+      return Futures.immediateFuture((consumerKey == null) ? null : consumerCredentials.get(consumerKey));
+    }
+
+    @Override
+    public ListenableFuture<String> tokenSecret(String token) {
+      return Futures.immediateFuture((token == null) ? null : tokenSecrets.get(token));
+    }
+
+    @Override
+    public ListenableFuture<String> bearerToken(String token) {
+      return Futures.immediateFuture((token == null) ? null : bearerTokens.get(token));
+    }
+  }
+}
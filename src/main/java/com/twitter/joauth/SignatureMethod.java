@@ -0,0 +1,175 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+
+/**
+ * describes an oauth_signature_method: the JCA algorithm that implements it, the length of the
+ * signature it produces, and whether it's an HMAC or a public key signature. Signature methods
+ * are looked up by name in a Registry once, when a request is unpacked, and the descriptor is
+ * carried on the UnpackedRequest, so nothing downstream has to compare method names again.
+ */
+public final class SignatureMethod {
+
+  public enum Type { HMAC, RSA }
+
+  public static final SignatureMethod HMAC_SHA1 = new SignatureMethod(OAuthParams.HMAC_SHA1, "HmacSHA1", 20, Type.HMAC);
+  public static final SignatureMethod HMAC_SHA256 = new SignatureMethod(OAuthParams.HMAC_SHA256, "HmacSHA256", 32, Type.HMAC);
+  public static final SignatureMethod HMAC_SHA512 = new SignatureMethod(OAuthParams.HMAC_SHA512, "HmacSHA512", 64, Type.HMAC);
+  public static final SignatureMethod RSA_SHA1 = new SignatureMethod(OAuthParams.RSA_SHA1, RsaSignatureValidator.SHA1_WITH_RSA, 0, Type.RSA);
+
+  private static final Registry STANDARD_REGISTRY = new Registry(false, HMAC_SHA1, HMAC_SHA256, HMAC_SHA512);
+
+  /**
+   * the registry used by the standard Unpacker and Signer. It can't be changed: to accept
+   * another method, register it on a copy() and pass that to the Unpacker, Signer and
+   * RequestSigner that should accept it. RSA_SHA1 isn't in it, so a server that has RSA-SHA1
+   * consumers opts in with copy().register(RSA_SHA1).
+   */
+  public static Registry getStandardRegistry() {
+    return STANDARD_REGISTRY;
+  }
+
+  private final String name;
+  private final String algorithm;
+  private final int digestLength;
+  private final Type type;
+  private volatile Provider provider;
+
+  /**
+   * @param name the oauth_signature_method value, e.g. HMAC-SHA1
+   * @param algorithm the JCA algorithm name, e.g. HmacSHA1
+   * @param digestLength the length of the signature in bytes, or 0 if it depends on the key
+   */
+  public SignatureMethod(String name, String algorithm, int digestLength, Type type) {
+    this.name = name;
+    this.algorithm = algorithm;
+    this.digestLength = digestLength;
+    this.type = type;
+  }
+
+  public String name() { return name; }
+  public String algorithm() { return algorithm; }
+  public int digestLength() { return digestLength; }
+  public Type type() { return type; }
+  public boolean isHmac() { return type == Type.HMAC; }
+
+  /**
+   * create a new, uninitialized Mac for an HMAC method. The provider found for the first Mac
+   * is remembered, so later ones skip the search through the installed providers.
+   */
+  public Mac newMac() throws NoSuchAlgorithmException {
+    if (!isHmac()) {
+      throw new NoSuchAlgorithmException(name + " is not an HMAC signature method");
+    }
+    Provider cached = provider;
+    if (cached != null) {
+      return Mac.getInstance(algorithm, cached);
+    }
+    Mac mac = Mac.getInstance(algorithm);
+    provider = mac.getProvider();
+    return mac;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * the signature methods that are accepted, by oauth_signature_method value and by JCA
+   * algorithm name. Threadsafe. Registries are mutable, except for the standard one.
+   */
+  public static class Registry {
+    private final ConcurrentMap<String, SignatureMethod> byName = new ConcurrentHashMap<String, SignatureMethod>();
+    private final ConcurrentMap<String, SignatureMethod> byAlgorithm = new ConcurrentHashMap<String, SignatureMethod>();
+    private final boolean mutable;
+
+    public Registry(SignatureMethod... methods) {
+      this(true, methods);
+    }
+
+    private Registry(boolean mutable, SignatureMethod... methods) {
+      for (SignatureMethod method : methods) {
+        put(method);
+      }
+      this.mutable = mutable;
+    }
+
+    /**
+     * accept a method, replacing any with the same name or algorithm
+     *
+     * @throws UnsupportedOperationException for the standard registry
+     */
+    public void register(SignatureMethod method) {
+      if (!mutable) {
+        throw new UnsupportedOperationException("the standard registry can't be changed, register " + method + " on a copy");
+      }
+      put(method);
+    }
+
+    /**
+     * a mutable registry of the same methods
+     */
+    public Registry copy() {
+      Registry copy = new Registry(true);
+      copy.byName.putAll(byName);
+      copy.byAlgorithm.putAll(byAlgorithm);
+      return copy;
+    }
+
+    public boolean isMutable() {
+      return mutable;
+    }
+
+    private synchronized void put(SignatureMethod method) {
+      SignatureMethod sameName = byName.put(method.name(), method);
+      SignatureMethod sameAlgorithm = byAlgorithm.put(method.algorithm(), method);
+      // a replaced method mustn't stay reachable through its other name or algorithm
+      if (sameName != null && sameName != method) {
+        byAlgorithm.remove(sameName.algorithm(), sameName);
+      }
+      if (sameAlgorithm != null && sameAlgorithm != method) {
+        byName.remove(sameAlgorithm.name(), sameAlgorithm);
+      }
+    }
+
+    /**
+     * the method for an oauth_signature_method value, or null if it isn't supported
+     */
+    public SignatureMethod get(String name) {
+      return (name == null) ? null : byName.get(name);
+    }
+
+    /**
+     * the method implemented by a JCA algorithm, or null if there isn't one
+     */
+    public SignatureMethod forAlgorithm(String algorithm) {
+      return (algorithm == null) ? null : byAlgorithm.get(algorithm);
+    }
+
+    public Collection<SignatureMethod> methods() {
+      List<SignatureMethod> methods = new ArrayList<SignatureMethod>(byName.values());
+      return Collections.unmodifiableList(methods);
+    }
+  }
+}
@@ -12,18 +12,37 @@
 
 package com.twitter.joauth;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A Signer takes a string, a token secret and a consumer secret, and produces a signed string
  */
 public abstract class Signer {
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
   private static final Signer STANDARD_SIGNER = new StandardSigner();
 
   /**
@@ -54,16 +73,294 @@ public abstract class Signer {
   public abstract byte[] getBytes(String str, String signatureMethod, String tokenSecret, String consumerSecret)
     throws NoSuchAlgorithmException, InvalidKeyException;
 
+  /**
+   * produce a signature over a range of a byte array, which is the UTF-8 encoding of the
+   * string to sign. The default implementation decodes the bytes and signs the resulting
+   * string; subclasses should override it to sign the bytes directly.
+   */
+  public byte[] getBytes(
+    byte[] bytes,
+    int offset,
+    int length,
+    String signatureMethod,
+    String tokenSecret,
+    String consumerSecret
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+    return getBytes(new String(bytes, offset, length, UTF_8), signatureMethod, tokenSecret, consumerSecret);
+  }
+
+  /**
+   * produce a signature over the remaining bytes of a (heap or direct) buffer, which is the
+   * UTF-8 encoding of the string to sign. The buffer's position is advanced to its limit.
+   */
+  public byte[] getBytes(ByteBuffer bytes, String signatureMethod, String tokenSecret, String consumerSecret)
+    throws NoSuchAlgorithmException, InvalidKeyException {
+    return getBytes(UTF_8.decode(bytes).toString(), signatureMethod, tokenSecret, consumerSecret);
+  }
+
+  /**
+   * produce a signature over a CharSequence, such as a StringBuilder, without requiring the
+   * caller to build a String first
+   */
+  public byte[] getBytes(CharSequence chars, String signatureMethod, String tokenSecret, String consumerSecret)
+    throws NoSuchAlgorithmException, InvalidKeyException {
+    return getBytes(chars.toString(), signatureMethod, tokenSecret, consumerSecret);
+  }
+
+  /**
+   * write a signature over a range of a byte array into out, starting at outOffset,
+   * and return the number of bytes written
+   */
+  public int sign(
+    byte[] bytes,
+    int offset,
+    int length,
+    String signatureMethod,
+    String tokenSecret,
+    String consumerSecret,
+    byte[] out,
+    int outOffset
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+    return copy(getBytes(bytes, offset, length, signatureMethod, tokenSecret, consumerSecret), out, outOffset);
+  }
+
+  /**
+   * write a signature over the remaining bytes of a buffer into out, starting at outOffset,
+   * and return the number of bytes written
+   */
+  public int sign(
+    ByteBuffer bytes,
+    String signatureMethod,
+    String tokenSecret,
+    String consumerSecret,
+    byte[] out,
+    int outOffset
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+    return copy(getBytes(bytes, signatureMethod, tokenSecret, consumerSecret), out, outOffset);
+  }
+
+  /**
+   * write a signature over a CharSequence into out, starting at outOffset,
+   * and return the number of bytes written
+   */
+  public int sign(
+    CharSequence chars,
+    String signatureMethod,
+    String tokenSecret,
+    String consumerSecret,
+    byte[] out,
+    int outOffset
+  ) throws NoSuchAlgorithmException, InvalidKeyException {
+    return copy(getBytes(chars, signatureMethod, tokenSecret, consumerSecret), out, outOffset);
+  }
+
+  private static int copy(byte[] signature, byte[] out, int outOffset) {
+    System.arraycopy(signature, 0, out, outOffset, signature.length);
+    return signature.length;
+  }
+
+  /**
+   * start an incremental signature. The string to sign is appended to the returned sink, for
+   * instance by Normalizer.normalize, and the signature is read from doFinal, after which the
+   * sink can sign another string with the same secrets. Call release once done with the sink.
+   * The default implementation collects the string, and signs it with getBytes.
+   */
+  public SignatureSink newSink(String signatureMethod, String tokenSecret, String consumerSecret)
+    throws NoSuchAlgorithmException, InvalidKeyException {
+    return new BufferingSignatureSink(this, signatureMethod, tokenSecret, consumerSecret);
+  }
+
+  /**
+   * start an incremental signature for a signature method that has already been resolved,
+   * for instance by the Unpacker, which saves looking it up by name again
+   */
+  public SignatureSink newSink(SignatureMethod signatureMethod, String tokenSecret, String consumerSecret)
+    throws NoSuchAlgorithmException, InvalidKeyException {
+    return newSink(signatureMethod.name(), tokenSecret, consumerSecret);
+  }
+
   /**
    * decode an existing signature to a byte array
    */
   public abstract byte[] toBytes(String signature) throws UnsupportedEncodingException;
 
+  /**
+   * a Normalizer.Sink that signs everything appended to it
+   */
+  public abstract static class SignatureSink implements Normalizer.Sink {
+
+    /**
+     * produce the signature of everything appended since the last doFinal
+     */
+    public abstract byte[] doFinal();
+
+    /**
+     * write the signature of everything appended since the last doFinal into out, starting
+     * at offset, and return the number of bytes written
+     */
+    public abstract int doFinal(byte[] out, int offset);
+
+    /**
+     * release any resources held by the sink. The sink must not be used afterwards.
+     */
+    public void release() {
+    }
+  }
+
+  static class BufferingSignatureSink extends SignatureSink {
+    private final Signer signer;
+    private final String signatureMethod;
+    private final String tokenSecret;
+    private final String consumerSecret;
+    private final StringBuilder builder = new StringBuilder(512);
+
+    BufferingSignatureSink(Signer signer, String signatureMethod, String tokenSecret, String consumerSecret) {
+      this.signer = signer;
+      this.signatureMethod = signatureMethod;
+      this.tokenSecret = tokenSecret;
+      this.consumerSecret = consumerSecret;
+    }
+
+    @Override
+    public void append(char c) {
+      builder.append(c);
+    }
+
+    @Override
+    public void append(CharSequence chars, int start, int end) {
+      builder.append(chars, start, end);
+    }
+
+    @Override
+    public byte[] doFinal() {
+      try {
+        return signer.getBytes(builder, signatureMethod, tokenSecret, consumerSecret);
+      } catch (Exception e) {
+        throw new IllegalStateException("could not sign: " + e, e);
+      } finally {
+        builder.setLength(0);
+      }
+    }
+
+    @Override
+    public int doFinal(byte[] out, int offset) {
+      return copy(doFinal(), out, offset);
+    }
+  }
+
+  /**
+   * a SignatureSink that encodes appended chars as UTF-8 into a fixed size chunk, and passes
+   * each full chunk on to be hashed. Surrogate pairs may be split across appends.
+   */
+  abstract static class EncodingSignatureSink extends SignatureSink {
+    private final byte[] chunk = new byte[Utf8.CHUNK_LENGTH];
+    private int length = 0;
+    private char pendingHighSurrogate = 0;
+
+    /**
+     * hash a range of encoded bytes
+     */
+    abstract void update(byte[] bytes, int offset, int length);
+
+    @Override
+    public void append(char c) {
+      if (pendingHighSurrogate != 0) {
+        char high = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        if (Character.isLowSurrogate(c)) {
+          ensureCapacity(4);
+          length = Utf8.encodeCodePoint(Character.toCodePoint(high, c), chunk, length);
+          return;
+        }
+        ensureCapacity(1);
+        length = Utf8.encodeChar(high, chunk, length);
+      }
+
+      if (c < 0x80) {
+        ensureCapacity(1);
+        chunk[length++] = (byte) c;
+      } else if (Character.isHighSurrogate(c)) {
+        pendingHighSurrogate = c;
+      } else {
+        ensureCapacity(3);
+        length = Utf8.encodeChar(c, chunk, length);
+      }
+    }
+
+    @Override
+    public void append(CharSequence chars, int start, int end) {
+      for (int i = start; i < end; i++) {
+        append(chars.charAt(i));
+      }
+    }
+
+    /**
+     * hash anything still buffered, ahead of producing the signature
+     */
+    void flush() {
+      if (pendingHighSurrogate != 0) {
+        ensureCapacity(1);
+        length = Utf8.encodeChar(pendingHighSurrogate, chunk, length);
+        pendingHighSurrogate = 0;
+      }
+      if (length > 0) {
+        update(chunk, 0, length);
+        length = 0;
+      }
+    }
+
+    /**
+     * discard anything buffered, so the sink can be reused
+     */
+    void reset() {
+      length = 0;
+      pendingHighSurrogate = 0;
+    }
+
+    private void ensureCapacity(int bytes) {
+      if (length + bytes > chunk.length) {
+        update(chunk, 0, length);
+        length = 0;
+      }
+    }
+  }
+
 
   public static Signer getStandardSigner() {
     return STANDARD_SIGNER;
   }
 
+  /**
+   * a Signer that reuses Mac instances across requests rather than looking one up for every
+   * signature. See PooledSigner.
+   */
+  public static Signer newPooledSigner() {
+    return new PooledSigner();
+  }
+
+  /**
+   * a Signer that computes HMACs without going through a JCA provider. See PureJavaSigner.
+   */
+  public static Signer newPureJavaSigner() {
+    return new PureJavaSigner();
+  }
+
+  /**
+   * a Signer that caches initialized keys for recently used secret pairs. See CachingSigner.
+   */
+  public static CachingSigner newCachingSigner(long maximumSize, long expireAfterAccess, TimeUnit unit) {
+    return new CachingSigner(maximumSize, expireAfterAccess, unit);
+  }
+
+  /**
+   * a Signer bound to whichever installed JCA provider was measured to be fastest for each
+   * HMAC algorithm. This runs a short benchmark; use MacProviderSelector directly to see the
+   * measurements.
+   */
+  public static ProviderSigner newFastestProviderSigner() {
+    return MacProviderSelector.select().signer();
+  }
+
 
   /**
    * the standard implementation of the Signer trait. Though stateless and threadsafe,
@@ -72,10 +369,25 @@ public abstract class Signer {
    */
   public static class StandardSigner extends Signer {
 
-    private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final String AND = "&"; //TODO: move to Normalizer
     private static final String HMACSHA1 = "HmacSHA1";
-    private static final String HMACSHA256 = "HmacSHA256";
+    private static final int MAX_IDLE_SINKS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final SignatureMethod.Registry signatureMethods;
+    // sinks keep their chunk buffer, so chars can be signed without encoding them to a new array
+    private final Queue<MacSignatureSink> idleSinks = new ConcurrentLinkedQueue<MacSignatureSink>();
+    private final AtomicInteger idleSinkCount = new AtomicInteger();
+
+    public StandardSigner() {
+      this(SignatureMethod.getStandardRegistry());
+    }
+
+    /**
+     * a StandardSigner that supports the HMAC signature methods in a registry
+     */
+    public StandardSigner(SignatureMethod.Registry signatureMethods) {
+      this.signatureMethods = signatureMethods;
+    }
 
     @Override
     public String getString(String str, String signatureMethod, String tokenSecret, String consumerSecret)
@@ -88,14 +400,213 @@ public abstract class Signer {
     public byte[] getBytes(String str, String signatureMethod, String tokenSecret, String consumerSecret)
       throws NoSuchAlgorithmException, InvalidKeyException {
 
-      String algorithm = getSignerAlgorithm(signatureMethod);
-      String key = consumerSecret + AND + tokenSecret;
-      SecretKeySpec signingKey = new SecretKeySpec(key.getBytes(UTF_8), algorithm);
+      return getBytes((CharSequence) str, signatureMethod, tokenSecret, consumerSecret);
+    }
+
+    @Override
+    public byte[] getBytes(
+      byte[] bytes,
+      int offset,
+      int length,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac mac = getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret);
+      try {
+        mac.update(bytes, offset, length);
+        return mac.doFinal();
+      } finally {
+        releaseMac(mac);
+      }
+    }
+
+    @Override
+    public byte[] getBytes(ByteBuffer bytes, String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac mac = getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret);
+      try {
+        mac.update(bytes);
+        return mac.doFinal();
+      } finally {
+        releaseMac(mac);
+      }
+    }
+
+    @Override
+    public byte[] getBytes(CharSequence chars, String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      // Mac is not thread safe, so each signature gets a Mac of its own for its duration
+      MacSignatureSink sink = borrowSink(getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret));
+      try {
+        sink.append(chars, 0, chars.length());
+        return sink.doFinal();
+      } finally {
+        sink.release();
+      }
+    }
+
+    @Override
+    public int sign(
+      byte[] bytes,
+      int offset,
+      int length,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac mac = getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret);
+      try {
+        mac.update(bytes, offset, length);
+        return doFinal(mac, out, outOffset);
+      } finally {
+        releaseMac(mac);
+      }
+    }
+
+    @Override
+    public int sign(
+      ByteBuffer bytes,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac mac = getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret);
+      try {
+        mac.update(bytes);
+        return doFinal(mac, out, outOffset);
+      } finally {
+        releaseMac(mac);
+      }
+    }
+
+    @Override
+    public int sign(
+      CharSequence chars,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      MacSignatureSink sink = borrowSink(getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret));
+      try {
+        sink.append(chars, 0, chars.length());
+        return sink.doFinal(out, outOffset);
+      } finally {
+        sink.release();
+      }
+    }
+
+    @Override
+    public SignatureSink newSink(String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      return borrowSink(getInitializedMac(getSignerAlgorithm(signatureMethod), tokenSecret, consumerSecret));
+    }
+
+    @Override
+    public SignatureSink newSink(SignatureMethod signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      if (!signatureMethod.isHmac()) {
+        return super.newSink(signatureMethod, tokenSecret, consumerSecret);
+      }
+      return borrowSink(getInitializedMac(signatureMethod.algorithm(), tokenSecret, consumerSecret));
+    }
+
+    /**
+     * an idle sink, or a new one if there are none, bound to an initialized Mac
+     */
+    MacSignatureSink borrowSink(Mac mac) {
+      MacSignatureSink sink = idleSinks.poll();
+      if (sink == null) {
+        return new MacSignatureSink(this, mac);
+      }
+      idleSinkCount.decrementAndGet();
+      sink.bind(mac);
+      return sink;
+    }
+
+    /**
+     * release a sink's Mac, and keep the sink for reuse unless enough are already idle
+     */
+    void releaseSink(MacSignatureSink sink, Mac mac) {
+      releaseMac(mac);
+      sink.reset();
+      if (idleSinkCount.incrementAndGet() <= MAX_IDLE_SINKS) {
+        idleSinks.offer(sink);
+      } else {
+        idleSinkCount.decrementAndGet();
+      }
+    }
+
+    static int doFinal(Mac mac, byte[] out, int outOffset) {
+      try {
+        mac.doFinal(out, outOffset);
+        return mac.getMacLength();
+      } catch (ShortBufferException e) {
+        throw new IllegalArgumentException(e.getMessage(), e);
+      }
+    }
+
+    /**
+     * obtain a Mac for the algorithm, initialized with the key derived from the two secrets.
+     * The Mac is handed back to releaseMac once the signature has been computed.
+     */
+    protected Mac getInitializedMac(String algorithm, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac mac = getMac(algorithm);
+      try {
+        mac.init(new SecretKeySpec(getKeyBytes(tokenSecret, consumerSecret), algorithm));
+      } catch (InvalidKeyException e) {
+        releaseMac(mac);
+        throw e;
+      }
+      return mac;
+    }
+
+    /**
+     * the HMAC key is the consumer secret and the token secret, joined with an ampersand
+     */
+    byte[] getKeyBytes(String tokenSecret, String consumerSecret) {
+      return (consumerSecret + AND + tokenSecret).getBytes(UTF_8);
+    }
+
+    /**
+     * obtain an uninitialized Mac for the algorithm
+     */
+    protected Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+      return newMac(algorithm);
+    }
+
+    /**
+     * create a new Mac for the algorithm, from the most preferred provider that supports it.
+     * Registered signature methods remember which provider that is.
+     */
+    protected Mac newMac(String algorithm) throws NoSuchAlgorithmException {
+      SignatureMethod signatureMethod = signatureMethods.forAlgorithm(algorithm);
+      if (signatureMethod != null && signatureMethod.isHmac()) {
+        return signatureMethod.newMac();
+      }
+      return Mac.getInstance(algorithm);
+    }
 
-      //TODO: Mac looks thread safe, if not consider synchronizing this
-      Mac mac = Mac.getInstance(algorithm);
-      mac.init(signingKey);
-      return mac.doFinal(str.getBytes(UTF_8));
+    /**
+     * called once a Mac obtained from getInitializedMac is no longer in use
+     */
+    protected void releaseMac(Mac mac) {
     }
 
     @Override
@@ -103,8 +614,479 @@ public abstract class Signer {
       return Base64Util.decode(UrlCodec.decode(signature).trim());
     }
 
+    /**
+     * the JCA algorithm for a registered HMAC signature method, defaulting to HmacSHA1
+     */
     String getSignerAlgorithm(String signatureMethod) {
-      return OAuthParams.HMAC_SHA256.equals(signatureMethod) ? HMACSHA256 : HMACSHA1;
+      SignatureMethod resolved = signatureMethods.get(signatureMethod);
+      return (resolved != null && resolved.isHmac()) ? resolved.algorithm() : HMACSHA1;
+    }
+  }
+
+  static class MacSignatureSink extends EncodingSignatureSink {
+    private final StandardSigner signer;
+    private Mac mac;
+
+    MacSignatureSink(StandardSigner signer, Mac mac) {
+      this.signer = signer;
+      this.mac = mac;
+    }
+
+    void bind(Mac mac) {
+      this.mac = mac;
+    }
+
+    @Override
+    void update(byte[] bytes, int offset, int length) {
+      mac.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] doFinal() {
+      flush();
+      return mac.doFinal();
+    }
+
+    @Override
+    public int doFinal(byte[] out, int offset) {
+      flush();
+      return StandardSigner.doFinal(mac, out, offset);
+    }
+
+    @Override
+    public void release() {
+      if (mac != null) {
+        Mac released = mac;
+        mac = null;
+        signer.releaseSink(this, released);
+      }
+    }
+  }
+
+  static class HmacSignatureSink extends EncodingSignatureSink {
+    private final PureJavaSigner signer;
+    private Hmac hmac;
+
+    HmacSignatureSink(PureJavaSigner signer, Hmac hmac) {
+      this.signer = signer;
+      this.hmac = hmac;
+    }
+
+    @Override
+    void update(byte[] bytes, int offset, int length) {
+      hmac.update(bytes, offset, length);
+    }
+
+    @Override
+    public byte[] doFinal() {
+      flush();
+      return hmac.doFinal();
+    }
+
+    @Override
+    public int doFinal(byte[] out, int offset) {
+      flush();
+      return hmac.doFinal(out, offset);
+    }
+
+    @Override
+    public void release() {
+      if (hmac != null) {
+        signer.releaseHmac(hmac);
+        hmac = null;
+      }
+    }
+  }
+
+  /**
+   * a StandardSigner that keeps a bounded pool of Mac instances per algorithm, avoiding the
+   * provider lookup and Mac construction on every signature. The pools are shared rather than
+   * thread-local, so their size is bounded by maxIdlePerAlgorithm regardless of how many
+   * threads (virtual or otherwise) use the signer. Every borrowed Mac is re-initialized with
+   * the caller's key before use, so no key material carries over from one call to the next.
+   */
+  public static class PooledSigner extends StandardSigner {
+
+    private static final int DEFAULT_MAX_IDLE_PER_ALGORITHM = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final int maxIdlePerAlgorithm;
+    private final ConcurrentMap<String, MacPool> pools = new ConcurrentHashMap<String, MacPool>();
+
+    public PooledSigner() {
+      this(DEFAULT_MAX_IDLE_PER_ALGORITHM);
+    }
+
+    public PooledSigner(int maxIdlePerAlgorithm) {
+      this.maxIdlePerAlgorithm = maxIdlePerAlgorithm;
+    }
+
+    @Override
+    protected Mac getMac(String algorithm) throws NoSuchAlgorithmException {
+      return getPool(algorithm).borrow();
+    }
+
+    @Override
+    protected void releaseMac(Mac mac) {
+      MacPool pool = pools.get(mac.getAlgorithm());
+      if (pool != null) {
+        pool.release(mac);
+      }
+    }
+
+    private MacPool getPool(final String algorithm) {
+      MacPool pool = pools.get(algorithm);
+      if (pool == null) {
+        MacPool newPool = new MacPool(algorithm, maxIdlePerAlgorithm) {
+          @Override
+          Mac newMac() throws NoSuchAlgorithmException {
+            return PooledSigner.this.newMac(algorithm);
+          }
+        };
+        pool = pools.putIfAbsent(algorithm, newPool);
+        if (pool == null) {
+          pool = newPool;
+        }
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * a PooledSigner that creates its Macs from a particular JCA provider for each algorithm,
+   * such as those chosen by MacProviderSelector. Algorithms without a provider of their own
+   * use the default.
+   */
+  public static class ProviderSigner extends PooledSigner {
+
+    private final Map<String, Provider> providers;
+
+    public ProviderSigner(Map<String, Provider> providers) {
+      this.providers = Collections.unmodifiableMap(new HashMap<String, Provider>(providers));
+    }
+
+    /**
+     * the provider used for each algorithm, by JCA algorithm name
+     */
+    public Map<String, Provider> providers() {
+      return providers;
+    }
+
+    @Override
+    protected Mac newMac(String algorithm) throws NoSuchAlgorithmException {
+      Provider provider = providers.get(algorithm);
+      if (provider == null) {
+        return super.newMac(algorithm);
+      }
+      return Mac.getInstance(algorithm, provider);
+    }
+  }
+
+  /**
+   * a StandardSigner that caches initialized Macs for recently used consumer/token secret
+   * pairs. The cached Mac holds the HMAC inner and outer pad state for its key, and is cloned
+   * for each signature, so a repeat key costs only the hash over the signed string rather than
+   * rebuilding, encoding and hashing the key. The cache is bounded by size, and entries expire
+   * when they haven't been used for a while; hit and miss counts are available through stats().
+   */
+  public static class CachingSigner extends StandardSigner {
+
+    private final Cache<CacheKey, Mac> prototypes;
+
+    public CachingSigner(long maximumSize, long expireAfterAccess, TimeUnit unit) {
+      this.prototypes = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterAccess(expireAfterAccess, unit)
+        .recordStats()
+        .build();
+    }
+
+    public CacheStats stats() {
+      return prototypes.stats();
+    }
+
+    public void invalidateAll() {
+      prototypes.invalidateAll();
+    }
+
+    @Override
+    protected Mac getInitializedMac(
+      final String algorithm,
+      final String tokenSecret,
+      final String consumerSecret
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Mac prototype;
+      try {
+        prototype = prototypes.get(new CacheKey(algorithm, tokenSecret, consumerSecret), new Callable<Mac>() {
+          @Override
+          public Mac call() throws Exception {
+            // a fresh Mac rather than a pooled one, since it will never be released
+            Mac mac = newMac(algorithm);
+            mac.init(new SecretKeySpec(getKeyBytes(tokenSecret, consumerSecret), algorithm));
+            return mac;
+          }
+        });
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) e.getCause();
+        if (e.getCause() instanceof InvalidKeyException) throw (InvalidKeyException) e.getCause();
+        throw new IllegalStateException(e.getCause());
+      }
+
+      // the prototype is only ever cloned, never updated, so sharing it between threads is safe
+      try {
+        return (Mac) prototype.clone();
+      } catch (CloneNotSupportedException e) {
+        return super.getInitializedMac(algorithm, tokenSecret, consumerSecret);
+      }
+    }
+
+    private static final class CacheKey {
+      private final String algorithm;
+      private final String tokenSecret;
+      private final String consumerSecret;
+      private final int hashCode;
+
+      CacheKey(String algorithm, String tokenSecret, String consumerSecret) {
+        this.algorithm = algorithm;
+        this.tokenSecret = tokenSecret;
+        this.consumerSecret = consumerSecret;
+
+        int result = algorithm.hashCode();
+        result = 31 * result + (tokenSecret != null ? tokenSecret.hashCode() : 0);
+        result = 31 * result + (consumerSecret != null ? consumerSecret.hashCode() : 0);
+        this.hashCode = result;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        CacheKey that = (CacheKey) o;
+
+        if (hashCode != that.hashCode) return false;
+        if (!algorithm.equals(that.algorithm)) return false;
+        if (tokenSecret != null ? !tokenSecret.equals(that.tokenSecret) : that.tokenSecret != null) return false;
+        if (consumerSecret != null ? !consumerSecret.equals(that.consumerSecret) : that.consumerSecret != null)
+          return false;
+
+        return true;
+      }
+
+      @Override
+      public int hashCode() {
+        return hashCode;
+      }
+    }
+  }
+
+  /**
+   * a StandardSigner that computes HMAC-SHA1 and HMAC-SHA256 with the built-in Hmac engine
+   * instead of a JCA provider. The signed string is hashed directly from its chars, so there's
+   * no provider dispatch, no SecretKeySpec, and no copy of the string into a byte array.
+   * Hmacs are kept in a bounded pool per algorithm, like PooledSigner's Macs, and re-keyed for
+   * each signature, so their digest state and buffers are allocated once rather than per call.
+   * Produces the same signatures as StandardSigner; any other algorithm falls back to the JCA.
+   */
+  public static class PureJavaSigner extends StandardSigner {
+
+    private static final int DEFAULT_MAX_IDLE_PER_ALGORITHM = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Hmac.Pool sha1Pool;
+    private final Hmac.Pool sha256Pool;
+
+    public PureJavaSigner() {
+      this(DEFAULT_MAX_IDLE_PER_ALGORITHM);
+    }
+
+    public PureJavaSigner(int maxIdlePerAlgorithm) {
+      this.sha1Pool = new Hmac.Pool(Hmac.HMACSHA1, maxIdlePerAlgorithm);
+      this.sha256Pool = new Hmac.Pool(Hmac.HMACSHA256, maxIdlePerAlgorithm);
+    }
+
+    @Override
+    public byte[] getBytes(String str, String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.getBytes(str, signatureMethod, tokenSecret, consumerSecret);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(str, 0, str.length());
+        return hmac.doFinal();
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public SignatureSink newSink(String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.newSink(signatureMethod, tokenSecret, consumerSecret);
+      }
+      hmac.init(tokenSecret, consumerSecret);
+      return new HmacSignatureSink(this, hmac);
+    }
+
+    @Override
+    public SignatureSink newSink(SignatureMethod signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = signatureMethod.isHmac() ? borrowHmac(signatureMethod.algorithm()) : null;
+      if (hmac == null) {
+        return super.newSink(signatureMethod, tokenSecret, consumerSecret);
+      }
+      hmac.init(tokenSecret, consumerSecret);
+      return new HmacSignatureSink(this, hmac);
+    }
+
+    @Override
+    public byte[] getBytes(
+      byte[] bytes,
+      int offset,
+      int length,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.getBytes(bytes, offset, length, signatureMethod, tokenSecret, consumerSecret);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(bytes, offset, length);
+        return hmac.doFinal();
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public byte[] getBytes(ByteBuffer bytes, String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.getBytes(bytes, signatureMethod, tokenSecret, consumerSecret);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(bytes);
+        return hmac.doFinal();
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public byte[] getBytes(CharSequence chars, String signatureMethod, String tokenSecret, String consumerSecret)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.getBytes(chars, signatureMethod, tokenSecret, consumerSecret);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(chars, 0, chars.length());
+        return hmac.doFinal();
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public int sign(
+      byte[] bytes,
+      int offset,
+      int length,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.sign(bytes, offset, length, signatureMethod, tokenSecret, consumerSecret, out, outOffset);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(bytes, offset, length);
+        return hmac.doFinal(out, outOffset);
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public int sign(
+      ByteBuffer bytes,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.sign(bytes, signatureMethod, tokenSecret, consumerSecret, out, outOffset);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(bytes);
+        return hmac.doFinal(out, outOffset);
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    @Override
+    public int sign(
+      CharSequence chars,
+      String signatureMethod,
+      String tokenSecret,
+      String consumerSecret,
+      byte[] out,
+      int outOffset
+    ) throws NoSuchAlgorithmException, InvalidKeyException {
+
+      Hmac hmac = borrowHmac(getSignerAlgorithm(signatureMethod));
+      if (hmac == null) {
+        return super.sign(chars, signatureMethod, tokenSecret, consumerSecret, out, outOffset);
+      }
+      try {
+        hmac.init(tokenSecret, consumerSecret);
+        hmac.update(chars, 0, chars.length());
+        return hmac.doFinal(out, outOffset);
+      } finally {
+        releaseHmac(hmac);
+      }
+    }
+
+    /**
+     * a pooled Hmac for the algorithm, or null if the Hmac engine doesn't support it
+     */
+    Hmac borrowHmac(String algorithm) {
+      if (Hmac.HMACSHA1.equals(algorithm)) {
+        return sha1Pool.borrow();
+      } else if (Hmac.HMACSHA256.equals(algorithm)) {
+        return sha256Pool.borrow();
+      }
+      return null;
+    }
+
+    void releaseHmac(Hmac hmac) {
+      (Hmac.HMACSHA1.equals(hmac.algorithm()) ? sha1Pool : sha256Pool).release(hmac);
     }
   }
 
@@ -63,8 +63,10 @@ public interface UnpackedRequest {
 
   /**
    * models an OAuth 1.0a request. Rather than passing the
-   * scheme, host, port, etc around, we pre-calculate the normalized request,
-   * since that's all we need for signature validation anyway.
+   * scheme, host, port, etc around, we carry the normalized request,
+   * since that's all we need for signature validation anyway. Requests built
+   * by the Unpacker produce it only when it's first needed, and the Verifier
+   * streams it straight into the Mac without building a String.
    */
   public static class OAuth1TwoLeggedRequest extends OAuth1RequestBase {
 
@@ -80,6 +82,69 @@ public interface UnpackedRequest {
     ) {
       super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, normalizedRequest);
     }
+
+    public OAuth1TwoLeggedRequest(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      String normalizedRequest,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, normalizedRequest,
+        signatureMethods);
+    }
+
+    /**
+     * a request whose normalized request is produced from the parsed request and
+     * OAuth params by the normalizer only when it's needed
+     */
+    public OAuth1TwoLeggedRequest(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer);
+    }
+
+    public OAuth1TwoLeggedRequest(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer,
+        signatureMethods);
+    }
+
+    public OAuth1TwoLeggedRequest(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      SignatureMethod signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer);
+    }
   }
 
   public static class OAuth1RequestBase implements OAuthRequest {
@@ -88,9 +153,12 @@ public interface UnpackedRequest {
     private final Long timestampSecs;
     private final String signature;
     private final String signatureMethod;
+    private final SignatureMethod resolvedSignatureMethod;
     private final String version;
     private final Request.ParsedRequest parsedRequest;
-    private final String normalizedRequest;
+    private final OAuthParams.OAuth1Params oAuth1Params;
+    private final Normalizer normalizer;
+    private volatile String normalizedRequest;
 
     public String consumerKey() {
       return consumerKey;
@@ -112,12 +180,47 @@ public interface UnpackedRequest {
       return signatureMethod;
     }
 
+    /**
+     * the descriptor for signatureMethod, resolved when the request was unpacked, or null if
+     * the method isn't registered
+     */
+    public SignatureMethod resolvedSignatureMethod() {
+      return resolvedSignatureMethod;
+    }
+
     public String version() {
       return version;
     }
 
     public String normalizedRequest() {
-      return normalizedRequest;
+      String normalized = normalizedRequest;
+      if (normalized == null && normalizer != null) {
+        // racing threads compute the same value, so there's no need to synchronize
+        normalized = normalizer.normalize(parsedRequest, oAuth1Params);
+        normalizedRequest = normalized;
+      }
+      return normalized;
+    }
+
+    /**
+     * true if the normalized request hasn't been computed up front, in which case
+     * writeNormalizedRequest can produce it without building a String
+     */
+    public boolean isNormalizedRequestDeferred() {
+      return normalizer != null;
+    }
+
+    /**
+     * write the normalized request into a sink, streaming it straight from the normalizer
+     * unless it has already been produced as a String
+     */
+    public void writeNormalizedRequest(Normalizer.Sink sink) {
+      String normalized = normalizedRequest;
+      if (normalized == null && normalizer != null) {
+        normalizer.normalize(parsedRequest, oAuth1Params, sink);
+      } else if (normalized != null) {
+        sink.append(normalized, 0, normalized.length());
+      }
     }
 
     public OAuth1RequestBase(
@@ -129,17 +232,132 @@ public interface UnpackedRequest {
       String version,
       Request.ParsedRequest parsedRequest,
       String normalizedRequest
+    ) {
+      this(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest,
+        normalizedRequest, SignatureMethod.getStandardRegistry());
+    }
+
+    /**
+     * @param signatureMethods the registry to resolve the signature method in
+     */
+    public OAuth1RequestBase(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      String normalizedRequest,
+      SignatureMethod.Registry signatureMethods
     ) {
       this.consumerKey = consumerKey;
       this.nonce = nonce;
       this.timestampSecs = timestampSecs;
       this.signature = signature;
       this.signatureMethod = signatureMethod;
+      this.resolvedSignatureMethod = signatureMethods.get(signatureMethod);
       this.version = version;
       this.parsedRequest = parsedRequest;
+      this.oAuth1Params = null;
+      this.normalizer = null;
       this.normalizedRequest = normalizedRequest;
     }
 
+    public OAuth1RequestBase(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      this(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest,
+        oAuth1Params, normalizer, SignatureMethod.getStandardRegistry());
+    }
+
+    /**
+     * @param signatureMethods the registry to resolve the signature method in
+     */
+    public OAuth1RequestBase(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      this(
+        consumerKey,
+        nonce,
+        timestampSecs,
+        signature,
+        signatureMethod,
+        signatureMethods.get(signatureMethod),
+        version,
+        parsedRequest,
+        oAuth1Params,
+        normalizer
+      );
+    }
+
+    public OAuth1RequestBase(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      SignatureMethod signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      this(
+        consumerKey,
+        nonce,
+        timestampSecs,
+        signature,
+        signatureMethod.name(),
+        signatureMethod,
+        version,
+        parsedRequest,
+        oAuth1Params,
+        normalizer
+      );
+    }
+
+    private OAuth1RequestBase(
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      SignatureMethod resolvedSignatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      this.consumerKey = consumerKey;
+      this.nonce = nonce;
+      this.timestampSecs = timestampSecs;
+      this.signature = signature;
+      this.signatureMethod = signatureMethod;
+      this.resolvedSignatureMethod = resolvedSignatureMethod;
+      this.version = version;
+      this.parsedRequest = parsedRequest;
+      this.oAuth1Params = oAuth1Params;
+      this.normalizer = normalizer;
+      this.normalizedRequest = null;
+    }
+
     @Override
     public Request.ParsedRequest parsedRequest() {
       return parsedRequest;
@@ -160,7 +378,7 @@ public interface UnpackedRequest {
       map.put(OAuthParams.OAUTH_SIGNATURE_METHOD, signatureMethod);
       map.put(OAuthParams.OAUTH_SIGNATURE, signature);
       map.put(OAuthParams.OAUTH_VERSION, (version == null) ? OAuthParams.ONE_DOT_OH : version);
-      map.put(OAuthParams.NORMALIZED_REQUEST, normalizedRequest);
+      map.put(OAuthParams.NORMALIZED_REQUEST, normalizedRequest());
 
       return map;
     }
@@ -180,7 +398,9 @@ public interface UnpackedRequest {
 
       if (consumerKey != null ? !consumerKey.equals(that.consumerKey) : that.consumerKey != null) return false;
       if (nonce != null ? !nonce.equals(that.nonce) : that.nonce != null) return false;
-      if (normalizedRequest != null ? !normalizedRequest.equals(that.normalizedRequest) : that.normalizedRequest != null)
+      String normalizedRequest = normalizedRequest();
+      String thatNormalizedRequest = that.normalizedRequest();
+      if (normalizedRequest != null ? !normalizedRequest.equals(thatNormalizedRequest) : thatNormalizedRequest != null)
         return false;
       if (parsedRequest != null ? !parsedRequest.equals(that.parsedRequest) : that.parsedRequest != null) return false;
       if (signature != null ? !signature.equals(that.signature) : that.signature != null) return false;
@@ -201,6 +421,7 @@ public interface UnpackedRequest {
       result = 31 * result + (signatureMethod != null ? signatureMethod.hashCode() : 0);
       result = 31 * result + (version != null ? version.hashCode() : 0);
       result = 31 * result + (parsedRequest != null ? parsedRequest.hashCode() : 0);
+      String normalizedRequest = normalizedRequest();
       result = 31 * result + (normalizedRequest != null ? normalizedRequest.hashCode() : 0);
       return result;
     }
@@ -224,6 +445,77 @@ public interface UnpackedRequest {
       this.token = token;
     }
 
+    public OAuth1Request(
+      String token,
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      String normalizedRequest,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, normalizedRequest,
+        signatureMethods);
+      this.token = token;
+    }
+
+    /**
+     * a request whose normalized request is produced from the parsed request and
+     * OAuth params by the normalizer only when it's needed
+     */
+    public OAuth1Request(
+      String token,
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer);
+      this.token = token;
+    }
+
+    public OAuth1Request(
+      String token,
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      String signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer,
+        signatureMethods);
+      this.token = token;
+    }
+
+    public OAuth1Request(
+      String token,
+      String consumerKey,
+      String nonce,
+      Long timestampSecs,
+      String signature,
+      SignatureMethod signatureMethod,
+      String version,
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params,
+      Normalizer normalizer
+    ) {
+      super(consumerKey, nonce, timestampSecs, signature, signatureMethod, version, parsedRequest, oAuth1Params, normalizer);
+      this.token = token;
+    }
+
     public String token() {
       return token;
     }
@@ -344,19 +636,39 @@ public interface UnpackedRequest {
     //TODO: remove MaxTokenLength, this limit is specific to twitter
     private static final int MaxTokenLength = 50;   // This is limited by DB schema
 
+    private final SignatureMethod.Registry signatureMethods;
+
+    OAuth1RequestHelper() {
+      this(SignatureMethod.getStandardRegistry());
+    }
+
+    OAuth1RequestHelper(SignatureMethod.Registry signatureMethods) {
+      this.signatureMethods = signatureMethods;
+    }
+
     private void throwMalformedException(String name) throws MalformedRequest {
       throw new MalformedRequest(NO_VALUE_FOR+name);
     }
 
     public void verify(Request.ParsedRequest parsedRequest, OAuthParams.OAuth1Params oAuth1Params) throws MalformedRequest {
+      verifyAndResolve(parsedRequest, oAuth1Params);
+    }
+
+    /**
+     * verify the request, and return the registered descriptor of its signature method
+     */
+    SignatureMethod verifyAndResolve(
+      Request.ParsedRequest parsedRequest,
+      OAuthParams.OAuth1Params oAuth1Params
+    ) throws MalformedRequest {
+      SignatureMethod signatureMethod = signatureMethods.get(oAuth1Params.signatureMethod());
+
       if (parsedRequest.scheme() == null) throwMalformedException(SCHEME);
       else if (parsedRequest.host() == null) throwMalformedException(HOST);
       else if (parsedRequest.port() < 0) throwMalformedException(PORT);
       else if (parsedRequest.verb() == null) throwMalformedException(VERB);
       else if (parsedRequest.path() == null) throwMalformedException(PATH);
-      else if (oAuth1Params.signatureMethod() == null ||
-          !oAuth1Params.signatureMethod().equals(OAuthParams.HMAC_SHA1) &&
-          !oAuth1Params.signatureMethod().equals(OAuthParams.HMAC_SHA256)) {
+      else if (signatureMethod == null) {
         throw new MalformedRequest(UNSUPPORTED_METHOD + oAuth1Params.signatureMethod());
       }
       else if (oAuth1Params.version() != null &&
@@ -371,6 +683,7 @@ public interface UnpackedRequest {
       // we don't check the validity of the OAuthParams object, because it must be
       // fully populated in order for the factory to even be called, and we'd like
       // to save the expense of iterating over all the fields again
+      return signatureMethod;
     }
 
     public OAuth1Request buildOAuth1Request(
@@ -379,7 +692,7 @@ public interface UnpackedRequest {
       Normalizer normalize
     ) throws MalformedRequest, UnsupportedEncodingException {
 
-      verify(parsedRequest, oAuth1Params);
+      SignatureMethod signatureMethod = verifyAndResolve(parsedRequest, oAuth1Params);
 
       return new OAuth1Request(
         UrlCodec.decode(oAuth1Params.token()), // should never be called when token is None
@@ -387,10 +700,11 @@ public interface UnpackedRequest {
         UrlCodec.decode(oAuth1Params.nonce()),
         oAuth1Params.timestampSecs(),
         oAuth1Params.signature(),
-        oAuth1Params.signatureMethod(),
+        signatureMethod,
         oAuth1Params.version(),
         parsedRequest,
-        normalize.normalize(parsedRequest, oAuth1Params)
+        oAuth1Params,
+        normalize
       );
     }
 
@@ -401,17 +715,18 @@ public interface UnpackedRequest {
       Normalizer normalize
     ) throws MalformedRequest, UnsupportedEncodingException {
 
-      verify(parsedRequest, oAuth1Params);
+      SignatureMethod signatureMethod = verifyAndResolve(parsedRequest, oAuth1Params);
 
       return new OAuth1TwoLeggedRequest(
         UrlCodec.decode(oAuth1Params.consumerKey()),
         UrlCodec.decode(oAuth1Params.nonce()),
         oAuth1Params.timestampSecs(),
         oAuth1Params.signature(),
-        oAuth1Params.signatureMethod(),
+        signatureMethod,
         oAuth1Params.version(),
         parsedRequest,
-        normalize.normalize(parsedRequest, oAuth1Params)
+        oAuth1Params,
+        normalize
       );
     }
   }
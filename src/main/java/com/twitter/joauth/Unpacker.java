@@ -62,6 +62,7 @@ public interface Unpacker {
     private final KeyValueCallback bodyParamTransformer;
     private final KeyValueCallback headerTransformer;
     private final OAuth2Checker shouldAllowOAuth2;
+    private final UnpackedRequest.OAuth1RequestHelper oAuth1RequestHelper;
 
     public CustomizableUnpacker(
       OAuthParams.OAuthParamsHelper helper,
@@ -73,6 +74,27 @@ public interface Unpacker {
       KeyValueCallback headerTransformer,
       OAuth2Checker shouldAllowOAuth2
     ) {
+      this(helper, normalizer, queryParser, headerParser, queryParamTransformer, bodyParamTransformer,
+        headerTransformer, shouldAllowOAuth2, SignatureMethod.getStandardRegistry());
+    }
+
+    /**
+     * @param signatureMethods the signature methods to accept
+     */
+    public CustomizableUnpacker(
+      OAuthParams.OAuthParamsHelper helper,
+      Normalizer normalizer,
+      KeyValueParser queryParser,
+      KeyValueParser headerParser,
+      KeyValueCallback queryParamTransformer,
+      KeyValueCallback bodyParamTransformer,
+      KeyValueCallback headerTransformer,
+      OAuth2Checker shouldAllowOAuth2,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      this.oAuth1RequestHelper = (signatureMethods == SignatureMethod.getStandardRegistry())
+        ? UnpackedRequest.O_AUTH_1_REQUEST_HELPER
+        : new UnpackedRequest.OAuth1RequestHelper(signatureMethods);
       this.helper = helper;
       this.normalizer = normalizer;
       this.queryParser = queryParser;
@@ -244,7 +266,7 @@ public interface Unpacker {
         oAuth1Params.consumerKey(), oAuth1Params.signature(), oAuth1Params.signatureMethod()));
     }
 
-    return UnpackedRequest.O_AUTH_1_REQUEST_HELPER.buildOAuth1Request(parsedRequest, oAuth1Params, normalizer);
+    return oAuth1RequestHelper.buildOAuth1Request(parsedRequest, oAuth1Params, normalizer);
   }
 
   public UnpackedRequest.OAuth1TwoLeggedRequest getOAuth1TwoLeggedRequest(
@@ -259,7 +281,7 @@ public interface Unpacker {
         oAuth1Params.signature(), oAuth1Params.signatureMethod()));
     }
 
-    return UnpackedRequest.O_AUTH_1_REQUEST_HELPER.buildOAuth1TwoLeggedRequest(parsedRequest, oAuth1Params, normalizer);
+    return oAuth1RequestHelper.buildOAuth1TwoLeggedRequest(parsedRequest, oAuth1Params, normalizer);
   }
 
   public UnpackedRequest.OAuth2Request getOAuth2Request(
@@ -306,6 +328,19 @@ public interface Unpacker {
         KeyValueParser.HeaderKeyValueParser
       );
     }
+
+    /**
+     * an unpacker that accepts the signature methods in a registry
+     */
+    public static StandardUnpacker newUnpacker(SignatureMethod.Registry signatureMethods) {
+      return new StandardUnpacker(
+        OAuthParams.STANDARD_OAUTH_PARAMS_HELPER,
+        Normalizer.getStandardNormalizer(),
+        KeyValueParser.QueryKeyValueParser,
+        KeyValueParser.HeaderKeyValueParser,
+        signatureMethods
+      );
+    }
   }
 
   class StandardUnpacker extends CustomizableUnpacker {
@@ -332,5 +367,15 @@ public interface Unpacker {
     ) {
       super(helper, normalizer, queryParser, headerParser, callback, callback, callback, checker);
     }
+
+    public StandardUnpacker(
+      OAuthParams.OAuthParamsHelper helper,
+      Normalizer normalizer,
+      KeyValueParser queryParser,
+      KeyValueParser headerParser,
+      SignatureMethod.Registry signatureMethods
+    ) {
+      super(helper, normalizer, queryParser, headerParser, callback, callback, callback, checker, signatureMethods);
+    }
   }
 }
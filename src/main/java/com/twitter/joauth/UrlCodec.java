@@ -107,6 +107,77 @@ public class UrlCodec {
     return (sb == null) ? s : sb.toString();
   }
 
+  /**
+   * percent-encode s into a Normalizer.Sink. The output is the same as that of encode(s),
+   * but runs of unreserved chars are passed through without building a new String.
+   */
+  static void encode(String s, Normalizer.Sink sink) {
+    if (s == null) {
+      s = "null";
+    }
+
+    int length = s.length();
+    int runStart = 0;
+    int i = 0;
+    while (i < length) {
+      char c = s.charAt(i);
+      if (isUnreserved(c)) {
+        i++;
+        continue;
+      }
+
+      if (runStart < i) {
+        sink.append(s, runStart, i);
+      }
+      if (c < 0x80) {
+        appendEncodedByte(c, sink);
+        i += 1;
+      } else if (c < 0x800) {
+        appendEncodedByte(0xc0 | (c >> 6), sink);
+        appendEncodedByte(0x80 | (c & 0x3f), sink);
+        i += 1;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(i + 1));
+        appendEncodedByte(0xf0 | (codePoint >> 18), sink);
+        appendEncodedByte(0x80 | ((codePoint >> 12) & 0x3f), sink);
+        appendEncodedByte(0x80 | ((codePoint >> 6) & 0x3f), sink);
+        appendEncodedByte(0x80 | (codePoint & 0x3f), sink);
+        i += 2;
+      } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        // String.getBytes replaces unpaired surrogates with '?'
+        appendEncodedByte('?', sink);
+        i += 1;
+      } else {
+        appendEncodedByte(0xe0 | (c >> 12), sink);
+        appendEncodedByte(0x80 | ((c >> 6) & 0x3f), sink);
+        appendEncodedByte(0x80 | (c & 0x3f), sink);
+        i += 1;
+      }
+      runStart = i;
+    }
+
+    if (runStart < length) {
+      sink.append(s, runStart, length);
+    }
+  }
+
+  /**
+   * percent-encode a single ASCII char into a Normalizer.Sink
+   */
+  static void encode(char c, Normalizer.Sink sink) {
+    if (isUnreserved(c)) {
+      sink.append(c);
+    } else {
+      appendEncodedByte(c, sink);
+    }
+  }
+
+  private static void appendEncodedByte(int b, Normalizer.Sink sink) {
+    sink.append('%');
+    sink.append(HEX_DIGITS[(b >> 4) & 0x0F]);
+    sink.append(HEX_DIGITS[b & 0x0F]);
+  }
+
   public static String normalize(String s) {
     if (s == null) {
       return null;
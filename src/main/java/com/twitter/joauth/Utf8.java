@@ -0,0 +1,95 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+/**
+ * UTF-8 encoding of char ranges into a fixed size byte array, so that long strings can be fed
+ * to a Mac a chunk at a time instead of being copied into one large array. The output matches
+ * String.getBytes, including the replacement of unpaired surrogates with '?'.
+ */
+class Utf8 {
+
+  /**
+   * the size of chunk that encode requires
+   */
+  static final int CHUNK_LENGTH = 256;
+
+  /**
+   * the number of chars that are guaranteed to fit in a chunk, at three bytes per char
+   */
+  private static final int CHARS_PER_CHUNK = (CHUNK_LENGTH - 1) / 3;
+
+  /**
+   * the end of the next range of chars, starting at start, that encode can fit into a chunk
+   */
+  static int chunkEnd(CharSequence s, int start, int end) {
+    int chunkEnd = Math.min(end, start + CHARS_PER_CHUNK);
+    // don't split a surrogate pair across chunks
+    if (chunkEnd < end && Character.isHighSurrogate(s.charAt(chunkEnd - 1))) {
+      chunkEnd += 1;
+    }
+    return chunkEnd;
+  }
+
+  /**
+   * encode the chars from start up to chunkEnd(s, start, end) into chunk,
+   * and return the number of bytes written
+   */
+  static int encode(CharSequence s, int start, int chunkEnd, byte[] chunk) {
+    int pos = 0;
+    int i = start;
+    while (i < chunkEnd) {
+      char c = s.charAt(i++);
+      if (c < 0x80) {
+        chunk[pos++] = (byte) c;
+      } else if (Character.isHighSurrogate(c) && i < chunkEnd && Character.isLowSurrogate(s.charAt(i))) {
+        pos = encodeCodePoint(Character.toCodePoint(c, s.charAt(i++)), chunk, pos);
+      } else {
+        pos = encodeChar(c, chunk, pos);
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * encode a char that isn't part of a surrogate pair into out at pos, writing at most
+   * three bytes, and return the position after it
+   */
+  static int encodeChar(char c, byte[] out, int pos) {
+    if (c < 0x80) {
+      out[pos++] = (byte) c;
+    } else if (c < 0x800) {
+      out[pos++] = (byte) (0xc0 | (c >> 6));
+      out[pos++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+      out[pos++] = (byte) '?';
+    } else {
+      out[pos++] = (byte) (0xe0 | (c >> 12));
+      out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      out[pos++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return pos;
+  }
+
+  /**
+   * encode a supplementary code point into out at pos, writing four bytes,
+   * and return the position after it
+   */
+  static int encodeCodePoint(int codePoint, byte[] out, int pos) {
+    out[pos++] = (byte) (0xf0 | (codePoint >> 18));
+    out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+    out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+    out[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+    return pos;
+  }
+}
@@ -12,6 +12,19 @@
 
 package com.twitter.joauth;
 
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,6 +35,11 @@ import java.util.logging.Logger;
  *   b) an OAuth1TwoLegged request and a consumer secret
  *
  * and validates the request. It returns a Java enum for compatability
+ *
+ * A consumer secret that's a PEM encoded X.509 certificate or public key is the consumer's
+ * RSA-SHA1 key, and any other is an HMAC secret (see ConsumerCredential). A request is only
+ * checked against a credential of the kind its signature method needs, and is otherwise
+ * rejected with BAD_SIGNATURE.
  */
 public interface Verifier {
   static int NO_TIMESTAMP_CHECK = -1;
@@ -31,6 +49,72 @@ public interface Verifier {
   public VerifierResult verify(UnpackedRequest.OAuth1Request request, String tokenSecret, String consumerSecret);
   public VerifierResult verify(UnpackedRequest.OAuth1TwoLeggedRequest request, String consumerSecret);
 
+  /**
+   * the checks an OAuth1 request must pass
+   */
+  public enum Stage { TIMESTAMP, NONCE, SIGNATURE }
+
+  /**
+   * the default order: the nonce is recorded before the signature is checked
+   */
+  public static final List<Stage> NONCE_BEFORE_SIGNATURE =
+    Collections.unmodifiableList(Arrays.asList(Stage.TIMESTAMP, Stage.NONCE, Stage.SIGNATURE));
+
+  /**
+   * the nonce is only recorded once the signature matches, so forged requests never reach the
+   * NonceValidator's store. The signature is computed even for replayed requests, though.
+   */
+  public static final List<Stage> SIGNATURE_BEFORE_NONCE =
+    Collections.unmodifiableList(Arrays.asList(Stage.TIMESTAMP, Stage.SIGNATURE, Stage.NONCE));
+
+  /**
+   * a token secret and consumer secret to try when verifying a request against several
+   * candidates, e.g. a consumer's old and new secrets while the secret is being rotated
+   */
+  public static class Secrets {
+    private final String tokenSecret;
+    private final String consumerSecret;
+
+    public Secrets(String tokenSecret, String consumerSecret) {
+      this.tokenSecret = tokenSecret;
+      this.consumerSecret = consumerSecret;
+    }
+
+    public String tokenSecret() { return tokenSecret; }
+    public String consumerSecret() { return consumerSecret; }
+
+    @Override
+    public String toString() {
+      // never log the secrets themselves
+      return "Secrets(...)";
+    }
+  }
+
+  /**
+   * the outcome of verifying a request against several candidate secrets: the VerifierResult,
+   * and, if it's OK, the index of the candidate that produced the signature
+   */
+  public static class MultiSecretResult {
+    public static final int NO_MATCH = -1;
+
+    private final VerifierResult result;
+    private final int matchedIndex;
+
+    public MultiSecretResult(VerifierResult result, int matchedIndex) {
+      this.result = result;
+      this.matchedIndex = matchedIndex;
+    }
+
+    public VerifierResult result() { return result; }
+    /** the index of the matching candidate, or NO_MATCH */
+    public int matchedIndex() { return matchedIndex; }
+
+    @Override
+    public String toString() {
+      return "MultiSecretResult(" + result + ", " + matchedIndex + ")";
+    }
+  }
+
   /**
    * a factory with various convenience constructors for a StandardVerifier
    */
@@ -70,19 +154,61 @@ public interface Verifier {
     ) {
       return new StandardVerifier(sign, maxClockFloatAheadMins, maxClockFloatBehindMins, validateNonce);
     }
+
+    public static Verifier newVerifier(
+      Signer sign,
+      RsaSignatureValidator rsaValidator,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce
+    ) {
+      return new StandardVerifier(sign, rsaValidator, maxClockFloatAheadMins, maxClockFloatBehindMins, validateNonce);
+    }
+
+    public static Verifier newVerifier(
+      Signer sign,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce,
+      List<Stage> stages
+    ) {
+      return new StandardVerifier(sign, new RsaSignatureValidator(), maxClockFloatAheadMins, maxClockFloatBehindMins,
+        validateNonce, stages);
+    }
+
+    /**
+     * a verifier that checks the nonce on nonceExecutor while it computes the signature, for
+     * use with a NonceValidator that makes a remote call
+     */
+    public static Verifier newOverlappingVerifier(
+      Signer sign,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce,
+      Executor nonceExecutor
+    ) {
+      return new StandardVerifier(sign, new RsaSignatureValidator(), maxClockFloatAheadMins, maxClockFloatBehindMins,
+        validateNonce, NONCE_BEFORE_SIGNATURE, nonceExecutor);
+    }
   }
 
 
   public static class StandardVerifier implements Verifier {
 
     private final Signer signer;
+    private final RsaSignatureValidator rsaValidator;
     private final int maxClockFloatAheadMins;
     private final int maxClockFloatBehindMins;
     private final NonceValidator validateNonce;
     private final long maxClockFloatAheadSecs;
     private final long maxClockFloatBehindSecs;
+    private final Stage[] stages;
+    private final Executor nonceExecutor;
+    private final AtomicLongArray checks = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray rejections = new AtomicLongArray(Stage.values().length);
 
     private static final Logger log = Logger.getLogger("StandardVerifier");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     public StandardVerifier(
       Signer signer,
@@ -90,7 +216,59 @@ public interface Verifier {
       int maxClockFloatBehindMins,
       NonceValidator validateNonce
     ) {
+      this(signer, new RsaSignatureValidator(), maxClockFloatAheadMins, maxClockFloatBehindMins, validateNonce);
+    }
+
+    public StandardVerifier(
+      Signer signer,
+      RsaSignatureValidator rsaValidator,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce
+    ) {
+      this(signer, rsaValidator, maxClockFloatAheadMins, maxClockFloatBehindMins, validateNonce, NONCE_BEFORE_SIGNATURE);
+    }
+
+    /**
+     * @param stages the order to check requests in, e.g. SIGNATURE_BEFORE_NONCE. Every Stage
+     *   must appear exactly once.
+     */
+    public StandardVerifier(
+      Signer signer,
+      RsaSignatureValidator rsaValidator,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce,
+      List<Stage> stages
+    ) {
+      this(signer, rsaValidator, maxClockFloatAheadMins, maxClockFloatBehindMins, validateNonce, stages, null);
+    }
+
+    /**
+     * @param nonceExecutor if not null, and the nonce is checked before the signature, the
+     *   NonceValidator is called on this executor while the calling thread computes the
+     *   signature, so a remote nonce check and the HMAC overlap. The results are combined in
+     *   stage order, so a request gets the same VerifierResult either way, and the nonce is
+     *   still recorded for every request that reaches the NONCE stage. If the executor rejects
+     *   the task, the nonce is checked on the calling thread.
+     */
+    public StandardVerifier(
+      Signer signer,
+      RsaSignatureValidator rsaValidator,
+      int maxClockFloatAheadMins,
+      int maxClockFloatBehindMins,
+      NonceValidator validateNonce,
+      List<Stage> stages,
+      Executor nonceExecutor
+    ) {
+      if (stages.size() != Stage.values().length || !EnumSet.copyOf(stages).equals(EnumSet.allOf(Stage.class))) {
+        throw new IllegalArgumentException("every stage must appear exactly once: " + stages);
+      }
+      this.stages = stages.toArray(new Stage[stages.size()]);
+      // there's nothing to overlap if the signature is checked first
+      this.nonceExecutor = (stages.indexOf(Stage.NONCE) < stages.indexOf(Stage.SIGNATURE)) ? nonceExecutor : null;
       this.signer = signer;
+      this.rsaValidator = rsaValidator;
       this.maxClockFloatAheadMins = maxClockFloatAheadMins;
       this.maxClockFloatBehindMins = maxClockFloatAheadMins;
       this.validateNonce = validateNonce;
@@ -101,60 +279,250 @@ public interface Verifier {
 
     @Override
     public VerifierResult verify(UnpackedRequest.OAuth1TwoLeggedRequest request, String consumerSecret) {
-      return verifyOAuth1(
-        request,
-        request.nonce(),
-        request.timestampSecs(),
-        "",
-        consumerSecret,
-        request.signature(),
-        request.signatureMethod(),
-        request.normalizedRequest()
-      );
+      return verifyOAuth1(request, "", ConsumerCredential.fromStored(consumerSecret));
     }
 
     @Override
     public VerifierResult verify(UnpackedRequest.OAuth1Request request, String tokenSecret, String consumerSecret) {
-      return verifyOAuth1(
-        request,
-        request.nonce(),
-        request.timestampSecs(),
-        tokenSecret,
-        consumerSecret,
-        request.signature(),
-        request.signatureMethod(),
-        request.normalizedRequest()
-      );
+      return verifyOAuth1(request, tokenSecret, ConsumerCredential.fromStored(consumerSecret));
     }
 
-    private VerifierResult verifyOAuth1(
-      UnpackedRequest.OAuthRequest request,
-      String nonce,
-      long timestampSecs,
+    public VerifierResult verify(UnpackedRequest.OAuth1TwoLeggedRequest request, ConsumerCredential credential) {
+      return verifyOAuth1(request, "", credential);
+    }
+
+    public VerifierResult verify(
+      UnpackedRequest.OAuth1Request request,
       String tokenSecret,
-      String consumerSecret,
-      String signature,
-      String signatureMethod,
-      String normalizedRequest
+      ConsumerCredential credential
+    ) {
+      return verifyOAuth1(request, tokenSecret, credential);
+    }
+
+    private VerifierResult verifyOAuth1(
+      final UnpackedRequest.OAuth1RequestBase request,
+      final String tokenSecret,
+      final ConsumerCredential credential
     ) {
-      if (!validateTimestampSecs(timestampSecs)) {
-        if (log.isLoggable(Level.FINE)) {
-          log.log(Level.FINE, String.format("bad timestamp -> %s", request.toString()));
+      return runStages(request, new SignatureCheck() {
+        @Override
+        boolean validate(UnpackedRequest.OAuth1RequestBase request) {
+          return validateSignature(request, tokenSecret, credential);
         }
-        return VerifierResult.BAD_TIMESTAMP;
-      } else if (!validateNonce.validate(nonce)) {
-        if (log.isLoggable(Level.FINE)) {
-          log.log(Level.FINE, String.format("bad nonce -> %s", request.toString()));
+      });
+    }
+
+    /**
+     * verify a request against several candidate secret pairs, in order, and report which one
+     * signed it. The timestamp and nonce are checked once, so the nonce is only consumed once,
+     * and the presented signature and the normalized request are each decoded or built once,
+     * leaving just an HMAC per candidate. Returns BAD_SIGNATURE if no candidate matches.
+     */
+    public MultiSecretResult verify(UnpackedRequest.OAuth1Request request, List<Secrets> candidates) {
+      return verifyOAuth1(request, candidates);
+    }
+
+    /**
+     * verify a two-legged request against several candidate consumer secrets, in order
+     */
+    public MultiSecretResult verify(
+      UnpackedRequest.OAuth1TwoLeggedRequest request,
+      List<String> consumerSecrets
+    ) {
+      List<Secrets> candidates = new ArrayList<Secrets>(consumerSecrets.size());
+      for (String consumerSecret : consumerSecrets) {
+        candidates.add(new Secrets("", consumerSecret));
+      }
+      return verifyOAuth1(request, candidates);
+    }
+
+    private MultiSecretResult verifyOAuth1(UnpackedRequest.OAuth1RequestBase request, final List<Secrets> candidates) {
+      final int[] matched = { MultiSecretResult.NO_MATCH };
+      VerifierResult result = runStages(request, new SignatureCheck() {
+        @Override
+        boolean validate(UnpackedRequest.OAuth1RequestBase request) {
+          matched[0] = matchSignature(request, candidates);
+          return matched[0] != MultiSecretResult.NO_MATCH;
         }
-        return VerifierResult.BAD_NONCE;
-      } else if (!validateSignature(normalizedRequest, signature, signatureMethod, tokenSecret, consumerSecret)) {
-        if (log.isLoggable(Level.FINE)) {
-          log.log(Level.FINE, String.format("bad signature -> %s", request.toString()));
+      });
+      return new MultiSecretResult(result, (result == VerifierResult.OK) ? matched[0] : MultiSecretResult.NO_MATCH);
+    }
+
+    /**
+     * the signature stage of a request, which is run wherever the verifier's Stage order puts it
+     */
+    abstract static class SignatureCheck {
+      abstract boolean validate(UnpackedRequest.OAuth1RequestBase request);
+    }
+
+    /**
+     * run the request through each stage in order, stopping at the first that rejects it. With
+     * a nonceExecutor, the NONCE stage only starts the check, and its result is collected before
+     * any later stage's rejection is reported, or once every stage has passed.
+     */
+    VerifierResult runStages(UnpackedRequest.OAuth1RequestBase request, SignatureCheck signatureCheck) {
+      FutureTask<Boolean> pendingNonce = null;
+      for (Stage stage : stages) {
+        checks.incrementAndGet(stage.ordinal());
+        boolean passed = true;
+        switch (stage) {
+          case TIMESTAMP:
+            passed = validateTimestampSecs(request.timestampSecs());
+            break;
+          case NONCE:
+            if (nonceExecutor != null) {
+              pendingNonce = startNonceCheck(request.nonce());
+            } else {
+              passed = validateNonce.validate(request.nonce());
+            }
+            break;
+          case SIGNATURE:
+            passed = signatureCheck.validate(request);
+            break;
+        }
+        if (!passed) {
+          // an earlier stage's rejection takes precedence
+          if (pendingNonce != null && !awaitNonceCheck(pendingNonce)) {
+            return reject(Stage.NONCE, request);
+          }
+          return reject(stage, request);
+        }
+      }
+      if (pendingNonce != null && !awaitNonceCheck(pendingNonce)) {
+        return reject(Stage.NONCE, request);
+      }
+      return VerifierResult.OK;
+    }
+
+    private VerifierResult reject(Stage stage, UnpackedRequest.OAuth1RequestBase request) {
+      rejections.incrementAndGet(stage.ordinal());
+      if (log.isLoggable(Level.FINE)) {
+        log.log(Level.FINE, String.format("bad %s -> %s", stage.name().toLowerCase(), request.toString()));
+      }
+      switch (stage) {
+        case TIMESTAMP: return VerifierResult.BAD_TIMESTAMP;
+        case NONCE: return VerifierResult.BAD_NONCE;
+        default: return VerifierResult.BAD_SIGNATURE;
+      }
+    }
+
+    private FutureTask<Boolean> startNonceCheck(final String nonce) {
+      FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return validateNonce.validate(nonce);
         }
-        return VerifierResult.BAD_SIGNATURE;
-      } else {
-        return VerifierResult.OK;
+      });
+      try {
+        nonceExecutor.execute(task);
+      } catch (RejectedExecutionException e) {
+        task.run();
       }
+      return task;
+    }
+
+    /**
+     * wait for a nonce check started by startNonceCheck. An exception thrown by the
+     * NonceValidator is rethrown, as it would be without an executor, and an interrupted wait
+     * rejects the nonce.
+     */
+    private boolean awaitNonceCheck(FutureTask<Boolean> pendingNonce) {
+      try {
+        return pendingNonce.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+    }
+
+    public List<Stage> stages() {
+      return Collections.unmodifiableList(Arrays.asList(stages));
+    }
+
+    /**
+     * a copy of this verifier, with the same signer, clock float, stages and executor, that
+     * checks nonces with a different NonceValidator. Its check and rejection counts start at 0.
+     */
+    public StandardVerifier withNonceValidator(NonceValidator validateNonce) {
+      return new StandardVerifier(signer, rsaValidator, maxClockFloatAheadMins,
+        (int) (maxClockFloatBehindSecs / 60), validateNonce, Arrays.asList(stages), nonceExecutor);
+    }
+
+    /**
+     * whether the nonce is checked on an executor while the signature is computed
+     */
+    public boolean overlapsNonceCheck() {
+      return nonceExecutor != null;
+    }
+
+    /**
+     * the number of requests that reached a stage. For NONCE, that's the number of times the
+     * NonceValidator was called.
+     */
+    public long checkCount(Stage stage) {
+      return checks.get(stage.ordinal());
+    }
+
+    /**
+     * the number of requests a stage rejected
+     */
+    public long rejectionCount(Stage stage) {
+      return rejections.get(stage.ordinal());
+    }
+
+    /**
+     * the index of the first candidate whose secrets produce the request's signature, or NO_MATCH
+     */
+    int matchSignature(UnpackedRequest.OAuth1RequestBase request, List<Secrets> candidates) {
+      if (candidates.isEmpty()) {
+        return MultiSecretResult.NO_MATCH;
+      }
+
+      SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+      if (isRsa(request)) {
+        // for RSA the candidates are public keys, which RsaSignatureValidator caches by consumer key and PEM
+        for (int i = 0; i < candidates.size(); i++) {
+          ConsumerCredential credential = ConsumerCredential.fromStored(candidates.get(i).consumerSecret());
+          if (credential != null && credential.isRsa() && rsaValidator.validate(request.consumerKey(), credential,
+              request.normalizedRequest(), request.signature())) {
+            return i;
+          }
+        }
+        return MultiSecretResult.NO_MATCH;
+      }
+
+      byte[] presented;
+      byte[] normalized;
+      try {
+        presented = Base64Util.decodeLenient(UrlCodec.decode(request.signature()).trim());
+        normalized = request.normalizedRequest().getBytes(UTF_8);
+      } catch (Exception e) {
+        return MultiSecretResult.NO_MATCH;
+      }
+      String method = (signatureMethod != null) ? signatureMethod.name() : request.signatureMethod();
+
+      for (int i = 0; i < candidates.size(); i++) {
+        Secrets candidate = candidates.get(i);
+        ConsumerCredential credential = ConsumerCredential.fromStored(candidate.consumerSecret());
+        if (credential == null || credential.isRsa()) {
+          continue;
+        }
+        try {
+          byte[] expected = signer.getBytes(normalized, 0, normalized.length, method,
+            candidate.tokenSecret(), candidate.consumerSecret());
+          if (MessageDigest.isEqual(presented, expected)) {
+            return i;
+          }
+        } catch (Exception e) {
+          // a candidate that can't be used as a key just doesn't match
+        }
+      }
+      return MultiSecretResult.NO_MATCH;
     }
 
     public boolean validateTimestampSecs(long timestampSecs) {
@@ -164,6 +532,88 @@ public interface Verifier {
         (maxClockFloatAheadMins < 0 || (timestampSecs <= nowSecs + maxClockFloatAheadSecs));
     }
 
+    /**
+     * check the request's signature against a consumer credential, which must be of the kind the
+     * request's signature method needs. The method only chooses how the signature is checked
+     * once the credential has agreed to it.
+     */
+    boolean validateSignature(
+      UnpackedRequest.OAuth1RequestBase request,
+      String tokenSecret,
+      ConsumerCredential credential
+    ) {
+      if (credential == null || !credential.accepts(request)) {
+        return false;
+      }
+      if (credential.isRsa()) {
+        return rsaValidator.validate(
+          request.consumerKey(),
+          credential,
+          request.normalizedRequest(),
+          request.signature()
+        );
+      }
+
+      SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+      String consumerSecret = credential.secret();
+
+      if (!request.isNormalizedRequestDeferred()) {
+        return validateSignature(
+          request.normalizedRequest(),
+          request.signature(),
+          request.signatureMethod(),
+          tokenSecret,
+          consumerSecret
+        );
+      }
+
+      // stream the normalized request straight into the signer
+      try {
+        Signer.SignatureSink sink = (signatureMethod != null)
+          ? signer.newSink(signatureMethod, tokenSecret, consumerSecret)
+          : signer.newSink(request.signatureMethod(), tokenSecret, consumerSecret);
+        try {
+          return validateSignature(request, sink);
+        } finally {
+          sink.release();
+        }
+      } catch (Exception e) {
+        return false;
+      }
+    }
+
+    /**
+     * validate the request's signature with a sink that's already keyed with its secrets. The
+     * sink is left ready for the next request, so one Mac can check many requests signed with
+     * the same secrets.
+     */
+    boolean validateSignature(UnpackedRequest.OAuth1RequestBase request, Signer.SignatureSink sink) {
+      try {
+        if (request.isNormalizedRequestDeferred()) {
+          request.writeNormalizedRequest(sink);
+        } else {
+          String normalizedRequest = request.normalizedRequest();
+          sink.append(normalizedRequest, 0, normalizedRequest.length());
+        }
+        // finish the signature first, so a malformed presented signature leaves the sink reset
+        byte[] signature = sink.doFinal();
+        return Base64Util.equalsPercentEncoded(request.signature(), signature);
+      } catch (Exception e) {
+        return false;
+      }
+    }
+
+    static boolean isRsa(UnpackedRequest.OAuth1RequestBase request) {
+      SignatureMethod signatureMethod = request.resolvedSignatureMethod();
+      return (signatureMethod != null)
+        ? signatureMethod.type() == SignatureMethod.Type.RSA
+        : OAuthParams.RSA_SHA1.equals(request.signatureMethod());
+    }
+
+    Signer signer() {
+      return signer;
+    }
+
     boolean validateSignature(
       String normalizedRequest,
       String signature,
@@ -172,7 +622,7 @@ public interface Verifier {
       String consumerSecret
     ) {
       try {
-        return Base64Util.equals(UrlCodec.decode(signature).trim(),
+        return Base64Util.equalsPercentEncoded(signature,
             signer.getBytes(normalizedRequest, signatureMethod, tokenSecret, consumerSecret));
       } catch (Exception e) {
         return false;
@@ -16,5 +16,14 @@ public enum VerifierResult {
   OK,
   BAD_NONCE,
   BAD_SIGNATURE,
-  BAD_TIMESTAMP
+  BAD_TIMESTAMP,
+  /**
+   * the SecretStore didn't know the consumer key or token. Only returned by AsyncVerifier.
+   */
+  UNKNOWN_CREDENTIALS,
+  /**
+   * the consumer was over its rate limit, so the request wasn't checked. Only returned by a
+   * Verifier from AdmissionController.verifier.
+   */
+  RATE_LIMITED
 }
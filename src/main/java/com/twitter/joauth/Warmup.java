@@ -0,0 +1,223 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+
+/**
+ * Warms up an Unpacker and Verifier before they serve traffic. The JCA providers are loaded
+ * up front, and then synthetic, correctly signed OAuth1, two-legged OAuth1 and OAuth2 requests
+ * are run through the unpacker and verifier, so that class initialization and the JIT's first
+ * compilations happen here rather than on the first real requests. run() returns how long this
+ * took, so readiness can be gated on it.
+ *
+ * The synthetic requests carry fresh nonces and the current time. A StandardVerifier is warmed
+ * up through a copy that uses NO_OP_NONCE_VALIDATOR, so the nonces never reach the production
+ * NonceValidator and the verifier's own check counts are left alone. Any other Verifier is
+ * used as given, so pass one that doesn't record nonces.
+ *
+ * OAuth2 requests aren't verified by joauth, so for those the unpacking and the resulting
+ * OAuth2Request's token and parameters are what gets warmed up and checked.
+ */
+public class Warmup {
+
+  static final String CONSUMER_KEY = "warmup-consumer";
+  static final String CONSUMER_SECRET = "warmup-consumer-secret";
+  static final String TOKEN = "warmup-token";
+  static final String TOKEN_SECRET = "warmup-token-secret";
+  static final String OAUTH2_TOKEN = "warmup-oauth2-token";
+
+  private static final Logger log = Logger.getLogger("Warmup");
+
+  private static final String HOST = "warmup.example.com";
+  private static final String PATH = "/1.1/warmup.json";
+  private static final String QUERY_STRING = "count=20&include_entities=true";
+  private static final String BODY = "status=warming%20up%20%E2%9C%93";
+
+  private final Unpacker unpacker;
+  private final Verifier verifier;
+  private final RequestSigner signer;
+  private final RequestSigner twoLeggedSigner;
+
+  public Warmup(Unpacker unpacker, Verifier verifier) {
+    this(unpacker, verifier, Signer.getStandardSigner());
+  }
+
+  /**
+   * warm up with the Signer used by the verifier, so that the same code paths are exercised
+   */
+  public Warmup(Unpacker unpacker, Verifier verifier, Signer signer) {
+    this.unpacker = unpacker;
+    this.verifier = (verifier instanceof Verifier.StandardVerifier)
+      ? ((Verifier.StandardVerifier) verifier).withNonceValidator(NonceValidator.NO_OP_NONCE_VALIDATOR)
+      : verifier;
+    this.signer = new RequestSigner(CONSUMER_KEY, CONSUMER_SECRET, TOKEN, TOKEN_SECRET,
+      OAuthParams.HMAC_SHA1, signer, Normalizer.getStandardNormalizer());
+    this.twoLeggedSigner = new RequestSigner(CONSUMER_KEY, CONSUMER_SECRET, null, null,
+      OAuthParams.HMAC_SHA256, signer, Normalizer.getStandardNormalizer());
+  }
+
+  /**
+   * load the JCA services used for signing and verification
+   */
+  public static void preloadProviders() {
+    String[] macs = { Hmac.HMACSHA1, Hmac.HMACSHA256 };
+    for (String algorithm : macs) {
+      try {
+        Mac.getInstance(algorithm);
+      } catch (GeneralSecurityException e) {
+        log.log(Level.FINE, "could not preload " + algorithm, e);
+      }
+    }
+    try {
+      Signature.getInstance(RsaSignatureValidator.SHA1_WITH_RSA);
+      KeyFactory.getInstance("RSA");
+      CertificateFactory.getInstance("X.509");
+    } catch (GeneralSecurityException e) {
+      log.log(Level.FINE, "could not preload RSA", e);
+    }
+    NonceGenerator.STANDARD_NONCE_GENERATOR.nextNonce();
+  }
+
+  /**
+   * preload the providers, then run each kind of synthetic request through the unpacker and
+   * verifier the given number of times
+   */
+  public Result run(int iterations) {
+    long start = System.nanoTime();
+    preloadProviders();
+
+    int requests = 0;
+    List<String> failures = new ArrayList<String>();
+    StringBuilder header = new StringBuilder(256);
+    for (int i = 0; i < iterations; i++) {
+      boolean post = (i & 1) == 0;
+      try {
+        header.setLength(0);
+        signer.appendAuthorizationHeader(header, post ? "POST" : "GET", "http", HOST, 80, PATH, params(post));
+        UnpackedRequest unpacked = unpacker.unpack(new SyntheticRequest("http", post, header.toString()));
+        requests++;
+        check("oauth1", verifier.verify((UnpackedRequest.OAuth1Request) unpacked, TOKEN_SECRET, CONSUMER_SECRET), failures);
+
+        header.setLength(0);
+        twoLeggedSigner.appendAuthorizationHeader(header, post ? "POST" : "GET", "http", HOST, 80, PATH, params(post));
+        unpacked = unpacker.unpack(new SyntheticRequest("http", post, header.toString()));
+        requests++;
+        check("two-legged", verifier.verify((UnpackedRequest.OAuth1TwoLeggedRequest) unpacked, CONSUMER_SECRET), failures);
+
+        unpacked = unpacker.unpack(new SyntheticRequest("https", post, OAuthParams.BEARER_TOKEN + " " + OAUTH2_TOKEN));
+        requests++;
+        checkOAuth2(unpacked, post, failures);
+      } catch (Exception e) {
+        failures.add(e.toString());
+      }
+    }
+
+    Result result = new Result(iterations, requests, failures, System.nanoTime() - start);
+    if (log.isLoggable(Level.INFO)) {
+      log.log(Level.INFO, result.toString());
+    }
+    return result;
+  }
+
+  private static void check(String kind, VerifierResult result, List<String> failures) {
+    if (result != VerifierResult.OK) {
+      failures.add(kind + ": " + result);
+    }
+  }
+
+  private static void checkOAuth2(UnpackedRequest unpacked, boolean post, List<String> failures) {
+    if (!(unpacked instanceof UnpackedRequest.OAuth2Request)) {
+      failures.add("oauth2: " + unpacked);
+      return;
+    }
+    UnpackedRequest.OAuth2Request request = (UnpackedRequest.OAuth2Request) unpacked;
+    Request.ParsedRequest parsed = request.parsedRequest();
+    if (!OAUTH2_TOKEN.equals(request.token()) || !PATH.equals(parsed.path()) ||
+        !(post ? "POST" : "GET").equals(parsed.verb())) {
+      failures.add("oauth2: " + request);
+    }
+  }
+
+  private static List<Request.Pair> params(boolean post) {
+    List<Request.Pair> params = new ArrayList<Request.Pair>(3);
+    params.add(new Request.Pair("count", "20"));
+    params.add(new Request.Pair("include_entities", "true"));
+    if (post) {
+      params.add(new Request.Pair("status", "warming%20up%20%E2%9C%93"));
+    }
+    return params;
+  }
+
+  /**
+   * the outcome of a warmup run
+   */
+  public static class Result {
+    private final int iterations;
+    private final int requests;
+    private final List<String> failures;
+    private final long elapsedNanos;
+
+    Result(int iterations, int requests, List<String> failures, long elapsedNanos) {
+      this.iterations = iterations;
+      this.requests = requests;
+      this.failures = failures;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public int iterations() { return iterations; }
+    /** the number of synthetic requests unpacked */
+    public int requests() { return requests; }
+    /**
+     * a description of each synthetic request that didn't unpack or verify as expected
+     */
+    public List<String> failures() { return failures; }
+    public long elapsedNanos() { return elapsedNanos; }
+    public long elapsedMillis() { return elapsedNanos / 1000000; }
+
+    @Override
+    public String toString() {
+      return String.format("warmed up with %d requests in %dms, %d failures", requests, elapsedMillis(), failures.size());
+    }
+  }
+
+  private static class SyntheticRequest implements Request {
+    private final String scheme;
+    private final boolean post;
+    private final String authHeader;
+
+    SyntheticRequest(String scheme, boolean post, String authHeader) {
+      this.scheme = scheme;
+      this.post = post;
+      this.authHeader = authHeader;
+    }
+
+    @Override public String authHeader() { return authHeader; }
+    @Override public String body() { return post ? BODY : null; }
+    @Override public String contentType() { return post ? Unpacker.CustomizableUnpacker.WWW_FORM_URLENCODED : null; }
+    @Override public String host() { return HOST; }
+    @Override public String method() { return post ? "POST" : "GET"; }
+    @Override public String path() { return PATH; }
+    @Override public int port() { return "https".equals(scheme) ? 443 : 80; }
+    @Override public String queryString() { return QUERY_STRING; }
+    @Override public String scheme() { return scheme; }
+  }
+}
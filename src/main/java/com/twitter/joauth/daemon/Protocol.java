@@ -0,0 +1,271 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.daemon;
+
+import com.twitter.joauth.Request;
+import com.twitter.joauth.UnpackedRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * The wire format spoken by VerificationServer and VerificationClient. Every message is a frame:
+ * a 4 byte big-endian length followed by that many bytes of payload. Clients may write any
+ * number of request frames without waiting for responses, and each response carries the id
+ * of its request, since responses are written as verifications complete, not in request order.
+ *
+ * A request payload is an int id, a kind byte, and then
+ *   REQUEST: scheme, host, port (int), method, path, query string, Authorization header,
+ *     content type and body, for the server to unpack and verify
+ *   OAUTH1: token (null for a two-legged request), consumer key, nonce, timestamp (long),
+ *     signature, signature method, version and normalized request, for a request the client
+ *     has already unpacked
+ * A response payload is the int id, a Status code byte, and the consumer key and token of the
+ * request, which are null unless it was unpacked.
+ *
+ * Strings are an int byte length followed by that many bytes of UTF-8, with -1 for null.
+ */
+public final class Protocol {
+
+  public static final byte REQUEST = 1;
+  public static final byte OAUTH1 = 2;
+
+  /**
+   * frames longer than this are rejected, and the connection closed
+   */
+  public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private Protocol() {
+  }
+
+  /**
+   * the outcome of a request. The codes are stable on the wire; the VerifierResults map onto
+   * the constants of the same name.
+   */
+  public enum Status {
+    OK(0),
+    BAD_NONCE(1),
+    BAD_SIGNATURE(2),
+    BAD_TIMESTAMP(3),
+    UNKNOWN_CREDENTIALS(4),
+    RATE_LIMITED(5),
+    /** the request couldn't be unpacked, or the frame couldn't be decoded */
+    MALFORMED(64),
+    /** the request carried no OAuth credentials */
+    NOT_OAUTH(65),
+    /** verification failed with an exception, e.g. the secret store was down */
+    ERROR(66);
+
+    private final byte code;
+
+    Status(int code) {
+      this.code = (byte) code;
+    }
+
+    public byte code() {
+      return code;
+    }
+
+    public static Status fromCode(byte code) {
+      for (Status status : values()) {
+        if (status.code == code) return status;
+      }
+      throw new IllegalArgumentException("unknown status code: " + code);
+    }
+  }
+
+  public static class Response {
+    private final int id;
+    private final Status status;
+    private final String consumerKey;
+    private final String token;
+
+    public Response(int id, Status status, String consumerKey, String token) {
+      this.id = id;
+      this.status = status;
+      this.consumerKey = consumerKey;
+      this.token = token;
+    }
+
+    public int id() { return id; }
+    public Status status() { return status; }
+    public String consumerKey() { return consumerKey; }
+    public String token() { return token; }
+
+    @Override
+    public String toString() {
+      return "Response(" + id + ", " + status + ", " + consumerKey + ")";
+    }
+  }
+
+  /**
+   * a Request decoded from a REQUEST frame
+   */
+  static class WireRequest implements Request {
+    private final String scheme;
+    private final String host;
+    private final int port;
+    private final String method;
+    private final String path;
+    private final String queryString;
+    private final String authHeader;
+    private final String contentType;
+    private final String body;
+
+    WireRequest(String scheme, String host, int port, String method, String path, String queryString,
+        String authHeader, String contentType, String body) {
+      this.scheme = scheme;
+      this.host = host;
+      this.port = port;
+      this.method = method;
+      this.path = path;
+      this.queryString = queryString;
+      this.authHeader = authHeader;
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+    @Override public String authHeader() { return authHeader; }
+    @Override public String body() { return body; }
+    @Override public String contentType() { return contentType; }
+    @Override public String host() { return host; }
+    @Override public String method() { return method; }
+    @Override public String path() { return path; }
+    @Override public int port() { return port; }
+    @Override public String queryString() { return queryString; }
+    @Override public String scheme() { return scheme; }
+  }
+
+  /**
+   * write a REQUEST frame for a request the server should unpack
+   */
+  public static void writeRequest(int id, Request request, DataOutputStream out) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+    DataOutputStream data = new DataOutputStream(payload);
+    data.writeInt(id);
+    data.writeByte(REQUEST);
+    writeString(request.scheme(), data);
+    writeString(request.host(), data);
+    data.writeInt(request.port());
+    writeString(request.method(), data);
+    writeString(request.path(), data);
+    writeString(request.queryString(), data);
+    writeString(request.authHeader(), data);
+    writeString(request.contentType(), data);
+    writeString(request.body(), data);
+    writeFrame(payload, out);
+  }
+
+  /**
+   * write an OAUTH1 frame for a request that has already been unpacked
+   */
+  public static void writeRequest(int id, UnpackedRequest.OAuth1RequestBase request, DataOutputStream out)
+    throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+    DataOutputStream data = new DataOutputStream(payload);
+    data.writeInt(id);
+    data.writeByte(OAUTH1);
+    writeString((request instanceof UnpackedRequest.OAuth1Request)
+      ? ((UnpackedRequest.OAuth1Request) request).token()
+      : null, data);
+    writeString(request.consumerKey(), data);
+    writeString(request.nonce(), data);
+    data.writeLong(request.timestampSecs());
+    writeString(request.signature(), data);
+    writeString(request.signatureMethod(), data);
+    writeString(request.version(), data);
+    writeString(request.normalizedRequest(), data);
+    writeFrame(payload, out);
+  }
+
+  public static void writeResponse(Response response, DataOutputStream out) throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+    DataOutputStream data = new DataOutputStream(payload);
+    data.writeInt(response.id());
+    data.writeByte(response.status().code());
+    writeString(response.consumerKey(), data);
+    writeString(response.token(), data);
+    writeFrame(payload, out);
+  }
+
+  /**
+   * decode a request payload into a Request or an UnpackedRequest.OAuth1RequestBase
+   */
+  static Object readRequest(ByteBuffer payload) {
+    byte kind = payload.get();
+    switch (kind) {
+      case REQUEST:
+        return new WireRequest(readString(payload), readString(payload), payload.getInt(), readString(payload),
+          readString(payload), readString(payload), readString(payload), readString(payload), readString(payload));
+      case OAUTH1:
+        String token = readString(payload);
+        String consumerKey = readString(payload);
+        String nonce = readString(payload);
+        long timestampSecs = payload.getLong();
+        String signature = readString(payload);
+        String signatureMethod = readString(payload);
+        String version = readString(payload);
+        String normalizedRequest = readString(payload);
+        if (token == null) {
+          return new UnpackedRequest.OAuth1TwoLeggedRequest(consumerKey, nonce, timestampSecs, signature,
+            signatureMethod, version, null, normalizedRequest);
+        }
+        return new UnpackedRequest.OAuth1Request(token, consumerKey, nonce, timestampSecs, signature,
+          signatureMethod, version, null, normalizedRequest);
+      default:
+        throw new IllegalArgumentException("unknown request kind: " + kind);
+    }
+  }
+
+  public static Response readResponse(ByteBuffer payload) {
+    int id = payload.getInt();
+    Status status = Status.fromCode(payload.get());
+    return new Response(id, status, readString(payload), readString(payload));
+  }
+
+  private static void writeFrame(ByteArrayOutputStream payload, DataOutputStream out) throws IOException {
+    if (payload.size() > MAX_FRAME_LENGTH) {
+      throw new IOException("frame too long: " + payload.size());
+    }
+    out.writeInt(payload.size());
+    payload.writeTo(out);
+  }
+
+  private static void writeString(String s, DataOutputStream out) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = s.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.remaining()) {
+      throw new IllegalArgumentException("string runs past the end of the frame");
+    }
+    String s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+    in.position(in.position() + length);
+    return s;
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.daemon;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.twitter.joauth.Request;
+import com.twitter.joauth.UnpackedRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client for VerificationServer over a single connection. Requests are pipelined: verify
+ * writes a request and returns a future straight away, and a reader thread completes the
+ * futures as responses arrive, in whatever order the server finishes them. verifyAll writes a
+ * whole batch with one flush. The client is safe to use from several threads.
+ */
+public class VerificationClient implements Closeable {
+
+  private final Socket socket;
+  private final DataOutputStream out;
+  private final DataInputStream in;
+  private final ConcurrentMap<Integer, SettableFuture<Protocol.Response>> pending =
+    new ConcurrentHashMap<Integer, SettableFuture<Protocol.Response>>();
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Thread reader;
+  private volatile IOException failure = null;
+
+  public VerificationClient(InetSocketAddress address) throws IOException {
+    socket = new Socket();
+    socket.setTcpNoDelay(true);
+    socket.connect(address);
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 16 * 1024));
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024));
+
+    reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readResponses();
+      }
+    }, "VerificationClient-" + address.getPort());
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * have the server unpack and verify a request
+   */
+  public ListenableFuture<Protocol.Response> verify(Request request) throws IOException {
+    SettableFuture<Protocol.Response> response = SettableFuture.create();
+    synchronized (out) {
+      int id = register(response);
+      try {
+        Protocol.writeRequest(id, request, out);
+        out.flush();
+      } catch (IOException e) {
+        pending.remove(id);
+        throw e;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * have the server verify a request that has already been unpacked. Its normalized request is
+   * sent, so the server doesn't need to parse it.
+   */
+  public ListenableFuture<Protocol.Response> verify(UnpackedRequest.OAuth1RequestBase request) throws IOException {
+    SettableFuture<Protocol.Response> response = SettableFuture.create();
+    synchronized (out) {
+      int id = register(response);
+      try {
+        Protocol.writeRequest(id, request, out);
+        out.flush();
+      } catch (IOException e) {
+        pending.remove(id);
+        throw e;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * verify a batch of requests, returning their responses in the same order
+   */
+  public List<Protocol.Response> verifyAll(List<? extends Request> requests)
+    throws IOException, InterruptedException, ExecutionException {
+
+    List<SettableFuture<Protocol.Response>> responses = new ArrayList<SettableFuture<Protocol.Response>>(requests.size());
+    synchronized (out) {
+      try {
+        for (Request request : requests) {
+          SettableFuture<Protocol.Response> response = SettableFuture.create();
+          responses.add(response);
+          Protocol.writeRequest(register(response), request, out);
+        }
+        out.flush();
+      } catch (IOException e) {
+        for (SettableFuture<Protocol.Response> response : responses) {
+          pending.values().remove(response);
+        }
+        throw e;
+      }
+    }
+
+    List<Protocol.Response> results = new ArrayList<Protocol.Response>(responses.size());
+    for (SettableFuture<Protocol.Response> response : responses) {
+      results.add(response.get());
+    }
+    return results;
+  }
+
+  /**
+   * the number of requests still waiting for a response
+   */
+  public int pendingCount() {
+    return pending.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+    try {
+      reader.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    failAll(new IOException("client closed"));
+  }
+
+  private int register(SettableFuture<Protocol.Response> response) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    int id = nextId.incrementAndGet();
+    pending.put(id, response);
+    IOException failed = failure;
+    if (failed != null && pending.remove(id, response)) {
+      // failAll ran between the check and the put, and didn't see this response
+      throw failed;
+    }
+    return id;
+  }
+
+  private void readResponses() {
+    try {
+      while (true) {
+        int length = in.readInt();
+        if (length < 0 || length > Protocol.MAX_FRAME_LENGTH) {
+          throw new IOException("bad frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        Protocol.Response response = Protocol.readResponse(ByteBuffer.wrap(frame));
+        SettableFuture<Protocol.Response> future = pending.remove(response.id());
+        if (future != null) {
+          future.set(response);
+        }
+      }
+    } catch (EOFException e) {
+      failAll(new IOException("server closed the connection"));
+    } catch (IOException e) {
+      failAll(e);
+    } catch (RuntimeException e) {
+      failAll(new IOException("malformed response", e));
+    }
+  }
+
+  private void failAll(IOException e) {
+    if (failure == null) {
+      failure = e;
+    }
+    for (Integer id : pending.keySet()) {
+      SettableFuture<Protocol.Response> future = pending.remove(id);
+      if (future != null) {
+        future.setException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,459 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.daemon;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.twitter.joauth.AsyncVerifier;
+import com.twitter.joauth.MappedSecretStore;
+import com.twitter.joauth.NonceValidator;
+import com.twitter.joauth.Request;
+import com.twitter.joauth.SecretStore;
+import com.twitter.joauth.Signer;
+import com.twitter.joauth.UnpackedRequest;
+import com.twitter.joauth.Unpacker;
+import com.twitter.joauth.UnpackerException;
+import com.twitter.joauth.Verifier;
+import com.twitter.joauth.VerifierResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small server that verifies requests for processes that can't link against this library,
+ * speaking the length-prefixed binary Protocol over TCP. One selector thread accepts
+ * connections, reads frames and writes responses; unpacking and verification happen on the
+ * executor and on the AsyncVerifier's executor, so a connection can have any number of
+ * requests in flight, up to maxOutstanding of them. Past that the server stops reading from the
+ * connection until enough of its responses have been written, so a client that pipelines
+ * without reading can't queue up unbounded work. Responses that complete together are written
+ * to a connection in a single gathering write.
+ *
+ * By default the server only listens on the loopback interface. main runs one against
+ * MappedSecretStore snapshots.
+ */
+public class VerificationServer implements Closeable {
+
+  private static final Logger log = Logger.getLogger("VerificationServer");
+
+  private static final int READ_BUFFER_LENGTH = 16 * 1024;
+  private static final int MAX_BUFFERS_PER_WRITE = 64;
+  private static final int DEFAULT_MAX_OUTSTANDING = 1024;
+  private static final int CLOCK_FLOAT_MINS = 5;
+  private static final long DEFAULT_MAX_NONCES = 1000000;
+
+  private final Unpacker unpacker;
+  private final AsyncVerifier verifier;
+  private final Executor executor;
+  private final int maxOutstanding;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final Queue<Connection> flushable = new ConcurrentLinkedQueue<Connection>();
+  private final Thread selectorThread;
+  private volatile boolean closed = false;
+
+  /**
+   * listen on an ephemeral port on the loopback interface
+   */
+  public VerificationServer(Unpacker unpacker, AsyncVerifier verifier, Executor executor) throws IOException {
+    this(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), unpacker, verifier, executor);
+  }
+
+  /**
+   * @param executor unpacks requests and starts their verification
+   */
+  public VerificationServer(
+    InetSocketAddress address,
+    Unpacker unpacker,
+    AsyncVerifier verifier,
+    Executor executor
+  ) throws IOException {
+    this(address, unpacker, verifier, executor, DEFAULT_MAX_OUTSTANDING);
+  }
+
+  /**
+   * @param maxOutstanding the most requests a connection can have read but not yet answered
+   */
+  public VerificationServer(
+    InetSocketAddress address,
+    Unpacker unpacker,
+    AsyncVerifier verifier,
+    Executor executor,
+    int maxOutstanding
+  ) throws IOException {
+    if (maxOutstanding <= 0) {
+      throw new IllegalArgumentException("maxOutstanding must be positive: " + maxOutstanding);
+    }
+    this.unpacker = unpacker;
+    this.verifier = verifier;
+    this.executor = executor;
+    this.maxOutstanding = maxOutstanding;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    selectorThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, "VerificationServer-" + address().getPort());
+    selectorThread.setDaemon(true);
+  }
+
+  public VerificationServer start() {
+    selectorThread.start();
+    return this;
+  }
+
+  public InetSocketAddress address() {
+    return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    selector.wakeup();
+    try {
+      selectorThread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+  }
+
+  private void loop() {
+    while (!closed) {
+      try {
+        selector.select();
+        Connection connection;
+        while ((connection = flushable.poll()) != null) {
+          connection.flush();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          connection = (Connection) key.attachment();
+          if (key.isReadable()) {
+            connection.read();
+          }
+          if (key.isValid() && key.isWritable()) {
+            connection.flush();
+          }
+        }
+      } catch (IOException e) {
+        if (!closed) {
+          log.log(Level.WARNING, "selector failed", e);
+        }
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    Connection connection = new Connection(channel);
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+  }
+
+  /**
+   * a client connection. Only the selector thread reads from or writes to the channel;
+   * responses completed on other threads are queued, and the connection is handed to the
+   * selector thread to flush them.
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_LENGTH);
+    private final Queue<ByteBuffer> completed = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ArrayDeque<ByteBuffer> unwritten = new ArrayDeque<ByteBuffer>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // requests dispatched whose responses haven't been written; only used on the selector thread
+    private int outstanding = 0;
+    private boolean paused = false;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void read() {
+      try {
+        if (channel.read(in) < 0) {
+          close();
+          return;
+        }
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      dispatchFrames();
+    }
+
+    /**
+     * dispatch the complete frames in the buffer, pausing reads once the connection has
+     * maxOutstanding requests unanswered
+     */
+    private void dispatchFrames() {
+      in.flip();
+      while (in.remaining() >= 4) {
+        if (outstanding >= maxOutstanding) {
+          paused = true;
+          break;
+        }
+        int length = in.getInt(in.position());
+        if (length < 0 || length > Protocol.MAX_FRAME_LENGTH) {
+          log.warning("closing connection after a frame of length " + length);
+          close();
+          return;
+        }
+        if (in.remaining() < 4 + length) {
+          break;
+        }
+        in.position(in.position() + 4);
+        byte[] frame = new byte[length];
+        in.get(frame);
+        outstanding++;
+        dispatch(frame);
+      }
+      in.compact();
+
+      if (in.position() >= 4 && 4 + in.getInt(0) > in.capacity()) {
+        // make room for a frame larger than the buffer
+        resize(4 + in.getInt(0));
+      } else if (in.capacity() > READ_BUFFER_LENGTH && in.position() <= READ_BUFFER_LENGTH) {
+        // the large frame has been read, so don't hold on to its buffer
+        resize(READ_BUFFER_LENGTH);
+      }
+      updateInterest();
+    }
+
+    private void resize(int capacity) {
+      ByteBuffer resized = ByteBuffer.allocate(capacity);
+      in.flip();
+      resized.put(in);
+      in = resized;
+    }
+
+    private void updateInterest() {
+      if (key.isValid()) {
+        key.interestOps((paused ? 0 : SelectionKey.OP_READ) | (unwritten.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+    }
+
+    private void dispatch(final byte[] frame) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          handle(Connection.this, frame);
+        }
+      });
+    }
+
+    /**
+     * queue an encoded response, from any thread
+     */
+    void enqueue(ByteBuffer response) {
+      completed.add(response);
+      if (flushScheduled.compareAndSet(false, true)) {
+        flushable.add(this);
+        selector.wakeup();
+      }
+    }
+
+    void flush() {
+      flushScheduled.set(false);
+      ByteBuffer response;
+      while ((response = completed.poll()) != null) {
+        unwritten.add(response);
+      }
+      try {
+        while (!unwritten.isEmpty()) {
+          ByteBuffer[] buffers = new ByteBuffer[Math.min(unwritten.size(), MAX_BUFFERS_PER_WRITE)];
+          Iterator<ByteBuffer> pending = unwritten.iterator();
+          for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pending.next();
+          }
+          channel.write(buffers);
+          while (!unwritten.isEmpty() && !unwritten.peek().hasRemaining()) {
+            unwritten.poll();
+            outstanding--;
+          }
+          if (buffers[buffers.length - 1].hasRemaining()) {
+            // the socket buffer is full, so wait until it drains
+            break;
+          }
+        }
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (paused && outstanding <= maxOutstanding / 2) {
+        paused = false;
+        dispatchFrames();
+      } else {
+        updateInterest();
+      }
+    }
+
+    void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // nothing more to do with it
+      }
+    }
+  }
+
+  private void handle(Connection connection, byte[] frame) {
+    ByteBuffer payload = ByteBuffer.wrap(frame);
+    if (frame.length < 5) {
+      // there's no id to answer, so the client couldn't match a response to its request
+      log.warning("closing connection after a frame too short to hold a request");
+      connection.close();
+      return;
+    }
+    int id = payload.getInt();
+
+    UnpackedRequest unpacked;
+    try {
+      Object decoded = Protocol.readRequest(payload);
+      unpacked = (decoded instanceof Request)
+        ? unpacker.unpack((Request) decoded)
+        : (UnpackedRequest) decoded;
+    } catch (UnpackerException e) {
+      respond(connection, id, Protocol.Status.MALFORMED, null);
+      return;
+    } catch (RuntimeException e) {
+      respond(connection, id, Protocol.Status.MALFORMED, null);
+      return;
+    }
+    if (!(unpacked instanceof UnpackedRequest.OAuthRequest)) {
+      respond(connection, id, Protocol.Status.NOT_OAUTH, null);
+      return;
+    }
+
+    final Connection conn = connection;
+    final int requestId = id;
+    final UnpackedRequest.OAuthRequest request = (UnpackedRequest.OAuthRequest) unpacked;
+    Futures.addCallback(verifier.verify(request), new FutureCallback<VerifierResult>() {
+      @Override
+      public void onSuccess(VerifierResult result) {
+        respond(conn, requestId, Protocol.Status.valueOf(result.name()), request);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        log.log(Level.FINE, "verification failed", t);
+        respond(conn, requestId, Protocol.Status.ERROR, request);
+      }
+    });
+  }
+
+  private void respond(Connection connection, int id, Protocol.Status status, UnpackedRequest.OAuthRequest request) {
+    String consumerKey = null;
+    String token = null;
+    if (request instanceof UnpackedRequest.OAuth1Request) {
+      consumerKey = ((UnpackedRequest.OAuth1Request) request).consumerKey();
+      token = ((UnpackedRequest.OAuth1Request) request).token();
+    } else if (request instanceof UnpackedRequest.OAuth1TwoLeggedRequest) {
+      consumerKey = ((UnpackedRequest.OAuth1TwoLeggedRequest) request).consumerKey();
+    } else if (request instanceof UnpackedRequest.OAuth2Request) {
+      token = ((UnpackedRequest.OAuth2Request) request).token();
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    try {
+      Protocol.writeResponse(new Protocol.Response(id, status, consumerKey, token), new DataOutputStream(bytes));
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw
+      throw new IllegalStateException(e);
+    }
+    connection.enqueue(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  /**
+   * run a server on the loopback interface, verifying requests with secrets from
+   * MappedSecretStore snapshots. The timestamp must be within five minutes of now, and nonces
+   * are remembered in memory for the whole ten minute window, up to max-nonces of them
+   * (1,000,000 by default), so a request can't be replayed to this server. No bearer tokens
+   * are known to it, so OAuth2 requests fail with UNKNOWN_CREDENTIALS.
+   *
+   *   VerificationServer port consumer-snapshot [token-snapshot [max-nonces]]
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: VerificationServer port consumer-snapshot [token-snapshot [max-nonces]]");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+    SecretStore store = (args.length > 2)
+      ? new MappedSecretStore(new File(args[1]), new File(args[2]))
+      : new MappedSecretStore(new File(args[1]));
+
+    long maxNonces = (args.length > 3) ? Long.parseLong(args[3]) : DEFAULT_MAX_NONCES;
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    Executor executor = Executors.newFixedThreadPool(threads);
+    NonceValidator nonces = new NonceValidator.InMemoryNonceValidator(
+      maxNonces, 2 * CLOCK_FLOAT_MINS, TimeUnit.MINUTES);
+    Verifier.StandardVerifier standardVerifier =
+      new Verifier.StandardVerifier(Signer.newPooledSigner(), CLOCK_FLOAT_MINS, CLOCK_FLOAT_MINS, nonces);
+    VerificationServer server = new VerificationServer(
+      new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port),
+      Unpacker.StandardUnpackerFactory.newUnpacker(),
+      new AsyncVerifier(standardVerifier, store, executor),
+      executor);
+    server.start();
+    log.info("verifying requests on " + server.address());
+    server.selectorThread.join();
+  }
+}
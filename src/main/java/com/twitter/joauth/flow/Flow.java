@@ -0,0 +1,66 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.flow;
+
+/**
+ * The interfaces of java.util.concurrent.Flow (and of Reactive Streams), declared here because
+ * this library still builds for Java 6. They have the same methods and the same contract, so
+ * on Java 9 and later a Flow.Publisher can be bridged to java.util.concurrent.Flow with a
+ * one-line adapter per interface, e.g. a Subscriber forwarding each signal to its JDK
+ * counterpart.
+ */
+public final class Flow {
+
+  private Flow() {
+  }
+
+  /**
+   * a source of items, which are delivered to a Subscriber only as fast as it requests them
+   */
+  public interface Publisher<T> {
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * a receiver of items. Calls to a Subscriber are never concurrent: onSubscribe comes first,
+   * then onNext at most as many times as were requested, then at most one of onError and
+   * onComplete.
+   */
+  public interface Subscriber<T> {
+    void onSubscribe(Subscription subscription);
+    void onNext(T item);
+    void onError(Throwable throwable);
+    void onComplete();
+  }
+
+  /**
+   * the link between a Publisher and one of its Subscribers
+   */
+  public interface Subscription {
+    /**
+     * allow n more items to be delivered. n must be positive.
+     */
+    void request(long n);
+
+    /**
+     * stop delivering items. Some may still arrive if they were already on their way.
+     */
+    void cancel();
+  }
+
+  /**
+   * a stage that is both a Subscriber and a Publisher, transforming Ts into Rs
+   */
+  public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+  }
+}
@@ -0,0 +1,406 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.flow;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.twitter.joauth.AsyncVerifier;
+import com.twitter.joauth.Request;
+import com.twitter.joauth.UnpackedRequest;
+import com.twitter.joauth.Unpacker;
+import com.twitter.joauth.UnpackerException;
+import com.twitter.joauth.VerifierResult;
+
+import java.util.ArrayDeque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Flow.Processor that unpacks and verifies a stream of Requests, emitting an Outcome for
+ * each. Requests are verified with an AsyncVerifier, so the thread delivering them never
+ * waits on the secret store. At most maxInFlight requests are being verified, or waiting to
+ * be emitted, at once, and requests are only asked of the upstream Publisher as the
+ * downstream Subscriber asks for Outcomes and that limit allows. A slow subscriber or secret
+ * store therefore slows the upstream down instead of filling buffers.
+ *
+ * Outcomes are emitted either in the order their requests arrived, or as soon as each request
+ * is verified. In order, one slow lookup holds back the requests behind it, up to maxInFlight
+ * of them.
+ *
+ * A processor has one subscriber; later subscribers are failed with an IllegalStateException.
+ * When the upstream completes or fails, the requests still being verified are emitted before
+ * the same signal is passed on.
+ */
+public class VerifyingProcessor implements Flow.Processor<Request, VerifyingProcessor.Outcome> {
+
+  private static final Logger log = Logger.getLogger("VerifyingProcessor");
+
+  /**
+   * what became of one request
+   */
+  public static class Outcome {
+    private final Request request;
+    private UnpackedRequest unpacked;
+    private VerifierResult result;
+    private Throwable failure;
+    private boolean done = false;
+
+    Outcome(Request request) {
+      this.request = request;
+    }
+
+    public Request request() { return request; }
+    /** the unpacked request, or null if it couldn't be unpacked */
+    public UnpackedRequest unpacked() { return unpacked; }
+    /** the verifier's result, or null if the request carried no OAuth credentials or failed */
+    public VerifierResult result() { return result; }
+    /** the UnpackerException, or the exception verification failed with, or null */
+    public Throwable failure() { return failure; }
+
+    public boolean isVerified() {
+      return result == VerifierResult.OK;
+    }
+
+    @Override
+    public String toString() {
+      return "Outcome(" + ((result != null) ? result : (failure != null) ? failure : "NOT_OAUTH") + ")";
+    }
+  }
+
+  private final Unpacker unpacker;
+  private final AsyncVerifier verifier;
+  private final int maxInFlight;
+  private final boolean ordered;
+
+  private final Object lock = new Object();
+  // everything below is guarded by lock
+  private Flow.Subscription upstream = null;
+  private boolean subscribed = false;
+  private Flow.Subscriber<? super Outcome> downstream = null;
+  private long demand = 0;
+  private long upstreamRequested = 0;
+  // requests received and not yet emitted
+  private int outstanding = 0;
+  // in order, every outstanding request; otherwise the verified ones waiting to be emitted
+  private final ArrayDeque<Outcome> pending = new ArrayDeque<Outcome>();
+  private boolean upstreamDone = false;
+  private Throwable upstreamError = null;
+  private Throwable downstreamError = null;
+  private boolean cancelled = false;
+  private boolean terminated = false;
+  private boolean draining = false;
+  private boolean missed = false;
+
+  /**
+   * @param maxInFlight the most requests verified, or waiting to be emitted, at once
+   * @param ordered whether to emit outcomes in the order their requests arrived
+   */
+  public VerifyingProcessor(Unpacker unpacker, AsyncVerifier verifier, int maxInFlight, boolean ordered) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+    }
+    this.unpacker = unpacker;
+    this.verifier = verifier;
+    this.maxInFlight = maxInFlight;
+    this.ordered = ordered;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super Outcome> subscriber) {
+    boolean accepted;
+    synchronized (lock) {
+      accepted = !subscribed;
+      subscribed = true;
+    }
+    if (!accepted) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override public void request(long n) { }
+        @Override public void cancel() { }
+      });
+      subscriber.onError(new IllegalStateException("a VerifyingProcessor has only one subscriber"));
+      return;
+    }
+
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        requestOutcomes(n);
+      }
+
+      @Override
+      public void cancel() {
+        cancelAll();
+      }
+    });
+    // outcomes are only emitted once onSubscribe has returned
+    synchronized (lock) {
+      downstream = subscriber;
+    }
+    drain();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    boolean accepted;
+    synchronized (lock) {
+      accepted = (upstream == null && !cancelled);
+      if (accepted) {
+        upstream = subscription;
+      }
+    }
+    if (!accepted) {
+      subscription.cancel();
+      return;
+    }
+    drain();
+  }
+
+  @Override
+  public void onNext(Request request) {
+    if (request == null) {
+      throw new NullPointerException("null request");
+    }
+    Outcome outcome = new Outcome(request);
+    synchronized (lock) {
+      if (cancelled || upstreamDone) {
+        return;
+      }
+      if (upstreamRequested > 0) {
+        upstreamRequested--;
+      }
+      outstanding++;
+      if (ordered) {
+        pending.add(outcome);
+      }
+    }
+    verify(outcome);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    finishUpstream(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    finishUpstream(null);
+  }
+
+  /**
+   * the number of requests received and not yet emitted
+   */
+  public int outstanding() {
+    synchronized (lock) {
+      return outstanding;
+    }
+  }
+
+  private void verify(final Outcome outcome) {
+    final UnpackedRequest unpacked;
+    try {
+      unpacked = unpacker.unpack(outcome.request());
+    } catch (UnpackerException e) {
+      complete(outcome, null, null, e);
+      return;
+    } catch (RuntimeException e) {
+      complete(outcome, null, null, e);
+      return;
+    }
+    if (!(unpacked instanceof UnpackedRequest.OAuthRequest)) {
+      complete(outcome, unpacked, null, null);
+      return;
+    }
+
+    ListenableFuture<VerifierResult> result;
+    try {
+      result = verifier.verify((UnpackedRequest.OAuthRequest) unpacked);
+    } catch (RuntimeException e) {
+      complete(outcome, unpacked, null, e);
+      return;
+    }
+    Futures.addCallback(result, new FutureCallback<VerifierResult>() {
+      @Override
+      public void onSuccess(VerifierResult result) {
+        complete(outcome, unpacked, result, null);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        complete(outcome, unpacked, null, t);
+      }
+    });
+  }
+
+  private void complete(Outcome outcome, UnpackedRequest unpacked, VerifierResult result, Throwable failure) {
+    synchronized (lock) {
+      outcome.unpacked = unpacked;
+      outcome.result = result;
+      outcome.failure = failure;
+      outcome.done = true;
+      if (cancelled) {
+        return;
+      }
+      if (!ordered) {
+        pending.add(outcome);
+      }
+    }
+    drain();
+  }
+
+  private void finishUpstream(Throwable throwable) {
+    synchronized (lock) {
+      if (upstreamDone) {
+        return;
+      }
+      upstreamDone = true;
+      upstreamError = throwable;
+    }
+    drain();
+  }
+
+  private void requestOutcomes(long n) {
+    Flow.Subscription toCancel = null;
+    synchronized (lock) {
+      if (n <= 0) {
+        if (downstreamError == null) {
+          downstreamError = new IllegalArgumentException("request must be positive: " + n);
+        }
+        toCancel = upstream;
+        upstreamDone = true;
+      } else {
+        demand += n;
+        if (demand < 0) {
+          // unbounded
+          demand = Long.MAX_VALUE;
+        }
+      }
+    }
+    if (toCancel != null) {
+      toCancel.cancel();
+    }
+    drain();
+  }
+
+  private void cancelAll() {
+    Flow.Subscription toCancel;
+    synchronized (lock) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      pending.clear();
+      toCancel = upstream;
+    }
+    if (toCancel != null) {
+      toCancel.cancel();
+    }
+  }
+
+  private Outcome pollReady() {
+    if (ordered) {
+      Outcome head = pending.peek();
+      return (head != null && head.done) ? pending.poll() : null;
+    }
+    return pending.poll();
+  }
+
+  /**
+   * emit what can be emitted and request what can be requested. Only one thread drains at a
+   * time; a thread that finds another draining leaves it to go round again.
+   */
+  private void drain() {
+    synchronized (lock) {
+      if (draining) {
+        missed = true;
+        return;
+      }
+      draining = true;
+    }
+
+    while (true) {
+      Flow.Subscriber<? super Outcome> subscriber;
+      Outcome next = null;
+      boolean terminate = false;
+      Throwable error = null;
+      Flow.Subscription source = null;
+      long toRequest = 0;
+      boolean again = false;
+
+      synchronized (lock) {
+        subscriber = downstream;
+        if (cancelled || terminated) {
+          draining = false;
+          return;
+        }
+        if (subscriber != null) {
+          if (downstreamError != null) {
+            terminate = true;
+            error = downstreamError;
+            pending.clear();
+          } else if (demand > 0 && (next = pollReady()) != null) {
+            outstanding--;
+            if (demand != Long.MAX_VALUE) {
+              demand--;
+            }
+          } else if (upstreamDone && outstanding == 0) {
+            terminate = true;
+            error = upstreamError;
+          }
+          terminated = terminate;
+        }
+        if (next == null && !terminate) {
+          if (upstream != null && !upstreamDone) {
+            toRequest = Math.min(maxInFlight, demand) - upstreamRequested - outstanding;
+            if (toRequest > 0) {
+              upstreamRequested += toRequest;
+              source = upstream;
+            }
+          }
+          again = missed;
+          missed = false;
+          draining = again;
+        }
+      }
+
+      try {
+        if (next != null) {
+          subscriber.onNext(next);
+          continue;
+        }
+        if (terminate) {
+          if (error != null) {
+            subscriber.onError(error);
+          } else {
+            subscriber.onComplete();
+          }
+          return;
+        }
+      } catch (RuntimeException e) {
+        // the subscriber broke the contract; stop rather than signal it again
+        log.log(Level.WARNING, "subscriber threw, cancelling", e);
+        cancelAll();
+        synchronized (lock) {
+          draining = false;
+        }
+        return;
+      }
+      if (source != null) {
+        source.request(toRequest);
+      }
+      if (!again) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares verifying a batch of requests one at a time with StandardVerifier.verify against
+ * BatchVerifier.verifyAll as the number of threads grows. Not run as part of the test suite;
+ * run it with
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.twitter.joauth.BatchVerifierBenchmark
+ */
+public class BatchVerifierBenchmark {
+
+  private static final int BATCH_SIZE = 1024;
+  private static final int CONSUMERS = 32;
+  private static final long RUN_MILLIS = 2000;
+
+  public static void main(String[] args) throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    Verifier.StandardVerifier verifier = new Verifier.StandardVerifier(
+      Signer.newPooledSigner(), 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR);
+    List<BatchVerifier.Entry> batch = newBatch();
+
+    // warm up
+    sequential(verifier, batch);
+    batched(new BatchVerifier(verifier), batch);
+
+    double baseline = sequential(verifier, batch);
+    System.out.println(String.format("%-36s threads=%-3d %,12.0f requests/s", "StandardVerifier.verify", 1, baseline));
+
+    for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+      ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads - 1) : null;
+      try {
+        double opsPerSec = batched(new BatchVerifier(verifier, executor, threads), batch);
+        System.out.println(String.format("%-36s threads=%-3d %,12.0f requests/s %6.2fx",
+          "BatchVerifier.verifyAll", threads, opsPerSec, opsPerSec / baseline));
+      } finally {
+        if (executor != null) {
+          executor.shutdown();
+        }
+      }
+    }
+  }
+
+  static List<BatchVerifier.Entry> newBatch() throws Exception {
+    Unpacker unpacker = Unpacker.StandardUnpackerFactory.newUnpacker();
+    List<RequestSigner> signers = new ArrayList<RequestSigner>(CONSUMERS);
+    for (int i = 0; i < CONSUMERS; i++) {
+      signers.add(new RequestSigner("consumer" + i, "consumer-secret-" + i, "token" + i, "token-secret-" + i));
+    }
+
+    List<BatchVerifier.Entry> batch = new ArrayList<BatchVerifier.Entry>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      int consumer = i % CONSUMERS;
+      List<Request.Pair> params = new ArrayList<Request.Pair>();
+      params.add(new Request.Pair("count", "20"));
+      params.add(new Request.Pair("since_id", Integer.toString(i)));
+      String header = signers.get(consumer).authorizationHeader("GET", "https", "api.example.com", 443,
+        "/1.1/statuses/home_timeline.json", params);
+      UnpackedRequest.OAuth1Request request = (UnpackedRequest.OAuth1Request) unpacker.unpack(
+        new BenchmarkRequest(header, "count=20&since_id=" + i));
+      batch.add(new BatchVerifier.Entry(request, "token-secret-" + consumer, "consumer-secret-" + consumer));
+    }
+    return batch;
+  }
+
+  static double sequential(Verifier verifier, List<BatchVerifier.Entry> batch) {
+    long begin = System.currentTimeMillis();
+    long deadline = begin + RUN_MILLIS;
+    long count = 0;
+    while (System.currentTimeMillis() < deadline) {
+      for (BatchVerifier.Entry entry : batch) {
+        check(entry.verify(verifier));
+      }
+      count += batch.size();
+    }
+    return count * 1000.0 / (System.currentTimeMillis() - begin);
+  }
+
+  static double batched(BatchVerifier verifier, List<BatchVerifier.Entry> batch) throws InterruptedException {
+    long begin = System.currentTimeMillis();
+    long deadline = begin + RUN_MILLIS;
+    long count = 0;
+    while (System.currentTimeMillis() < deadline) {
+      for (VerifierResult result : verifier.verifyAll(batch)) {
+        check(result);
+      }
+      count += batch.size();
+    }
+    return count * 1000.0 / (System.currentTimeMillis() - begin);
+  }
+
+  private static void check(VerifierResult result) {
+    if (result != VerifierResult.OK) {
+      throw new IllegalStateException("unexpected " + result);
+    }
+  }
+
+  static class BenchmarkRequest implements Request {
+    private final String authHeader;
+    private final String queryString;
+
+    BenchmarkRequest(String authHeader, String queryString) {
+      this.authHeader = authHeader;
+      this.queryString = queryString;
+    }
+
+    @Override public String authHeader() { return authHeader; }
+    @Override public String body() { return null; }
+    @Override public String contentType() { return null; }
+    @Override public String host() { return "api.example.com"; }
+    @Override public String method() { return "GET"; }
+    @Override public String path() { return "/1.1/statuses/home_timeline.json"; }
+    @Override public int port() { return 443; }
+    @Override public String queryString() { return queryString; }
+    @Override public String scheme() { return "https"; }
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth;
+
+import com.google.common.io.BaseEncoding;
+
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures nonce throughput as the number of threads grows, for a single shared SecureRandom
+ * and for StripedNonceGenerator. Not run as part of the test suite; run it with
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.twitter.joauth.NonceGeneratorBenchmark
+ */
+public class NonceGeneratorBenchmark {
+
+  private static final long RUN_MILLIS = 2000;
+
+  static class SharedSecureRandomNonceGenerator implements NonceGenerator {
+    private final SecureRandom random = new SecureRandom();
+
+    @Override
+    public String nextNonce() {
+      byte[] bytes = new byte[16];
+      random.nextBytes(bytes);
+      return BaseEncoding.base64Url().omitPadding().encode(bytes);
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int cores = Runtime.getRuntime().availableProcessors();
+    NonceGenerator[] generators = new NonceGenerator[] {
+      new SharedSecureRandomNonceGenerator(),
+      new NonceGenerator.StripedNonceGenerator()
+    };
+
+    for (NonceGenerator generator : generators) {
+      // warm up
+      run(generator, cores);
+      for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+        double opsPerSec = run(generator, threads);
+        System.out.println(String.format("%-36s threads=%-3d %,14.0f nonces/s %,12.0f per thread",
+          generator.getClass().getSimpleName(), threads, opsPerSec, opsPerSec / threads));
+      }
+    }
+  }
+
+  static double run(final NonceGenerator generator, int threads) throws InterruptedException {
+    final AtomicLong total = new AtomicLong();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final long[] deadline = new long[1];
+
+    for (int i = 0; i < threads; i++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long count = 0;
+          int sink = 0;
+          while (System.currentTimeMillis() < deadline[0]) {
+            for (int j = 0; j < 256; j++) {
+              sink += generator.nextNonce().length();
+            }
+            count += 256;
+          }
+          total.addAndGet(count + (sink == 0 ? 1 : 0));
+          done.countDown();
+        }
+      }).start();
+    }
+
+    long begin = System.currentTimeMillis();
+    deadline[0] = begin + RUN_MILLIS;
+    start.countDown();
+    done.await();
+    return total.get() * 1000.0 / (System.currentTimeMillis() - begin);
+  }
+}
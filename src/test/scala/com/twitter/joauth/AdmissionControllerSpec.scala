@@ -0,0 +1,103 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.base.Ticker
+import com.twitter.joauth.testhelpers.OAuth1TestCases
+import java.util.concurrent.TimeUnit
+import org.specs.SpecificationWithJUnit
+
+class AdmissionControllerSpec extends SpecificationWithJUnit {
+
+  class FakeTicker extends Ticker {
+    var nanos = 0L
+    override def read = nanos
+    def advance(millis: Long) { nanos += TimeUnit.MILLISECONDS.toNanos(millis) }
+  }
+
+  "AdmissionController" should {
+    val ticker = new FakeTicker
+    // 10 requests a second, in bursts of up to 5
+    val admission = new AdmissionController(10, 5, 64, ticker)
+
+    "admit a burst, then reject until the bucket refills" in {
+      (1 to 5).forall(_ => admission.tryAcquire("consumer")) must beTrue
+      admission.tryAcquire("consumer") must beFalse
+      ticker.advance(100)
+      admission.tryAcquire("consumer") must beTrue
+      admission.tryAcquire("consumer") must beFalse
+      ticker.advance(1000)
+      (1 to 5).forall(_ => admission.tryAcquire("consumer")) must beTrue
+      admission.admittedCount must be_==(11)
+      admission.rejectedCount must be_==(2)
+    }
+
+    "keep one bucket per consumer key, whatever the token" in {
+      val testCase = OAuth1TestCases().head
+      def request(consumerKey: String, token: String) = new UnpackedRequest.OAuth1Request(token, consumerKey,
+        testCase.nonce, testCase.timestampSecs, "c2ln", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(false, false), "")
+      (1 to 5).forall(_ => admission.admit(request("consumer", "token"))) must beTrue
+      (1 to 100).exists(i => admission.admit(request("consumer", "made-up-" + i))) must beFalse
+      admission.admit(new UnpackedRequest.OAuth1TwoLeggedRequest("consumer", testCase.nonce, testCase.timestampSecs,
+        "c2ln", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, testCase.parsedRequest(false, false), "")) must beFalse
+      admission.evictionCount must be_==(0)
+      admission.admit(request("other-consumer", "token")) must beTrue
+    }
+
+    "bound the number of buckets, evicting idle consumers first" in {
+      val small = new AdmissionController(10, 1, 4, ticker)
+      small.tryAcquire("flooder") must beTrue
+      small.tryAcquire("flooder") must beFalse
+      ticker.advance(1000)
+      // the flooder's bucket has refilled by now, and the table only holds four
+      (1 to 100).foreach(i => small.tryAcquire("consumer-" + i))
+      small.evictionCount must beGreaterThan(0L)
+      small.tryAcquire("flooder") must beTrue
+    }
+
+    "reject over-limit requests before normalizing them" in {
+      val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+      val normalized = testCase.normalizedRequest(true, false)
+      val signature = Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret)
+      def newRequest = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), testCase.oAuth1Params(true), Normalizer.getStandardNormalizer)
+      val verifier = new AdmissionController(10, 1, 64, ticker).verifier(
+        new Verifier.StandardVerifier(Signer.getStandardSigner, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR))
+
+      verifier.verify(newRequest, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.OK)
+      var normalizations = 0
+      val counting = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), testCase.oAuth1Params(true), new Normalizer.StandardNormalizer {
+          override def normalize(request: Request.ParsedRequest, params: OAuthParams.OAuth1Params,
+              sink: Normalizer.Sink) {
+            normalizations += 1
+            super.normalize(request, params, sink)
+          }
+        })
+      verifier.verify(counting, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.RATE_LIMITED)
+      normalizations must be_==(0)
+    }
+
+    "admit requests by kind" in {
+      val parsed = OAuth1TestCases().head.parsedRequest(false, false)
+      val limited = new AdmissionController(10, 1, 64, ticker)
+      limited.admit(new UnpackedRequest.OAuth2Request("bearer", parsed, null)) must beTrue
+      limited.admit(new UnpackedRequest.OAuth2Request("bearer", parsed, null)) must beFalse
+      limited.admit(new UnpackedRequest.UnknownRequest(parsed)) must beTrue
+      limited.admit(new UnpackedRequest.UnknownRequest(parsed)) must beTrue
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.util.concurrent.{ListenableFuture, MoreExecutors, SettableFuture}
+import com.twitter.joauth.testhelpers.OAuth1TestCases
+import java.util.concurrent.{Executors, TimeUnit}
+import org.specs.SpecificationWithJUnit
+
+class AsyncVerifierSpec extends SpecificationWithJUnit {
+  val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+  val normalized = testCase.normalizedRequest(true, false)
+  val signature = Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret)
+  val request = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+    testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+    testCase.parsedRequest(true, false), testCase.oAuth1Params(true), Normalizer.getStandardNormalizer)
+
+  val verifier = new Verifier.StandardVerifier(Signer.getStandardSigner, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+  val store = new SecretStore.InMemorySecretStore()
+    .putConsumer(testCase.consumerKey, testCase.consumerSecret)
+    .putToken(testCase.token, testCase.tokenSecret)
+
+  "AsyncVerifier" should {
+    "verify requests with secrets from the store" in {
+      val executor = Executors.newFixedThreadPool(2)
+      try {
+        val async = new AsyncVerifier(verifier, store, executor)
+        async.verify(request).get(5, TimeUnit.SECONDS) must be_==(VerifierResult.OK)
+        async.verify(request: UnpackedRequest.OAuthRequest).get(5, TimeUnit.SECONDS) must be_==(VerifierResult.OK)
+      } finally {
+        executor.shutdown()
+      }
+    }
+
+    "return UNKNOWN_CREDENTIALS for unknown consumers and tokens" in {
+      val async = new AsyncVerifier(verifier, new SecretStore.InMemorySecretStore()
+        .putConsumer(testCase.consumerKey, testCase.consumerSecret), MoreExecutors.sameThreadExecutor)
+      async.verify(request).get must be_==(VerifierResult.UNKNOWN_CREDENTIALS)
+      new AsyncVerifier(verifier, new SecretStore.InMemorySecretStore(), MoreExecutors.sameThreadExecutor)
+        .verify(request).get must be_==(VerifierResult.UNKNOWN_CREDENTIALS)
+    }
+
+    "return BAD_SIGNATURE for a wrong secret" in {
+      val wrong = new SecretStore.InMemorySecretStore()
+        .putConsumer(testCase.consumerKey, "wrong")
+        .putToken(testCase.token, testCase.tokenSecret)
+      new AsyncVerifier(verifier, wrong, MoreExecutors.sameThreadExecutor).verify(request).get must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+
+    "fail the timestamp check without looking up secrets" in {
+      var lookups = 0
+      val counting = new SecretStore {
+        def consumerCredential(consumerKey: String) = { lookups += 1; store.consumerCredential(consumerKey) }
+        def tokenSecret(token: String) = { lookups += 1; store.tokenSecret(token) }
+        def bearerToken(token: String) = { lookups += 1; store.bearerToken(token) }
+      }
+      val strict = new Verifier.StandardVerifier(Signer.getStandardSigner, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      val future = new AsyncVerifier(strict, counting, MoreExecutors.sameThreadExecutor).verify(request)
+      future.isDone must beTrue
+      future.get must be_==(VerifierResult.BAD_TIMESTAMP)
+      lookups must be_==(0)
+    }
+
+    "not block while the secrets are being fetched" in {
+      val consumer = SettableFuture.create[ConsumerCredential]()
+      val tokenFuture = SettableFuture.create[String]()
+      val pending = new SecretStore {
+        def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] = consumer
+        def tokenSecret(token: String): ListenableFuture[String] = tokenFuture
+        def bearerToken(token: String): ListenableFuture[String] = store.bearerToken(token)
+      }
+      val future = new AsyncVerifier(verifier, pending, MoreExecutors.sameThreadExecutor).verify(request)
+      future.isDone must beFalse
+      tokenFuture.set(testCase.tokenSecret)
+      future.isDone must beFalse
+      consumer.set(ConsumerCredential.hmac(testCase.consumerSecret))
+      future.isDone must beTrue
+      future.get must be_==(VerifierResult.OK)
+    }
+
+    "propagate store failures" in {
+      val failing = new SecretStore {
+        def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] =
+          com.google.common.util.concurrent.Futures.immediateFailedFuture(new RuntimeException("store down"))
+        def tokenSecret(token: String) = store.tokenSecret(token)
+        def bearerToken(token: String) = store.bearerToken(token)
+      }
+      new AsyncVerifier(verifier, failing, MoreExecutors.sameThreadExecutor).verify(request).get must
+        throwA[java.util.concurrent.ExecutionException]
+    }
+
+    "verify two-legged and OAuth2 requests" in {
+      val twoLeggedSignature = Signer.getStandardSigner.getString(normalized, "", testCase.consumerSecret)
+      val twoLegged = new UnpackedRequest.OAuth1TwoLeggedRequest(testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, twoLeggedSignature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), normalized)
+      val async = new AsyncVerifier(verifier, store, MoreExecutors.sameThreadExecutor)
+      async.verify(twoLegged).get must be_==(VerifierResult.OK)
+
+      val parsed = testCase.parsedRequest(true, false)
+      val bearer = new SecretStore.InMemorySecretStore().putBearerToken("bearer", testCase.consumerKey)
+      val oAuth2 = new AsyncVerifier(verifier, bearer, MoreExecutors.sameThreadExecutor)
+      oAuth2.verify(new UnpackedRequest.OAuth2Request("bearer", parsed, null)).get must be_==(VerifierResult.OK)
+      oAuth2.verify(new UnpackedRequest.OAuth2Request("unknown", parsed, null)).get must be_==(VerifierResult.UNKNOWN_CREDENTIALS)
+    }
+
+    "not accept an OAuth1 access token as a bearer token" in {
+      val parsed = testCase.parsedRequest(true, false)
+      val async = new AsyncVerifier(verifier, store, MoreExecutors.sameThreadExecutor)
+      async.verify(new UnpackedRequest.OAuth2Request(testCase.token, parsed, null)).get must
+        be_==(VerifierResult.UNKNOWN_CREDENTIALS)
+    }
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.util.concurrent.{Futures, ListenableFuture}
+import com.twitter.joauth.testhelpers.MockRequest
+import org.specs.SpecificationWithJUnit
+import scala.collection.JavaConversions._
+
+class AuthenticatorSpec extends SpecificationWithJUnit {
+  val signer = new RequestSigner("consumer", "consumer-secret", "token", "token-secret")
+  val twoLeggedSigner = new RequestSigner("consumer", "consumer-secret", null, null)
+
+  def request(authHeader: String, query: String = "i=1") = {
+    val request = new MockRequest
+    request.scheme = "https"
+    request.host = "api.example.com"
+    request.port = 443
+    request.path = "/1.1/thing.json"
+    request.queryString = query
+    request.authHeader = authHeader
+    request
+  }
+  def signed(signer: RequestSigner) = request(signer.authorizationHeader("GET", "https", "api.example.com", 443,
+    "/1.1/thing.json", java.util.Arrays.asList(new Request.Pair("i", "1"))))
+
+  "Authenticator" should {
+    val store = new SecretStore.InMemorySecretStore()
+      .putConsumer("consumer", "consumer-secret")
+      .putToken("token", "token-secret")
+      .putBearerToken("bearer", "consumer")
+    val unpacker = Unpacker.StandardUnpackerFactory.newUnpacker
+    val verifier = new Verifier.StandardVerifier(Signer.newPooledSigner, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+    val authenticator = Authenticator.newAuthenticator(unpacker, verifier, store)
+
+    "authenticate signed requests" in {
+      val result = authenticator.authenticate(signed(signer))
+      result.isAuthenticated must beTrue
+      result.principal.consumerKey must be_==("consumer")
+      result.principal.token must be_==("token")
+      result.principal.oAuthVersion must be_==("oauth1")
+
+      val twoLegged = authenticator.authenticate(signed(twoLeggedSigner))
+      twoLegged.isAuthenticated must beTrue
+      twoLegged.principal.token must beNull
+    }
+
+    "time every stage that runs" in {
+      val result = authenticator.authenticate(signed(signer))
+      result.stageNames.toList must be_==(List("unpack", "precheck", "secrets", "verify"))
+      (0 until result.stageNames.size).forall(i => result.stageNanos(i) >= 0) must beTrue
+      result.totalNanos must beGreaterThan(0L)
+    }
+
+    "report typed failures, and the stage that failed" in {
+      val forged = authenticator.authenticate(request(signer.authorizationHeader("GET", "https", "api.example.com", 443,
+        "/1.1/thing.json", java.util.Arrays.asList(new Request.Pair("i", "1"))), "i=2"))
+      forged.failure must be_==(Authenticator.Failure.BAD_SIGNATURE)
+      forged.failedStage must be_==("verify")
+      forged.principal must beNull
+
+      authenticator.authenticate(request(null)).failure must be_==(Authenticator.Failure.NOT_OAUTH)
+      authenticator.authenticate(signed(new RequestSigner("stranger", "secret", "token", "token-secret")))
+        .failure must be_==(Authenticator.Failure.UNKNOWN_CREDENTIALS)
+    }
+
+    "fail fast, before looking up secrets" in {
+      var lookups = 0
+      val countingStore = new SecretStore {
+        def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] = {
+          lookups += 1
+          store.consumerCredential(consumerKey)
+        }
+        def tokenSecret(token: String): ListenableFuture[String] = { lookups += 1; store.tokenSecret(token) }
+        def bearerToken(token: String): ListenableFuture[String] = { lookups += 1; store.bearerToken(token) }
+      }
+      val strict = Authenticator.newAuthenticator(unpacker, verifier, countingStore)
+      val stale = request("OAuth oauth_consumer_key=\"consumer\", oauth_token=\"token\", oauth_nonce=\"n\", " +
+        "oauth_signature=\"c2ln\", oauth_signature_method=\"HMAC-SHA1\", oauth_timestamp=\"1000\", oauth_version=\"1.0\"")
+      val result = strict.authenticate(stale)
+      result.failure must be_==(Authenticator.Failure.BAD_TIMESTAMP)
+      result.stageNanos(2) must be_==(0L)
+      lookups must be_==(0)
+    }
+
+    "check the nonce and signature in the verifier's order" in {
+      var nonces = List[String]()
+      val recording = new NonceValidator {
+        def validate(nonce: String) = { nonces ::= nonce; true }
+      }
+      val signatureFirst = new Verifier.StandardVerifier(Signer.newPooledSigner, new RsaSignatureValidator, 5, 5,
+        recording, Verifier.SIGNATURE_BEFORE_NONCE)
+      val ordered = Authenticator.newAuthenticator(unpacker, signatureFirst, store)
+
+      val forged = request(signer.authorizationHeader("GET", "https", "api.example.com", 443,
+        "/1.1/thing.json", java.util.Arrays.asList(new Request.Pair("i", "1"))), "i=2")
+      ordered.authenticate(forged).failure must be_==(Authenticator.Failure.BAD_SIGNATURE)
+      nonces.size must be_==(0)
+      signatureFirst.rejectionCount(Verifier.Stage.SIGNATURE) must be_==(1)
+
+      ordered.authenticate(signed(signer)).isAuthenticated must beTrue
+      nonces.size must be_==(1)
+      signatureFirst.checkCount(Verifier.Stage.NONCE) must be_==(1)
+    }
+
+    "check that OAuth2 bearer tokens are known" in {
+      authenticator.authenticate(request("Bearer bearer")).principal.token must be_==("bearer")
+      authenticator.authenticate(request("Bearer unknown")).failure must be_==(Authenticator.Failure.UNKNOWN_CREDENTIALS)
+    }
+
+    "not accept an OAuth1 access token as a bearer token" in {
+      authenticator.authenticate(request("Bearer token")).failure must be_==(Authenticator.Failure.UNKNOWN_CREDENTIALS)
+    }
+
+    "report secret store failures as errors" in {
+      val brokenStore = new SecretStore {
+        def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] =
+          Futures.immediateFailedFuture(new RuntimeException("store down"))
+        def tokenSecret(token: String): ListenableFuture[String] =
+          Futures.immediateFailedFuture(new RuntimeException("store down"))
+        def bearerToken(token: String): ListenableFuture[String] = tokenSecret(token)
+      }
+      val result = Authenticator.newAuthenticator(unpacker, verifier, brokenStore).authenticate(signed(signer))
+      result.failure must be_==(Authenticator.Failure.ERROR)
+      result.cause must notBeNull
+    }
+
+    "run custom stages" in {
+      val denyList = new Authenticator.Stage {
+        def name = "deny-list"
+        def run(context: Authenticator.Context) = {
+          val request = context.oAuth1
+          if (request != null && request.consumerKey == "consumer") Authenticator.Failure.UNKNOWN_CREDENTIALS else null
+        }
+      }
+      val custom = new Authenticator(java.util.Arrays.asList(Authenticator.Stages.unpack(unpacker), denyList))
+      val result = custom.authenticate(signed(signer))
+      result.failedStage must be_==("deny-list")
+    }
+
+    "rate limit before checking anything else" in {
+      val admission = new AdmissionController(1, 1, 16)
+      val limited = Authenticator.newAuthenticator(unpacker, admission, verifier, store)
+      limited.authenticate(signed(signer)).isAuthenticated must beTrue
+      limited.authenticate(signed(signer)).failure must be_==(Authenticator.Failure.RATE_LIMITED)
+    }
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import org.specs.SpecificationWithJUnit
+
+class Base64UtilSpec extends SpecificationWithJUnit {
+  def decodedEquals(encoded: String, bytes: Array[Byte]) = try {
+    Base64Util.equals(UrlCodec.decode(encoded).trim, bytes)
+  } catch {
+    case e: Exception => false
+  }
+
+  "equalsPercentEncoded" should {
+    val mac = Signer.getStandardSigner.getBytes("GET&https%3A%2F%2Fapi.twitter.com", "readsecret", "writesecret")
+    val encoded = UrlCodec.encode(Base64Util.encode(mac))
+
+    "match the percent-encoded signature of the bytes" in {
+      Base64Util.equalsPercentEncoded(encoded, mac) must beTrue
+      Base64Util.equalsPercentEncoded(Base64Util.encode(mac), mac) must beTrue
+      Base64Util.equalsPercentEncoded(encoded, mac.take(mac.length - 1)) must beFalse
+      Base64Util.equalsPercentEncoded(encoded, mac ++ Array[Byte](0)) must beFalse
+      Base64Util.equalsPercentEncoded(null, mac) must beFalse
+    }
+
+    "accept exactly what decoding and comparing accepts" in {
+      val variants = List(
+        encoded,
+        encoded.toLowerCase,
+        " " + encoded + " ",
+        "+" + encoded,
+        encoded.replace("%3D", "="),
+        encoded.replace("%3D", "") + "%3D",
+        encoded.replace("%3D", "") + "%3D%3",
+        encoded + "%",
+        encoded + "%zz",
+        encoded + "%+F",
+        encoded + "%-0",
+        encoded + "%C3%A9",
+        encoded + "%E2A",
+        "%" + encoded,
+        encoded.substring(0, 4) + "%20" + encoded.substring(4),
+        encoded.substring(0, 4) + "é" + encoded.substring(4),
+        encoded.replace("%2F", "_").replace("%2B", "-"),
+        encoded.replace("%2B", "+"),
+        encoded.substring(1),
+        "")
+      for (variant <- variants) {
+        Base64Util.equalsPercentEncoded(variant, mac) must be_==(decodedEquals(variant, mac))
+      }
+    }
+  }
+}
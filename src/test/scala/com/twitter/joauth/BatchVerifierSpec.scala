@@ -0,0 +1,111 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.twitter.joauth.testhelpers.OAuth1TestCases
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import org.specs.SpecificationWithJUnit
+import scala.collection.JavaConversions._
+
+class BatchVerifierSpec extends SpecificationWithJUnit {
+  val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+  val normalized = testCase.normalizedRequest(true, false)
+  val consumerSecrets = List("secret-a", "secret-b", "secret-c")
+
+  def newRequest(consumerSecret: String, signedWith: String, deferred: Boolean) = {
+    val signature = Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, signedWith)
+    if (deferred) {
+      new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce, testCase.timestampSecs,
+        signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, testCase.parsedRequest(true, false),
+        testCase.oAuth1Params(true), Normalizer.getStandardNormalizer)
+    } else {
+      new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce, testCase.timestampSecs,
+        signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, testCase.parsedRequest(true, false), normalized)
+    }
+  }
+
+  // every fifth request is signed with the wrong secret
+  val entries = (0 until 50).map { i =>
+    val consumerSecret = consumerSecrets(i % consumerSecrets.size)
+    val signedWith = if (i % 5 == 0) "wrong" else consumerSecret
+    new BatchVerifier.Entry(newRequest(consumerSecret, signedWith, i % 2 == 0), testCase.tokenSecret, consumerSecret)
+  }
+  val expected = entries.zipWithIndex.map { case (_, i) =>
+    if (i % 5 == 0) VerifierResult.BAD_SIGNATURE else VerifierResult.OK
+  }
+
+  "BatchVerifier" should {
+    val verifier = new Verifier.StandardVerifier(Signer.newPooledSigner, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+
+    "verify on the calling thread, returning results in order" in {
+      new BatchVerifier(verifier).verifyAll(entries).toList must be_==(expected.toList)
+    }
+
+    "verify in parallel, returning results in order" in {
+      val executor = Executors.newFixedThreadPool(3)
+      try {
+        for (parallelism <- List(1, 2, 4, 8)) {
+          new BatchVerifier(verifier, executor, parallelism).verifyAll(entries).toList must be_==(expected.toList)
+        }
+      } finally {
+        executor.shutdown()
+      }
+    }
+
+    "agree with StandardVerifier" in {
+      val sequential = entries.map { entry =>
+        verifier.verify(entry.request.asInstanceOf[UnpackedRequest.OAuth1Request], entry.tokenSecret, entry.consumerSecret)
+      }
+      new BatchVerifier(verifier).verifyAll(entries).toList must be_==(sequential.toList)
+    }
+
+    "check the timestamp and nonce of every request" in {
+      val calls = new AtomicInteger
+      val rejectEveryOther = new NonceValidator {
+        override def validate(nonce: String) = calls.incrementAndGet() % 2 == 0
+      }
+      val nonceVerifier = new Verifier.StandardVerifier(Signer.getStandardSigner, -1, -1, rejectEveryOther)
+      val results = new BatchVerifier(nonceVerifier).verifyAll(entries)
+      calls.get must be_==(entries.size)
+      results.count(_ == VerifierResult.BAD_NONCE) must be_==(entries.size / 2)
+
+      val timestampVerifier = new Verifier.StandardVerifier(Signer.getStandardSigner, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      new BatchVerifier(timestampVerifier).verifyAll(entries).forall(_ == VerifierResult.BAD_TIMESTAMP) must beTrue
+    }
+
+    "follow the verifier's stage order" in {
+      val calls = new AtomicInteger
+      val countingNonce = new NonceValidator {
+        override def validate(nonce: String) = { calls.incrementAndGet(); true }
+      }
+      val signatureFirst = new Verifier.StandardVerifier(Signer.getStandardSigner, new RsaSignatureValidator, -1, -1,
+        countingNonce, Verifier.SIGNATURE_BEFORE_NONCE)
+      new BatchVerifier(signatureFirst).verifyAll(entries).toList must be_==(expected.toList)
+      calls.get must be_==(expected.count(_ == VerifierResult.OK))
+    }
+
+    "verify two-legged requests" in {
+      val signature = Signer.getStandardSigner.getString(normalized, "", "secret-a")
+      val request = new UnpackedRequest.OAuth1TwoLeggedRequest(testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), normalized)
+      val batch = List(new BatchVerifier.Entry(request, "secret-a"), new BatchVerifier.Entry(request, "secret-b"))
+      new BatchVerifier(verifier).verifyAll(batch).toList must be_==(List(VerifierResult.OK, VerifierResult.BAD_SIGNATURE))
+    }
+
+    "verify an empty batch" in {
+      new BatchVerifier(verifier).verifyAll(new java.util.ArrayList[BatchVerifier.Entry]).size must be_==(0)
+    }
+  }
+}
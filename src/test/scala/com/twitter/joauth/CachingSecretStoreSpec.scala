@@ -0,0 +1,149 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.base.Ticker
+import com.google.common.util.concurrent.{ListenableFuture, SettableFuture}
+import java.util.concurrent.{ExecutionException, TimeUnit}
+import org.specs.SpecificationWithJUnit
+import scala.collection.mutable.ListBuffer
+
+class CachingSecretStoreSpec extends SpecificationWithJUnit {
+
+  class FakeTicker extends Ticker {
+    var nanos = 0L
+    override def read = nanos
+    def advance(seconds: Long) { nanos += TimeUnit.SECONDS.toNanos(seconds) }
+  }
+
+  // a store whose lookups complete only when the test says so
+  class PendingStore extends SecretStore {
+    val lookups = new ListBuffer[(String, SettableFuture[ConsumerCredential])]
+    def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] = {
+      val future = SettableFuture.create[ConsumerCredential]()
+      lookups += ((consumerKey, future))
+      future
+    }
+    def tokenSecret(token: String): ListenableFuture[String] = SettableFuture.create[String]()
+    def bearerToken(token: String): ListenableFuture[String] = SettableFuture.create[String]()
+  }
+
+  def hmac(secret: String) = ConsumerCredential.hmac(secret)
+
+  "CachingSecretStore" should {
+    val ticker = new FakeTicker
+    val store = new PendingStore
+    // secrets live for 60s, are refreshed in their last 10s, and unknown keys are remembered for 5s
+    val caching = new CachingSecretStore(store, 100, 60, 5, 10, TimeUnit.SECONDS, ticker)
+
+    "share a single lookup between concurrent misses" in {
+      val futures = (1 to 10).map(_ => caching.consumerCredential("key"))
+      store.lookups.size must be_==(1)
+      futures.forall(!_.isDone) must beTrue
+      store.lookups(0)._2.set(hmac("secret"))
+      futures.forall(_.get == hmac("secret")) must beTrue
+      caching.consumerCredential("key").get must be_==(hmac("secret"))
+      store.lookups.size must be_==(1)
+      caching.consumerStats.missCount must be_==(1)
+      caching.consumerStats.hitCount must be_==(10)
+    }
+
+    "remember unknown keys for the negative ttl" in {
+      caching.consumerCredential("garbage")
+      store.lookups(0)._2.set(null)
+      caching.consumerCredential("garbage").get must beNull
+      ticker.advance(4)
+      caching.consumerCredential("garbage").get must beNull
+      store.lookups.size must be_==(1)
+      ticker.advance(1)
+      caching.consumerCredential("garbage")
+      store.lookups.size must be_==(2)
+    }
+
+    "refresh entries in the background before they expire" in {
+      caching.consumerCredential("key")
+      store.lookups(0)._2.set(hmac("old"))
+      ticker.advance(49)
+      caching.consumerCredential("key").get must be_==(hmac("old"))
+      store.lookups.size must be_==(1)
+
+      ticker.advance(1)
+      caching.consumerCredential("key").get must be_==(hmac("old"))
+      caching.consumerCredential("key").get must be_==(hmac("old"))
+      // only one refresh is started
+      store.lookups.size must be_==(2)
+      store.lookups(1)._2.set(hmac("new"))
+      caching.consumerCredential("key").get must be_==(hmac("new"))
+
+      // the refreshed entry lives for a full ttl
+      ticker.advance(49)
+      caching.consumerCredential("key").get must be_==(hmac("new"))
+      store.lookups.size must be_==(2)
+    }
+
+    "keep serving the current secret if a refresh fails" in {
+      caching.consumerCredential("key")
+      store.lookups(0)._2.set(hmac("secret"))
+      ticker.advance(55)
+      caching.consumerCredential("key")
+      store.lookups(1)._2.setException(new RuntimeException("store down"))
+      caching.consumerCredential("key").get must be_==(hmac("secret"))
+      // and a later get retries the refresh
+      store.lookups.size must be_==(3)
+      ticker.advance(5)
+      caching.consumerCredential("key")
+      store.lookups.size must be_==(4)
+    }
+
+    "not cache failed lookups" in {
+      val future = caching.consumerCredential("key")
+      store.lookups(0)._2.setException(new RuntimeException("store down"))
+      future.get must throwA[ExecutionException]
+      caching.consumerCredential("key")
+      store.lookups.size must be_==(2)
+      caching.consumerStats.loadExceptionCount must be_==(1)
+    }
+
+    "report load latency" in {
+      caching.consumerCredential("key")
+      ticker.advance(2)
+      store.lookups(0)._2.set(hmac("secret"))
+      caching.consumerStats.loadSuccessCount must be_==(1)
+      caching.consumerStats.averageLoadPenalty must be_==(TimeUnit.SECONDS.toNanos(2).toDouble)
+    }
+
+    "cache consumer and token secrets separately, and invalidate them" in {
+      val inMemory = new SecretStore.InMemorySecretStore().putConsumer("key", "consumer").putToken("key", "token")
+      val cached = new CachingSecretStore(inMemory, 100, 60, 5, 10, TimeUnit.SECONDS, ticker)
+      cached.consumerCredential("key").get must be_==(hmac("consumer"))
+      cached.tokenSecret("key").get must be_==("token")
+      cached.bearerToken("key").get must beNull
+
+      inMemory.putConsumer("key", "rotated")
+      cached.consumerCredential("key").get must be_==(hmac("consumer"))
+      cached.invalidateConsumer("key")
+      cached.consumerCredential("key").get must be_==(hmac("rotated"))
+      cached.tokenSecret(null).get must beNull
+    }
+
+    "evict entries beyond the maximum size" in {
+      val inMemory = new SecretStore.InMemorySecretStore()
+      val cached = new CachingSecretStore(inMemory, 10, 60, 5, 10, TimeUnit.SECONDS, ticker)
+      for (i <- 1 to 100) {
+        inMemory.putConsumer("key" + i, "secret" + i)
+        cached.consumerCredential("key" + i).get must be_==(hmac("secret" + i))
+      }
+      cached.consumerStats.evictionCount must be_>=(90L)
+    }
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import java.nio.ByteBuffer
+import java.util.Arrays
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+import org.specs.SpecificationWithJUnit
+
+class HmacSpec extends SpecificationWithJUnit {
+  def jca(algorithm: String, key: String, message: String) = {
+    val mac = Mac.getInstance(algorithm)
+    mac.init(new SecretKeySpec(key.getBytes("UTF-8"), algorithm))
+    mac.doFinal(message.getBytes("UTF-8"))
+  }
+
+  val random = new scala.util.Random(42)
+  def randomString(length: Int, maxChar: Int) =
+    new String(Array.fill(length)((random.nextInt(maxChar - 1) + 1).toChar))
+
+  val keys = List(
+    ("writesecret", "readsecret"),
+    ("", ""),
+    ("x" * 63, ""),
+    ("x" * 64, "y" * 10),
+    ("sécret", "日本"))
+  val messages = List(
+    "",
+    "a",
+    "x" * 55,
+    "x" * 56,
+    "x" * 64,
+    "x" * 1000,
+    "café 日本 😀",
+    "unpaired \ud83d high and \ude00 low surrogates")
+
+  for (algorithm <- List(Hmac.HMACSHA1, Hmac.HMACSHA256)) {
+    algorithm should {
+      "match the JCA for strings" in {
+        for ((consumerSecret, tokenSecret) <- keys; message <- messages) {
+          val hmac = Hmac.forAlgorithm(algorithm)
+          hmac.init(tokenSecret, consumerSecret)
+          hmac.update(message, 0, message.length)
+          Arrays.equals(hmac.doFinal(), jca(algorithm, consumerSecret + "&" + tokenSecret, message)) must beTrue
+        }
+      }
+
+      "match the JCA for random input" in {
+        for (i <- 1 to 50) {
+          val key = randomString(random.nextInt(150), if (i % 2 == 0) 0x80 else 0xffff)
+          val message = randomString(random.nextInt(300), if (i % 3 == 0) 0x80 else 0xffff)
+          val keyBytes = key.getBytes("UTF-8")
+          val hmac = Hmac.forAlgorithm(algorithm)
+          hmac.init(keyBytes, 0, keyBytes.length)
+          hmac.update(message.toCharArray, 0, message.length)
+          Arrays.equals(hmac.doFinal(), jca(algorithm, key, message)) must beTrue
+        }
+      }
+
+      "hash byte ranges and buffers" in {
+        val message = "x" * 100 + "y" * 100
+        val bytes = message.getBytes("UTF-8")
+        val expected = jca(algorithm, "k&", message)
+        val hmac = Hmac.forAlgorithm(algorithm)
+        hmac.init("", "k")
+        hmac.update(bytes, 0, 3)
+        hmac.update(bytes, 3, 97)
+        hmac.update(ByteBuffer.wrap(bytes, 100, 100))
+        Arrays.equals(hmac.doFinal(), expected) must beTrue
+
+        val direct = ByteBuffer.allocateDirect(bytes.length)
+        direct.put(bytes).flip()
+        hmac.update(direct)
+        Arrays.equals(hmac.doFinal(), expected) must beTrue
+      }
+
+      "be reusable after doFinal and reset" in {
+        val hmac = Hmac.forAlgorithm(algorithm)
+        hmac.init("readsecret", "writesecret")
+        hmac.update("garbage", 0, 7)
+        hmac.reset()
+        for (message <- messages) {
+          hmac.update(message, 0, message.length)
+          val out = new Array[Byte](hmac.macLength + 2)
+          hmac.doFinal(out, 2) mustEqual hmac.macLength
+          Arrays.equals(out.drop(2), jca(algorithm, "writesecret&readsecret", message)) must beTrue
+        }
+      }
+    }
+  }
+
+  "Hmac" should {
+    "not support other algorithms" in {
+      Hmac.forAlgorithm("HmacMD5") must beNull
+    }
+    "require a key" in {
+      Hmac.forAlgorithm(Hmac.HMACSHA1).doFinal() must throwA[IllegalStateException]
+    }
+  }
+}
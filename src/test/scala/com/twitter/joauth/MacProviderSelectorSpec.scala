@@ -0,0 +1,69 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import java.security.Security
+import javax.crypto.Mac
+import org.specs.SpecificationWithJUnit
+import scala.collection.JavaConversions._
+
+class MacProviderSelectorSpec extends SpecificationWithJUnit {
+  "MacProviderSelector" should {
+    val selection = MacProviderSelector.select()
+
+    "choose a provider for each algorithm" in {
+      selection.providers.keySet.toSet must be_==(Set("HmacSHA1", "HmacSHA256", "HmacSHA512"))
+      for ((algorithm, provider) <- selection.providers) {
+        provider.getService("Mac", algorithm) must notBeNull
+      }
+    }
+
+    "measure every provider of each algorithm" in {
+      for (algorithm <- List("HmacSHA1", "HmacSHA256", "HmacSHA512")) {
+        val measured = selection.measurements.filter(_.algorithm == algorithm).map(_.provider)
+        measured.toList must be_==(Security.getProviders("Mac." + algorithm).toList)
+      }
+      selection.measurements.filter(_.usable).foreach { _.nanosPerOp must be_>(0.0) }
+      selection.toString must include("HmacSHA1=")
+    }
+
+    "take well under a second" in {
+      selection.elapsedNanos must be_<(1000000000L)
+    }
+
+    "choose the fastest usable provider" in {
+      for ((algorithm, provider) <- selection.providers) {
+        val usable = selection.measurements.filter { m => m.algorithm == algorithm && m.usable }
+        usable.find(_.provider == provider).get.nanosPerOp must be_==(usable.map(_.nanosPerOp).min)
+      }
+    }
+
+    "bind a signer to the chosen providers" in {
+      val signer = selection.signer
+      signer.providers must be_==(selection.providers)
+      for (method <- List(OAuthParams.HMAC_SHA1, OAuthParams.HMAC_SHA256, OAuthParams.HMAC_SHA512)) {
+        signer.getString("GET&http%3A%2F%2Fexample.com%2F", method, "readsecret", "writesecret") must be_==(
+          Signer.getStandardSigner.getString("GET&http%3A%2F%2Fexample.com%2F", method, "readsecret", "writesecret"))
+      }
+      signer.getMac("HmacSHA1").getProvider must be(selection.providers.get("HmacSHA1"))
+    }
+
+    "skip algorithms that no provider offers" in {
+      val none = new MacProviderSelector(java.util.Arrays.asList("HmacNothing"), 1, 1).run()
+      none.providers.isEmpty must beTrue
+      none.measurements.isEmpty must beTrue
+      none.signer.getString("a", "readsecret", "writesecret") must be_==(
+        Signer.getStandardSigner.getString("a", "readsecret", "writesecret"))
+    }
+  }
+}
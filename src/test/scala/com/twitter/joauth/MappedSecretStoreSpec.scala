@@ -0,0 +1,133 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import java.io.{File, FileOutputStream, IOException}
+import org.specs.SpecificationWithJUnit
+import scala.collection.JavaConversions._
+
+class MappedSecretStoreSpec extends SpecificationWithJUnit {
+  def tempFile() = {
+    val file = File.createTempFile("secrets", ".snapshot")
+    file.deleteOnExit()
+    file
+  }
+
+  def snapshot(secrets: Map[String, String]) = {
+    val file = tempFile()
+    MappedSecretStore.writeSnapshot(mapAsJavaMap(secrets), file)
+    file
+  }
+
+  val secrets = (0 until 1000).map(i => ("consumer" + i, "secret-" + i)).toMap ++
+    Map("" -> "empty", "été" -> "unicode ✓", "zzz" -> "last")
+
+  "MappedSecretStore" should {
+    "find every secret in a snapshot" in {
+      val store = new MappedSecretStore(snapshot(secrets))
+      store.consumerCount must be_==(secrets.size)
+      for ((key, secret) <- secrets) {
+        store.getConsumerSecret(key) must be_==(secret)
+      }
+      store.consumerCredential("consumer42").get must be_==(ConsumerCredential.hmac("secret-42"))
+    }
+
+    "return null for unknown keys" in {
+      val store = new MappedSecretStore(snapshot(secrets))
+      store.getConsumerSecret("consumer1000") must beNull
+      store.getConsumerSecret("a") must beNull
+      store.getConsumerSecret("￿") must beNull
+      store.getConsumerSecret(null) must beNull
+      store.tokenSecret("token").get must beNull
+    }
+
+    "read token secrets from their own snapshot" in {
+      val store = new MappedSecretStore(snapshot(secrets), snapshot(Map("token" -> "token-secret")))
+      store.tokenSecret("token").get must be_==("token-secret")
+      store.getTokenSecret("consumer1") must beNull
+    }
+
+    "handle an empty snapshot" in {
+      val store = new MappedSecretStore(snapshot(Map()))
+      store.consumerCount must be_==(0)
+      store.getConsumerSecret("anything") must beNull
+    }
+
+    "swap in a new snapshot" in {
+      val store = new MappedSecretStore(snapshot(secrets))
+      store.swapConsumerSecrets(snapshot(Map("consumer1" -> "rotated")))
+      store.getConsumerSecret("consumer1") must be_==("rotated")
+      store.getConsumerSecret("consumer2") must beNull
+    }
+
+    "overwrite a snapshot in place" in {
+      val file = snapshot(secrets)
+      val store = new MappedSecretStore(file)
+      MappedSecretStore.writeSnapshot(Map("consumer1" -> "rotated"), file)
+      store.getConsumerSecret("consumer1") must be_==("secret-1")
+      store.swapConsumerSecrets(file)
+      store.getConsumerSecret("consumer1") must be_==("rotated")
+    }
+
+    "reject files that aren't snapshots, and keep serving the current one" in {
+      val store = new MappedSecretStore(snapshot(secrets))
+      val garbage = tempFile()
+      val out = new FileOutputStream(garbage)
+      out.write("not a snapshot at all".getBytes("UTF-8"))
+      out.close()
+      store.swapConsumerSecrets(garbage) must throwA[IOException]
+      store.getConsumerSecret("consumer1") must be_==("secret-1")
+    }
+
+    "reject snapshots with offsets past the end or keys out of order" in {
+      def corrupt(offsets: Int*) = {
+        val file = snapshot(Map("a" -> "1", "b" -> "2"))
+        val raf = new java.io.RandomAccessFile(file, "rw")
+        for ((offset, i) <- offsets.zipWithIndex) {
+          raf.seek(MappedSecretStore.Snapshot.HEADER_LENGTH + 4 * i)
+          raf.writeInt(offset)
+        }
+        raf.close()
+        file
+      }
+      val store = new MappedSecretStore(snapshot(secrets))
+      store.swapConsumerSecrets(corrupt(Int.MaxValue)) must throwA[IOException]
+      store.swapConsumerSecrets(corrupt(26, 20)) must throwA[IOException]
+      store.swapConsumerSecrets(corrupt(20, 20)) must throwA[IOException]
+      store.swapConsumerSecrets(corrupt(20, 26))
+      store.getConsumerSecret("b") must be_==("2")
+    }
+
+    "give each writer its own temporary file, and leave none behind" in {
+      val dir = tempFile()
+      dir.delete()
+      dir.mkdir()
+      val file = new File(dir, "secrets.snapshot")
+      val writers = (0 until 4).map { w =>
+        new Thread {
+          override def run() {
+            for (i <- 0 until 20) {
+              MappedSecretStore.writeSnapshot(Map("consumer" -> ("secret-" + w + "-" + i)), file)
+            }
+          }
+        }
+      }
+      writers.foreach(_.start())
+      writers.foreach(_.join())
+      dir.list.toList must be_==(List("secrets.snapshot"))
+      new MappedSecretStore(file).getConsumerSecret("consumer") must startWith("secret-")
+      file.delete()
+      dir.delete()
+    }
+  }
+}
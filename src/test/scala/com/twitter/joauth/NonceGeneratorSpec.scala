@@ -0,0 +1,72 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.io.BaseEncoding
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch}
+import org.specs.SpecificationWithJUnit
+
+class NonceGeneratorSpec extends SpecificationWithJUnit {
+  "StripedNonceGenerator" should {
+    val generator = new NonceGenerator.StripedNonceGenerator
+
+    "generate 16 random bytes as unpadded url-safe base64" in {
+      for (i <- 1 to 100) {
+        val nonce = generator.nextNonce()
+        nonce.length must be_==(22)
+        UrlCodec.encode(nonce) must be_==(nonce)
+        val bytes = BaseEncoding.base64Url().decode(nonce)
+        bytes.length must be_==(16)
+        BaseEncoding.base64Url().omitPadding().encode(bytes) must be_==(nonce)
+      }
+    }
+
+    "round the number of stripes up to a power of two" in {
+      new NonceGenerator.StripedNonceGenerator(1).stripeCount must be_==(1)
+      new NonceGenerator.StripedNonceGenerator(5).stripeCount must be_==(8)
+      new NonceGenerator.StripedNonceGenerator(16).stripeCount must be_==(16)
+    }
+
+    "not repeat nonces across threads" in {
+      val threads = 8
+      val perThread = 2000
+      val seen = new ConcurrentHashMap[String, java.lang.Boolean]
+      val done = new CountDownLatch(threads)
+      for (t <- 1 to threads) {
+        new Thread(new Runnable {
+          def run() {
+            for (i <- 1 to perThread) seen.put(generator.nextNonce(), java.lang.Boolean.TRUE)
+            done.countDown()
+          }
+        }).start()
+      }
+      done.await()
+      seen.size must be_==(threads * perThread)
+    }
+  }
+
+  "TimestampSource" should {
+    val timestamps = new NonceGenerator.TimestampSource
+
+    "cache the String for the current second" in {
+      val now = timestamps.currentTimeSecs
+      (System.currentTimeMillis / 1000 - now) must be_<=(1L)
+      val str = timestamps.toString(now)
+      str must be_==(now.toString)
+      timestamps.toString(now) must be(str)
+      timestamps.toString(now - 10) must be_==((now - 10).toString)
+      timestamps.toString(now) must be(str)
+      timestamps.toString(now + 1) must be_==((now + 1).toString)
+    }
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.base.Ticker
+import java.util.concurrent.TimeUnit
+import org.specs.SpecificationWithJUnit
+
+class NonceValidatorSpec extends SpecificationWithJUnit {
+
+  class FakeTicker extends Ticker {
+    var nanos = 0L
+    override def read = nanos
+    def advance(minutes: Long) { nanos += TimeUnit.MINUTES.toNanos(minutes) }
+  }
+
+  "InMemoryNonceValidator" should {
+    val ticker = new FakeTicker
+    val validator = new NonceValidator.InMemoryNonceValidator(100, 10, TimeUnit.MINUTES, ticker)
+
+    "reject a nonce it has seen within the ttl" in {
+      validator.validate("nonce") must beTrue
+      validator.validate("nonce") must beFalse
+      validator.validate("other") must beTrue
+      ticker.advance(9)
+      validator.validate("nonce") must beFalse
+    }
+
+    "forget nonces after the ttl" in {
+      validator.validate("nonce") must beTrue
+      ticker.advance(10)
+      validator.validate("nonce") must beTrue
+    }
+
+    "reject missing nonces" in {
+      validator.validate(null) must beFalse
+    }
+  }
+}
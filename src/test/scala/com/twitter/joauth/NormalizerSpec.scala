@@ -59,4 +59,56 @@ class NormalizerSpec extends SpecificationWithJUnit {
       }
     }
   }
+
+  "Normalizer with a Sink" should {
+    "stream the same normalized request" in {
+      OAuth1TestCases().foreach { (testCase) =>
+        if (testCase.canBeUnpackedAsOAuth) {
+          for ((post) <- List(true, false)) {
+            val verb = if (post) "POST" else "GET"
+            val builder = new java.lang.StringBuilder
+            normalize.normalize(
+              testCase.scheme,
+              testCase.host,
+              testCase.port,
+              verb,
+              testCase.path,
+              ConversionUtil.toArrayList(testCase.parameters.map { case (k, v) =>
+                new Request.Pair(Transformer.URL_ENCODING_NORMALIZING_TRANSFORMER.transform(k), Transformer.URL_ENCODING_NORMALIZING_TRANSFORMER.transform(v))
+              }),
+              testCase.oAuth1Params(post),
+              new Normalizer.StringBuilderSink(builder))
+
+            builder.toString must be_==(testCase.normalizedRequest(post, false))
+          }
+        }
+      }
+    }
+
+    "encode non-ascii input like UrlCodec.encode" in {
+      val params = ConversionUtil.toArrayList(List(
+        new Request.Pair("caf\u00e9", "\u65e5\u672c"),
+        new Request.Pair("emoji", "\ud83d\ude00"),
+        new Request.Pair("broken", "\ud83d!")))
+      val oAuth1Params = OAuth1TestCases().head.oAuth1Params(false)
+      val builder = new java.lang.StringBuilder
+      normalize.normalize("HTTP", "Example.COM", 8080, "get", "/p\u00e4th", params, oAuth1Params, new Normalizer.StringBuilderSink(builder))
+      builder.toString must be_==(normalize.normalize("HTTP", "Example.COM", 8080, "get", "/p\u00e4th", params, oAuth1Params))
+      builder.toString must startWith("GET&http%3A%2F%2Fexample.com%3A8080%2Fp%C3%A4th&broken%3D%3F%21")
+    }
+
+    "sign the streamed normalized request" in {
+      val testCase = OAuth1TestCases().head
+      val parsedRequest = testCase.parsedRequest(false, false)
+      val normalized = normalize.normalize(parsedRequest, testCase.oAuth1Params(false))
+      for (signer <- List(Signer.getStandardSigner, Signer.newPooledSigner, Signer.newPureJavaSigner, new Signer.ConstSigner("a", Array[Byte](1)))) {
+        val sink = signer.newSink(OAuthParams.HMAC_SHA1, testCase.tokenSecret, testCase.consumerSecret)
+        for (i <- 1 to 2) {
+          normalize.normalize(parsedRequest, testCase.oAuth1Params(false), sink)
+          sink.doFinal().toList must be_==(signer.getBytes(normalized, testCase.tokenSecret, testCase.consumerSecret).toList)
+        }
+        sink.release()
+      }
+    }
+  }
 }
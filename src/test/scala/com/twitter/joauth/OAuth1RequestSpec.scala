@@ -53,6 +53,19 @@ class OAuth1RequestSpec extends SpecificationWithJUnit {
       UnpackedRequest.O_AUTH_1_REQUEST_HELPER.verify(pr("1", "2", 3, "4", "5"), builder.oAuth1Params) 
       1 must be_==(1)
     }
+    "not throw on supported HMAC-SHA512 signature method" in {
+      builder.queryHandler.handle("oauth_signature_method", "HMAC-SHA512")
+      UnpackedRequest.O_AUTH_1_REQUEST_HELPER.verify(pr("1", "2", 3, "4", "5"), builder.oAuth1Params)
+      1 must be_==(1)
+    }
+    "throw on RSA-SHA1 signature method unless it's registered" in {
+      builder.queryHandler.handle("oauth_signature_method", "RSA-SHA1")
+      UnpackedRequest.O_AUTH_1_REQUEST_HELPER.verify(pr("1", "2", 3, "4", "5"), builder.oAuth1Params) must throwA(new MalformedRequest("unsupported signature method: RSA-SHA1"))
+      val registry = SignatureMethod.getStandardRegistry.copy()
+      registry.register(SignatureMethod.RSA_SHA1)
+      new UnpackedRequest.OAuth1RequestHelper(registry).verify(pr("1", "2", 3, "4", "5"), builder.oAuth1Params)
+      1 must be_==(1)
+    }
     "throw on unsupported oauth version" in {
       builder.queryHandler.handle("oauth_signature_method", "HMAC-SHA1")
       builder.queryHandler.handle("oauth_version", "1.1")
@@ -0,0 +1,131 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.google.common.base.Ticker
+import com.google.common.util.concurrent.{ListenableFuture, SettableFuture}
+import java.util.concurrent.{ExecutionException, TimeUnit}
+import org.specs.SpecificationWithJUnit
+import scala.collection.mutable.ListBuffer
+
+class OAuth2TokenResolverSpec extends SpecificationWithJUnit {
+
+  class FakeTicker extends Ticker {
+    var nanos = 0L
+    override def read = nanos
+    def advance(seconds: Long) { nanos += TimeUnit.SECONDS.toNanos(seconds) }
+  }
+
+  // a token service whose lookups complete only when the test says so
+  class PendingService extends OAuth2TokenResolver.TokenService {
+    val lookups = new ListBuffer[(String, SettableFuture[Authenticator.Principal])]
+    def resolve(token: String): ListenableFuture[Authenticator.Principal] = {
+      val future = SettableFuture.create[Authenticator.Principal]()
+      lookups += ((token, future))
+      future
+    }
+  }
+
+  val principal = new Authenticator.Principal("client", "token", "oauth2")
+
+  "OAuth2TokenResolver" should {
+    val ticker = new FakeTicker
+    val service = new PendingService
+    // tokens live for 60s, and unknown tokens are remembered for 5s
+    val resolver = new OAuth2TokenResolver(service, 100, 8, 60, 5, TimeUnit.SECONDS, ticker)
+
+    "share a single lookup between concurrent misses" in {
+      val futures = (1 to 10).map(_ => resolver.resolve("token"))
+      service.lookups.size must be_==(1)
+      service.lookups(0)._2.set(principal)
+      futures.forall(_.get eq principal) must beTrue
+      resolver.resolve("token").get must be(principal)
+      service.lookups.size must be_==(1)
+      resolver.stats.missCount must be_==(1)
+      resolver.stats.hitCount must be_==(10)
+    }
+
+    "resolve the bearer token of an OAuth2 request" in {
+      val request = new UnpackedRequest.OAuth2Request("token", null, "")
+      val future = resolver.resolve(request)
+      service.lookups(0)._1 must be_==("token")
+      service.lookups(0)._2.set(principal)
+      future.get must be(principal)
+      resolver.getIfPresent("token") must be(principal)
+    }
+
+    "expire tokens after the ttl" in {
+      resolver.resolve("token")
+      service.lookups(0)._2.set(principal)
+      ticker.advance(59)
+      resolver.resolve("token").get must be(principal)
+      ticker.advance(1)
+      resolver.resolve("token").isDone must beFalse
+      service.lookups.size must be_==(2)
+    }
+
+    "remember unknown tokens for the negative ttl" in {
+      resolver.resolve("garbage")
+      service.lookups(0)._2.set(null)
+      resolver.resolve("garbage").get must beNull
+      ticker.advance(4)
+      resolver.resolve("garbage").get must beNull
+      service.lookups.size must be_==(1)
+      ticker.advance(1)
+      resolver.resolve("garbage")
+      service.lookups.size must be_==(2)
+    }
+
+    "forget invalidated tokens" in {
+      resolver.resolve("token")
+      service.lookups(0)._2.set(principal)
+      resolver.invalidate("token")
+      resolver.getIfPresent("token") must beNull
+      resolver.resolve("token")
+      service.lookups.size must be_==(2)
+    }
+
+    "not cache a resolution in flight when its token is invalidated" in {
+      val inFlight = resolver.resolve("token")
+      resolver.invalidate("token")
+      service.lookups(0)._2.set(principal)
+      inFlight.get must be(principal)
+      resolver.getIfPresent("token") must beNull
+    }
+
+    "not cache failed lookups" in {
+      val future = resolver.resolve("token")
+      service.lookups(0)._2.setException(new RuntimeException("service down"))
+      future.get must throwA[ExecutionException]
+      resolver.resolve("token")
+      service.lookups.size must be_==(2)
+    }
+
+    "not look up missing tokens" in {
+      resolver.resolve(null: String).get must beNull
+      resolver.resolve("").get must beNull
+      service.lookups.size must be_==(0)
+    }
+
+    "evict least recently used tokens beyond its maximum size" in {
+      val small = new OAuth2TokenResolver(service, 1, 1, 60, 5, TimeUnit.SECONDS, ticker)
+      small.resolve("a")
+      service.lookups(0)._2.set(principal)
+      small.resolve("b")
+      service.lookups(1)._2.set(principal)
+      small.size must be_==(1)
+      small.getIfPresent("a") must beNull
+      small.getIfPresent("b") must be(principal)
+    }
+  }
+}
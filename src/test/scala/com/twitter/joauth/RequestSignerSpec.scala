@@ -0,0 +1,114 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.twitter.joauth.testhelpers.{MockRequest, OAuth1TestCases}
+import org.specs.SpecificationWithJUnit
+
+class RequestSignerSpec extends SpecificationWithJUnit {
+  val unpacker = Unpacker.StandardUnpackerFactory.newUnpacker()
+  val verifier = Verifier.VerifierFactory.newVerifier()
+  val params = ConversionUtil.toArrayList(List(
+    new Request.Pair("status", "hello%20w%C3%B6rld"),
+    new Request.Pair("a", "b%2Bc")))
+
+  def mockRequest(verb: String, header: String) = {
+    val request = new MockRequest
+    request.method = verb
+    request.scheme = "https"
+    request.host = "api.example.com"
+    request.port = 443
+    request.path = "/1.1/statuses/update.json"
+    request.queryString = "status=hello%20w%C3%B6rld&a=b%2Bc"
+    request.authHeader = header
+    request
+  }
+
+  "RequestSigner" should {
+    "produce a header that verifies" in {
+      for (method <- List(OAuthParams.HMAC_SHA1, OAuthParams.HMAC_SHA256);
+           signer <- List(Signer.getStandardSigner, Signer.newPooledSigner, Signer.newPureJavaSigner)) {
+        val requestSigner = new RequestSigner("consumer", "consumer secret", "token", "token secret",
+          method, signer, Normalizer.getStandardNormalizer)
+        val header = requestSigner.authorizationHeader("POST", "https", "api.example.com", 443, "/1.1/statuses/update.json", params)
+
+        header must startWith("OAuth oauth_consumer_key=\"consumer\", oauth_nonce=\"")
+        val unpacked = unpacker.unpack(mockRequest("POST", header)).asInstanceOf[UnpackedRequest.OAuth1Request]
+        unpacked.signatureMethod must be_==(method)
+        verifier.verify(unpacked, "token secret", "consumer secret") must be_==(VerifierResult.OK)
+        verifier.verify(unpacked, "token secret", "other secret") must be_==(VerifierResult.BAD_SIGNATURE)
+      }
+    }
+
+    "produce a two-legged header that verifies" in {
+      val requestSigner = new RequestSigner("consumer", "consumer secret", null, null)
+      val header = requestSigner.authorizationHeader("GET", "https", "api.example.com", 443, "/1.1/statuses/update.json", params)
+
+      header must notInclude("oauth_token")
+      val unpacked = unpacker.unpack(mockRequest("GET", header)).asInstanceOf[UnpackedRequest.OAuth1TwoLeggedRequest]
+      verifier.verify(unpacked, "consumer secret") must be_==(VerifierResult.OK)
+    }
+
+    "produce a header that verifies for a key and token with reserved characters" in {
+      val requestSigner = new RequestSigner("cons+key with space", "consumer secret", "tok/en=", "token secret")
+      val header = requestSigner.authorizationHeader("POST", "https", "api.example.com", 443, "/1.1/statuses/update.json", params)
+
+      header must include("oauth_consumer_key=\"cons%2Bkey%20with%20space\"")
+      header must include("oauth_token=\"tok%2Fen%3D\"")
+      val unpacked = unpacker.unpack(mockRequest("POST", header)).asInstanceOf[UnpackedRequest.OAuth1Request]
+      unpacked.consumerKey must be_==("cons+key with space")
+      unpacked.token must be_==("tok/en=")
+      verifier.verify(unpacked, "token secret", "consumer secret") must be_==(VerifierResult.OK)
+    }
+
+    "sign the normalized request" in {
+      val testCase = OAuth1TestCases().head
+      val requestSigner = new RequestSigner(testCase.consumerKey, testCase.consumerSecret, testCase.token, testCase.tokenSecret) {
+        override def nextNonce() = testCase.nonce
+        override def currentTimeSecs() = testCase.timestampSecs
+      }
+      val parsedRequest = testCase.parsedRequest(false, false)
+      val signature = Signer.getStandardSigner.getString(testCase.normalizedRequest(false, false), testCase.tokenSecret, testCase.consumerSecret)
+
+      requestSigner.authorizationHeader(
+        parsedRequest.verb, parsedRequest.scheme, parsedRequest.host, parsedRequest.port, parsedRequest.path, parsedRequest.params
+      ) must be_==(
+        "OAuth oauth_consumer_key=\"" + testCase.consumerKey + "\", " +
+        "oauth_nonce=\"" + testCase.nonce + "\", " +
+        "oauth_signature=\"" + signature + "\", " +
+        "oauth_signature_method=\"HMAC-SHA1\", " +
+        "oauth_timestamp=\"" + testCase.timestampSecs + "\", " +
+        "oauth_token=\"" + testCase.token + "\", " +
+        "oauth_version=\"1.0\"")
+    }
+
+    "append to a reused buffer" in {
+      val requestSigner = new RequestSigner("consumer", "consumer secret", "token", "token secret")
+      val builder = new java.lang.StringBuilder
+      val parsedRequest = new Request.ParsedRequest("https", "api.example.com", 443, "GET", "/1.1/statuses/update.json", params)
+      for (i <- 1 to 3) {
+        builder.setLength(0)
+        requestSigner.appendAuthorizationHeader(builder, parsedRequest)
+        val unpacked = unpacker.unpack(mockRequest("GET", builder.toString)).asInstanceOf[UnpackedRequest.OAuth1Request]
+        verifier.verify(unpacked, "token secret", "consumer secret") must be_==(VerifierResult.OK)
+      }
+    }
+
+    "use a different nonce for every request" in {
+      val requestSigner = new RequestSigner("consumer", "consumer secret", "token", "token secret")
+      val nonces = (1 to 100).map { _ => requestSigner.nextNonce() }
+      nonces.toSet.size must be_==(100)
+      nonces.foreach { nonce => UrlCodec.encode(nonce) must be_==(nonce) }
+    }
+  }
+}
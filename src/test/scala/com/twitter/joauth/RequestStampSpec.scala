@@ -0,0 +1,92 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.twitter.joauth.testhelpers.OAuth1TestCases
+import java.util.concurrent.TimeUnit
+import org.specs.SpecificationWithJUnit
+
+class RequestStampSpec extends SpecificationWithJUnit {
+
+  class FakeTimestampSource extends NonceGenerator.TimestampSource {
+    var nowSecs = 1000000L
+    override def currentTimeSecs = nowSecs
+  }
+
+  "RequestStamp" should {
+    val clock = new FakeTimestampSource
+    val stamps = new RequestStamp("shared-key".getBytes("UTF-8"), 30, TimeUnit.SECONDS, clock)
+    val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+    val normalized = testCase.normalizedRequest(true, false)
+    val deferred = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+      testCase.timestampSecs, "signature", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+      testCase.parsedRequest(true, false), testCase.oAuth1Params(true), Normalizer.getStandardNormalizer)
+    val eager = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+      testCase.timestampSecs, "signature", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+      testCase.parsedRequest(true, false), normalized)
+
+    "carry the consumer key, token and request digest" in {
+      val stamp = stamps.check(stamps.mint(deferred), "signature")
+      stamp must notBeNull
+      stamp.consumerKey must be_==(testCase.consumerKey)
+      stamp.token must be_==(testCase.token)
+      stamp.expiresAtSecs must be_==(clock.nowSecs + 30)
+      stamp.requestDigest.toList must be_==(
+        java.security.MessageDigest.getInstance("SHA-256").digest(normalized.getBytes("UTF-8")).toList)
+      stamp.matches(eager) must beTrue
+    }
+
+    "stamp two-legged requests with an empty token" in {
+      val twoLegged = new UnpackedRequest.OAuth1TwoLeggedRequest(testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, "signature", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), normalized)
+      val stamp = stamps.check(stamps.mint(twoLegged), "signature")
+      stamp.token must be_==("")
+      stamp.matches(twoLegged) must beTrue
+      stamp.matches(eager) must beFalse
+    }
+
+    "not match a different request" in {
+      val other = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, "signature", OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), normalized + "&extra")
+      stamps.check(stamps.mint(eager), "signature").matches(other) must beFalse
+    }
+
+    "reject stamps presented with a different signature" in {
+      val minted = stamps.mint(eager)
+      stamps.check(minted, "signature") must notBeNull
+      stamps.check(minted, "other") must beNull
+      stamps.check(minted, null) must beNull
+    }
+
+    "reject expired stamps" in {
+      val minted = stamps.mint(eager)
+      clock.nowSecs += 30
+      stamps.check(minted, "signature") must notBeNull
+      clock.nowSecs += 1
+      stamps.check(minted, "signature") must beNull
+    }
+
+    "reject tampered, forged and malformed stamps" in {
+      val minted = stamps.mint(eager)
+      val flipped = (if (minted.charAt(20) == 'A') "B" else "A")
+      stamps.check(minted.substring(0, 20) + flipped + minted.substring(21), "signature") must beNull
+      new RequestStamp("other-key".getBytes("UTF-8"), 30, TimeUnit.SECONDS, clock).check(minted, "signature") must beNull
+      stamps.check(minted.substring(0, 40), "signature") must beNull
+      stamps.check("not a stamp!", "signature") must beNull
+      stamps.check("", "signature") must beNull
+      stamps.check(null, "signature") must beNull
+    }
+  }
+}
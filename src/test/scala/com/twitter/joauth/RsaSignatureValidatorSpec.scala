@@ -0,0 +1,186 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.twitter.joauth.testhelpers.OAuth1TestCases
+import java.security.{KeyFactory, KeyPairGenerator, PrivateKey, Signature}
+import java.security.spec.PKCS8EncodedKeySpec
+import org.specs.SpecificationWithJUnit
+
+class RsaSignatureValidatorSpec extends SpecificationWithJUnit {
+  def newKeyPair() = {
+    val generator = KeyPairGenerator.getInstance("RSA")
+    generator.initialize(1024)
+    generator.generateKeyPair()
+  }
+
+  def pem(keyPair: java.security.KeyPair) =
+    "-----BEGIN PUBLIC KEY-----\n" +
+    Base64Util.encode(keyPair.getPublic.getEncoded).grouped(64).mkString("\n") +
+    "\n-----END PUBLIC KEY-----\n"
+
+  def sign(privateKey: PrivateKey, str: String) = {
+    val signature = Signature.getInstance("SHA1withRSA")
+    signature.initSign(privateKey)
+    signature.update(str.getBytes("UTF-8"))
+    UrlCodec.encode(Base64Util.encode(signature.sign()))
+  }
+
+  // a self-signed certificate, and its private key in PKCS#8
+  val certificate = """
+      |-----BEGIN CERTIFICATE-----
+      |MIICCjCCAXOgAwIBAgIUMVO3j7UJRhQmnwLY6aQLk8G+zcMwDQYJKoZIhvcNAQEL
+      |BQAwFjEUMBIGA1UEAwwLam9hdXRoIHRlc3QwIBcNMjYxMDE2MjAzOTQ0WhgPMjEy
+      |NjA5MjIyMDM5NDRaMBYxFDASBgNVBAMMC2pvYXV0aCB0ZXN0MIGfMA0GCSqGSIb3
+      |DQEBAQUAA4GNADCBiQKBgQDS0az5WQqpBFAlKV3qs61sF3qH60cLIF407aigDiCi
+      |r6subPa9aEf55WwTZAtSBhAJzHxYcDt/gFPs3HuD+8IMsFv6US5nG5RMyK2agC3G
+      |3RXDuLuPS/TCT7fZbGls/t84NPPZ4a+QehrQYUEJwsuwrP/Wn59lE5pZfzY3ybL4
+      |JwIDAQABo1MwUTAdBgNVHQ4EFgQUwyjx0aDXLboUhiVI8VFAZXTVUCQwHwYDVR0j
+      |BBgwFoAUwyjx0aDXLboUhiVI8VFAZXTVUCQwDwYDVR0TAQH/BAUwAwEB/zANBgkq
+      |hkiG9w0BAQsFAAOBgQBoeFgm2U9kAinZ3WpLqKsYoS1BRirfSxy1rU1rhb+DnxFw
+      |AGiKz/h7LsKUAFWXIEBd8L/YYH/USAvbqdNvM1XRplIbeJT7kE68zRmbdsij5kkD
+      |EStSqH2hMcNTKwQI6HAxziPYg2BfAbzSR5z7ORcQ74qoYoKCdeJjyrwI1F+Gew==
+      |-----END CERTIFICATE-----
+    """.stripMargin
+  val certificateKey = KeyFactory.getInstance("RSA").generatePrivate(
+    new PKCS8EncodedKeySpec(Base64Util.decode("""
+      |MIICdgIBADANBgkqhkiG9w0BAQEFAASCAmAwggJcAgEAAoGBANLRrPlZCqkEUCUp
+      |XeqzrWwXeofrRwsgXjTtqKAOIKKvqy5s9r1oR/nlbBNkC1IGEAnMfFhwO3+AU+zc
+      |e4P7wgywW/pRLmcblEzIrZqALcbdFcO4u49L9MJPt9lsaWz+3zg089nhr5B6GtBh
+      |QQnCy7Cs/9afn2UTmll/NjfJsvgnAgMBAAECgYBFax2WDafg97acRf7S5c9ZJHII
+      |h4ShOUtMCmXYLk64wzeO1fp5a/knZFAuImdH3w8w6tCXHn25AjygZgmV8DR496V3
+      |28vFaBwVETld5qAV7WNweotw74czErD9Ql/cdy4OZqVva4zPbk8WJ1692YVgoP61
+      |jWyGkx8nOgqwrZm1wQJBAPxMrxVJ9oTu945LbM4FJP7GnHWth3ugjpqV5zPoofBg
+      |iPS6sB+DQH4+3TMuPbMLIIntuqydxtg2WnZ3rNWhV5kCQQDV6T5oN17X04lckSps
+      |AIeD8hRCAwcpZLtNEjFi0P/txV5KYTwobZHznseXKuNPQFLxroaqbbZXafJ+KeSV
+      |5aW/AkEA7nud08XCHA22Ou7YvjTmr10Vb7bDpfwyT7T6gnqW+ByH2KzO5jqur6bE
+      |eChxcdhGvZnVJm1NE/rsr6aX3KdRoQJAEPJRh2Abm22ezD6T5cqE8ecTw8cJojXg
+      |wNJYJ0P3gpbISYw6f9luXqaNmWREbdrit1LkSEw4zeQO2f/npBh1cQJAOfOBfL9x
+      |EIPG1ngno93xSLb+Wy2wfplcyQJzRPcixPuvgpnb01V0wGiGxJxVDfjLK7AH/K4c
+      |kNUkvMoiixKC4Q==
+    """.stripMargin.replaceAll("\\s", ""))))
+
+  val keyPair = newKeyPair()
+  val normalized = OAuth1TestCases().head.normalizedRequest(false, false)
+
+  "RsaSignatureValidator" should {
+    "validate signatures with a PEM public key" in {
+      val validator = new RsaSignatureValidator
+      validator.validate("consumer", pem(keyPair), normalized, sign(keyPair.getPrivate, normalized)) must beTrue
+      validator.validate("consumer", pem(keyPair), normalized + "x", sign(keyPair.getPrivate, normalized)) must beFalse
+      validator.validate("consumer", pem(keyPair), normalized, sign(newKeyPair().getPrivate, normalized)) must beFalse
+    }
+
+    "validate signatures with a bare base64 public key" in {
+      val validator = new RsaSignatureValidator
+      val bare = Base64Util.encode(keyPair.getPublic.getEncoded)
+      validator.validate(null, bare, normalized, sign(keyPair.getPrivate, normalized)) must beTrue
+    }
+
+    "validate signatures with an X.509 certificate" in {
+      val validator = new RsaSignatureValidator
+      validator.validate("consumer", certificate, normalized, sign(certificateKey, normalized)) must beTrue
+      validator.validate("consumer", certificate, normalized, sign(keyPair.getPrivate, normalized)) must beFalse
+    }
+
+    "reject malformed keys and signatures" in {
+      val validator = new RsaSignatureValidator
+      validator.validate("consumer", "not a key", normalized, sign(keyPair.getPrivate, normalized)) must beFalse
+      validator.validate("consumer", pem(keyPair), normalized, "notbase64!") must beFalse
+      validator.validate("consumer", null, normalized, sign(keyPair.getPrivate, normalized)) must beFalse
+      validator.validate("consumer", pem(keyPair), normalized, null) must beFalse
+    }
+
+    "parse each consumer's key once" in {
+      val validator = new RsaSignatureValidator
+      val signature = sign(keyPair.getPrivate, normalized)
+      for (i <- 1 to 5) {
+        validator.validate("consumer", pem(keyPair), normalized, signature) must beTrue
+      }
+      validator.stats.missCount must be_==(1)
+      validator.stats.hitCount must be_==(4)
+    }
+
+    "re-parse a consumer's key when it changes" in {
+      val validator = new RsaSignatureValidator
+      val rotated = newKeyPair()
+      validator.validate("consumer", pem(keyPair), normalized, sign(keyPair.getPrivate, normalized)) must beTrue
+      validator.validate("consumer", pem(rotated), normalized, sign(rotated.getPrivate, normalized)) must beTrue
+      validator.validate("consumer", pem(rotated), normalized, sign(keyPair.getPrivate, normalized)) must beFalse
+    }
+
+    "keep both keys of a consumer that's rotating them" in {
+      val validator = new RsaSignatureValidator
+      val rotated = newKeyPair()
+      for (i <- 1 to 3) {
+        validator.validate("consumer", pem(keyPair), normalized, sign(keyPair.getPrivate, normalized)) must beTrue
+        validator.validate("consumer", pem(rotated), normalized, sign(rotated.getPrivate, normalized)) must beTrue
+      }
+      validator.stats.missCount must be_==(2)
+      validator.invalidate("consumer")
+      validator.validate("consumer", pem(keyPair), normalized, sign(keyPair.getPrivate, normalized)) must beTrue
+      validator.stats.missCount must be_==(3)
+    }
+  }
+
+  "Verifier with RSA-SHA1" should {
+    val testCase = OAuth1TestCases().head
+    val verify = new Verifier.StandardVerifier(Signer.getStandardSigner, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+
+    def request(signature: String) = new UnpackedRequest.OAuth1Request(
+      testCase.token,
+      testCase.consumerKey,
+      testCase.nonce,
+      testCase.timestampSecs,
+      signature,
+      OAuthParams.RSA_SHA1,
+      OAuthParams.ONE_DOT_OH,
+      testCase.parsedRequest(false, false),
+      normalized)
+
+    "verify with the consumer's public key in place of the consumer secret" in {
+      verify.verify(request(sign(keyPair.getPrivate, normalized)), "", pem(keyPair)) must be_==(VerifierResult.OK)
+      verify.verify(request(sign(newKeyPair().getPrivate, normalized)), "", pem(keyPair)) must be_==(VerifierResult.BAD_SIGNATURE)
+      verify.verify(request(sign(keyPair.getPrivate, normalized)), "", "kd94hf93k423kf44") must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+
+    "verify with a parsed public key" in {
+      val credential = ConsumerCredential.rsa(keyPair.getPublic)
+      verify.verify(request(sign(keyPair.getPrivate, normalized)), "", credential) must be_==(VerifierResult.OK)
+      verify.verify(request(sign(newKeyPair().getPrivate, normalized)), "", credential) must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+
+    "reject HMAC requests keyed with the consumer's public key" in {
+      // anyone can compute this signature, since the PEM isn't a secret
+      val forged = new UnpackedRequest.OAuth1Request(
+        testCase.token,
+        testCase.consumerKey,
+        testCase.nonce,
+        testCase.timestampSecs,
+        Signer.getStandardSigner.getString(normalized, "", pem(keyPair)),
+        OAuthParams.HMAC_SHA1,
+        OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(false, false),
+        normalized)
+      verify.verify(forged, "", ConsumerCredential.hmac(pem(keyPair))) must be_==(VerifierResult.OK)
+
+      verify.verify(forged, "", pem(keyPair)) must be_==(VerifierResult.BAD_SIGNATURE)
+      verify.verify(forged, "", ConsumerCredential.rsa(keyPair.getPublic)) must be_==(VerifierResult.BAD_SIGNATURE)
+      val store = new SecretStore.InMemorySecretStore()
+        .putConsumer(testCase.consumerKey, pem(keyPair))
+        .putToken(testCase.token, "")
+      new AsyncVerifier(verify, store, com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor)
+        .verify(forged).get must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+  }
+}
@@ -0,0 +1,161 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import com.twitter.joauth.testhelpers.MockRequest
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+import org.specs.SpecificationWithJUnit
+
+class SignatureMethodSpec extends SpecificationWithJUnit {
+  "SignatureMethod.Registry" should {
+    val registry = SignatureMethod.getStandardRegistry
+
+    "resolve the standard signature methods by name and by algorithm" in {
+      registry.get("HMAC-SHA1") must be(SignatureMethod.HMAC_SHA1)
+      registry.get("HMAC-SHA256") must be(SignatureMethod.HMAC_SHA256)
+      registry.get("HMAC-SHA512") must be(SignatureMethod.HMAC_SHA512)
+      registry.get("RSA-SHA1") must beNull
+      registry.get("PLAINTEXT") must beNull
+      registry.get(null) must beNull
+      registry.forAlgorithm("HmacSHA512") must be(SignatureMethod.HMAC_SHA512)
+    }
+
+    "describe each method" in {
+      for (method <- List(SignatureMethod.HMAC_SHA1, SignatureMethod.HMAC_SHA256, SignatureMethod.HMAC_SHA512)) {
+        method.isHmac must beTrue
+        val mac = method.newMac()
+        mac.getAlgorithm must be_==(method.algorithm)
+        mac.getMacLength must be_==(method.digestLength)
+        method.newMac().getProvider must be(mac.getProvider)
+      }
+      SignatureMethod.RSA_SHA1.isHmac must beFalse
+      SignatureMethod.RSA_SHA1.newMac() must throwA[java.security.NoSuchAlgorithmException]
+    }
+
+    "only register methods on copies of the standard registry" in {
+      val sha384 = new SignatureMethod("HMAC-SHA384", "HmacSHA384", 48, SignatureMethod.Type.HMAC)
+      registry.isMutable must beFalse
+      registry.register(sha384) must throwA[UnsupportedOperationException]
+      val copy = registry.copy()
+      copy.isMutable must beTrue
+      copy.register(sha384)
+      copy.get("HMAC-SHA384") must be(sha384)
+      copy.get("HMAC-SHA1") must be(SignatureMethod.HMAC_SHA1)
+      registry.get("HMAC-SHA384") must beNull
+    }
+
+    "drop the method a registration replaces by name or by algorithm" in {
+      val copy = registry.copy()
+      val renamed = new SignatureMethod("HMAC-SHA1-RENAMED", "HmacSHA1", 20, SignatureMethod.Type.HMAC)
+      copy.register(renamed)
+      copy.get("HMAC-SHA1") must beNull
+      copy.get("HMAC-SHA1-RENAMED") must be(renamed)
+      copy.forAlgorithm("HmacSHA1") must be(renamed)
+
+      val reimplemented = new SignatureMethod("HMAC-SHA256", "HmacSHA384", 48, SignatureMethod.Type.HMAC)
+      copy.register(reimplemented)
+      copy.forAlgorithm("HmacSHA256") must beNull
+      copy.forAlgorithm("HmacSHA384") must be(reimplemented)
+      copy.get("HMAC-SHA256") must be(reimplemented)
+      copy.methods.size must be_==(3)
+    }
+  }
+
+  "the Unpacker" should {
+    val unpacker = Unpacker.StandardUnpackerFactory.newUnpacker()
+
+    "resolve the signature method once" in {
+      val header = new RequestSigner("consumer", "secret", "token", "token secret", "HMAC-SHA512",
+        Signer.getStandardSigner, Normalizer.getStandardNormalizer).authorizationHeader("GET", "https", "example.com", 443, "/", new java.util.ArrayList[Request.Pair])
+      val request = new MockRequest
+      request.scheme = "https"
+      request.host = "example.com"
+      request.port = 443
+      request.authHeader = header
+
+      val unpacked = unpacker.unpack(request).asInstanceOf[UnpackedRequest.OAuth1Request]
+      unpacked.signatureMethod must be_==("HMAC-SHA512")
+      unpacked.resolvedSignatureMethod must be(SignatureMethod.HMAC_SHA512)
+    }
+
+    "only accept methods from its registry" in {
+      val params = new OAuthParams.OAuth1Params("token", "key", "nonce", 1L, "1", "sig", "HMAC-SHA384", "1.0")
+      val parsedRequest = new Request.ParsedRequest("HTTPS", "example.com", 443, "GET", "/", new java.util.ArrayList[Request.Pair])
+      UnpackedRequest.O_AUTH_1_REQUEST_HELPER.verify(parsedRequest, params) must throwA(new MalformedRequest("unsupported signature method: HMAC-SHA384"))
+
+      val sha384 = new SignatureMethod("HMAC-SHA384", "HmacSHA384", 48, SignatureMethod.Type.HMAC)
+      val helper = new UnpackedRequest.OAuth1RequestHelper(new SignatureMethod.Registry(SignatureMethod.HMAC_SHA1, sha384))
+      helper.buildOAuth1Request(parsedRequest, params, Normalizer.getStandardNormalizer).resolvedSignatureMethod must be(sha384)
+    }
+
+    "sign, unpack and verify with methods from their own registry" in {
+      val sha384 = new SignatureMethod("HMAC-SHA384", "HmacSHA384", 48, SignatureMethod.Type.HMAC)
+      val registry = SignatureMethod.getStandardRegistry.copy()
+      registry.register(sha384)
+      val signer = new Signer.StandardSigner(registry)
+      val requestSigner = new RequestSigner("consumer", "secret", "token", "token secret", "HMAC-SHA384",
+        signer, Normalizer.getStandardNormalizer, NonceGenerator.STANDARD_NONCE_GENERATOR,
+        NonceGenerator.TimestampSource.STANDARD_TIMESTAMP_SOURCE, registry)
+      val request = new MockRequest
+      request.authHeader = requestSigner.authorizationHeader("GET", "http", "127.0.0.1", 80, "/",
+        new java.util.ArrayList[Request.Pair])
+
+      unpacker.unpack(request) must throwA[MalformedRequest]
+      val unpacked = Unpacker.StandardUnpackerFactory.newUnpacker(registry).unpack(request).asInstanceOf[UnpackedRequest.OAuth1Request]
+      unpacked.resolvedSignatureMethod must be(sha384)
+      Verifier.VerifierFactory.newVerifier(signer, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+        .verify(unpacked, "token secret", "secret") must be_==(VerifierResult.OK)
+
+      new UnpackedRequest.OAuth1Request("token", "consumer", "nonce", 1L, "sig", "HMAC-SHA384", "1.0",
+        null, "normalized", registry).resolvedSignatureMethod must be(sha384)
+    }
+  }
+
+  "Signers" should {
+    "sign with HMAC-SHA512" in {
+      val expected = {
+        val mac = Mac.getInstance("HmacSHA512")
+        mac.init(new SecretKeySpec("writesecret&readsecret".getBytes("UTF-8"), "HmacSHA512"))
+        mac.doFinal("GET&http%3A%2F%2Fexample.com%2F".getBytes("UTF-8")).toList
+      }
+      for (signer <- List(Signer.getStandardSigner, Signer.newPooledSigner, Signer.newPureJavaSigner)) {
+        signer.getBytes("GET&http%3A%2F%2Fexample.com%2F", OAuthParams.HMAC_SHA512, "readsecret", "writesecret").toList must be_==(expected)
+        val sink = signer.newSink(SignatureMethod.HMAC_SHA512, "readsecret", "writesecret")
+        sink.append("GET&http%3A%2F%2Fexample.com%2F", 0, 31)
+        sink.doFinal().toList must be_==(expected)
+        sink.release()
+      }
+    }
+
+    "sign with methods from their own registry" in {
+      val sha384 = new SignatureMethod("HMAC-SHA384", "HmacSHA384", 48, SignatureMethod.Type.HMAC)
+      val signer = new Signer.StandardSigner(new SignatureMethod.Registry(SignatureMethod.HMAC_SHA1, sha384))
+      signer.getBytes("a", "HMAC-SHA384", "readsecret", "writesecret").length must be_==(48)
+      signer.getBytes("a", "HMAC-SHA256", "readsecret", "writesecret").length must be_==(20)
+    }
+
+    "verify HMAC-SHA512 requests end to end" in {
+      val requestSigner = new RequestSigner("consumer", "secret", "token", "token secret", "HMAC-SHA512",
+        Signer.getStandardSigner, Normalizer.getStandardNormalizer)
+      val request = new MockRequest
+      request.queryString = "a=b"
+      request.authHeader = requestSigner.authorizationHeader("GET", "http", "127.0.0.1", 80, "/",
+        ConversionUtil.toArrayList(List(new Request.Pair("a", "b"))))
+      val unpacked = Unpacker.StandardUnpackerFactory.newUnpacker().unpack(request).asInstanceOf[UnpackedRequest.OAuth1Request]
+      val verifier = Verifier.VerifierFactory.newVerifier()
+      verifier.verify(unpacked, "token secret", "secret") must be_==(VerifierResult.OK)
+      verifier.verify(unpacked, "token secret", "wrong") must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+  }
+}
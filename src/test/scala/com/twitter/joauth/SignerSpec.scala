@@ -12,7 +12,9 @@
 
 package com.twitter.joauth
 
+import java.nio.ByteBuffer
 import java.util.Arrays
+import java.util.concurrent.TimeUnit
 import org.specs.SpecificationWithJUnit
 
 class SignerSpec extends SpecificationWithJUnit {
@@ -68,4 +70,185 @@ class SignerSpec extends SpecificationWithJUnit {
       Base64Util.equals(signature, badbytes) must beFalse
     }
   }
+
+  "PooledSigner" should {
+    val signer = Signer.newPooledSigner
+    val normalizedRequest = "GET&http%3A%2F%2Fphotos.example.net%2Fphotos&file%3Dvacation.jpg%26oauth_consumer_key%3Dwritekey%26oauth_nonce%3Dkllo9940pd9333jh%26oauth_signature_method%3DHMAC-SHA1%26oauth_timestamp%3D1191242096%26oauth_token%3Dreadkey%26oauth_version%3D1.0%26size%3Doriginal"
+
+    "sign correctly when reusing Macs" in {
+      for (i <- 1 to 3) {
+        signer.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+          UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+        signer.getString(normalizedRequest, "HMAC-SHA256", "readsecret", "writesecret") mustEqual
+          UrlCodec.encode("e7/frN70SVX3tjw7CGwo8iehphTeOer434AECKQsvpA=")
+      }
+    }
+
+    "not carry keys over between calls" in {
+      val standard = Signer.getStandardSigner
+      signer.getString(normalizedRequest, "othersecret", "writesecret") mustEqual
+        standard.getString(normalizedRequest, "othersecret", "writesecret")
+      signer.getString(normalizedRequest, "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+    }
+
+    "sign correctly from many threads" in {
+      val expected = UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+      val failures = new java.util.concurrent.atomic.AtomicInteger
+      val threads = (1 to 8).map { i =>
+        new Thread {
+          override def run() {
+            for (j <- 1 to 200) {
+              val tokenSecret = if (j % 2 == 0) "readsecret" else "secret" + i
+              val sig = signer.getString(normalizedRequest, tokenSecret, "writesecret")
+              if (tokenSecret == "readsecret" && sig != expected) failures.incrementAndGet()
+            }
+          }
+        }
+      }
+      threads.foreach(_.start())
+      threads.foreach(_.join())
+      failures.get mustEqual 0
+    }
+  }
+
+  "CachingSigner" should {
+    val normalizedRequest = "GET&http%3A%2F%2Fphotos.example.net%2Fphotos&file%3Dvacation.jpg%26oauth_consumer_key%3Dwritekey%26oauth_nonce%3Dkllo9940pd9333jh%26oauth_signature_method%3DHMAC-SHA1%26oauth_timestamp%3D1191242096%26oauth_token%3Dreadkey%26oauth_version%3D1.0%26size%3Doriginal"
+
+    "sign correctly from cached keys" in {
+      val signer = Signer.newCachingSigner(100, 1, TimeUnit.MINUTES)
+      for (i <- 1 to 3) {
+        signer.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+          UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+        signer.getString(normalizedRequest, "HMAC-SHA256", "readsecret", "writesecret") mustEqual
+          UrlCodec.encode("e7/frN70SVX3tjw7CGwo8iehphTeOer434AECKQsvpA=")
+      }
+      signer.stats.missCount mustEqual 2
+      signer.stats.hitCount mustEqual 4
+    }
+
+    "keep secret pairs apart" in {
+      val signer = Signer.newCachingSigner(100, 1, TimeUnit.MINUTES)
+      val standard = Signer.getStandardSigner
+      signer.getString(normalizedRequest, "readsecret", "writesecret") mustNotEq
+        signer.getString(normalizedRequest, "writesecret", "readsecret")
+      signer.getString(normalizedRequest, "", "writesecret&readsecret") mustEqual
+        standard.getString(normalizedRequest, "", "writesecret&readsecret")
+      signer.stats.missCount mustEqual 3
+    }
+
+    "evict when full" in {
+      val signer = Signer.newCachingSigner(1, 1, TimeUnit.MINUTES)
+      signer.getBytes(normalizedRequest, "readsecret", "writesecret")
+      signer.getBytes(normalizedRequest, "othersecret", "writesecret")
+      signer.getString(normalizedRequest, "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+      signer.stats.missCount mustEqual 3
+      signer.stats.evictionCount must be_>=(1L)
+    }
+  }
+
+  "PureJavaSigner" should {
+    val signer = Signer.newPureJavaSigner
+    val normalizedRequest = "GET&http%3A%2F%2Fphotos.example.net%2Fphotos&file%3Dvacation.jpg%26oauth_consumer_key%3Dwritekey%26oauth_nonce%3Dkllo9940pd9333jh%26oauth_signature_method%3DHMAC-SHA1%26oauth_timestamp%3D1191242096%26oauth_token%3Dreadkey%26oauth_version%3D1.0%26size%3Doriginal"
+
+    "sign correctly with HMAC-SHA1" in {
+      signer.getString(normalizedRequest, "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+      signer.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+    }
+
+    "sign correctly with HMAC-SHA256" in {
+      signer.getString(normalizedRequest, "HMAC-SHA256", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("e7/frN70SVX3tjw7CGwo8iehphTeOer434AECKQsvpA=")
+    }
+
+    "match StandardSigner on non-ascii input" in {
+      val standard = Signer.getStandardSigner
+      val str = "POST&https%3A%2F%2Fexample.com&caf\u00e9"
+      signer.getString(str, "HMAC-SHA256", "s\u00e9cret", "writesecret") mustEqual
+        standard.getString(str, "HMAC-SHA256", "s\u00e9cret", "writesecret")
+    }
+
+    "reuse pooled Hmacs without carrying over keys or abandoned input" in {
+      val pooled = new Signer.PureJavaSigner(1)
+      val abandoned = pooled.newSink("HMAC-SHA1", "othersecret", "otherkey")
+      abandoned.append("junk", 0, 4)
+      abandoned.release()
+      pooled.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+      pooled.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+    }
+    "reuse pooled sinks without carrying over abandoned input" in {
+      val standard = new Signer.StandardSigner
+      val abandoned = standard.newSink("HMAC-SHA1", "othersecret", "otherkey")
+      abandoned.append("junk\uD800", 0, 5)
+      abandoned.release()
+      standard.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+      standard.getString(normalizedRequest, "HMAC-SHA1", "readsecret", "writesecret") mustEqual
+        UrlCodec.encode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+    }
+  }
+
+  "Signer input and output overloads" should {
+    val normalizedRequest = "GET&http%3A%2F%2Fphotos.example.net%2Fphotos&file%3Dvacation.jpg%26oauth_consumer_key%3Dwritekey%26oauth_nonce%3Dkllo9940pd9333jh%26oauth_signature_method%3DHMAC-SHA1%26oauth_timestamp%3D1191242096%26oauth_token%3Dreadkey%26oauth_version%3D1.0%26size%3Doriginal"
+    val sha1 = Base64Util.decode("Dq+QxkRpmASNSiUrwhCBbQYZuBo=")
+    val sha256 = Base64Util.decode("e7/frN70SVX3tjw7CGwo8iehphTeOer434AECKQsvpA=")
+    val padded = ("xx" + normalizedRequest + "yy").getBytes("UTF-8")
+    val length = normalizedRequest.length
+
+    val signers = List(
+      "StandardSigner" -> Signer.getStandardSigner,
+      "PooledSigner" -> Signer.newPooledSigner,
+      "CachingSigner" -> Signer.newCachingSigner(10, 1, TimeUnit.MINUTES),
+      "PureJavaSigner" -> Signer.newPureJavaSigner,
+      "the default implementation" -> new Signer {
+        val standard = Signer.getStandardSigner
+        def getString(str: String, method: String, tokenSecret: String, consumerSecret: String) =
+          standard.getString(str, method, tokenSecret, consumerSecret)
+        def getBytes(str: String, method: String, tokenSecret: String, consumerSecret: String) =
+          standard.getBytes(str, method, tokenSecret, consumerSecret)
+        def toBytes(signature: String) = standard.toBytes(signature)
+      })
+
+    for ((name, signer) <- signers) {
+      "sign byte ranges with " + name in {
+        for ((method, expected) <- List("HMAC-SHA1" -> sha1, "HMAC-SHA256" -> sha256)) {
+          Arrays.equals(signer.getBytes(padded, 2, length, method, "readsecret", "writesecret"), expected) must beTrue
+          val out = new Array[Byte](expected.length + 1)
+          signer.sign(padded, 2, length, method, "readsecret", "writesecret", out, 1) mustEqual expected.length
+          Arrays.equals(out.drop(1), expected) must beTrue
+        }
+      }
+
+      "sign buffers with " + name in {
+        val heap = ByteBuffer.wrap(padded, 2, length)
+        Arrays.equals(signer.getBytes(heap, "HMAC-SHA1", "readsecret", "writesecret"), sha1) must beTrue
+        heap.hasRemaining must beFalse
+
+        val direct = ByteBuffer.allocateDirect(length)
+        direct.put(normalizedRequest.getBytes("UTF-8")).flip()
+        val out = new Array[Byte](sha256.length)
+        signer.sign(direct, "HMAC-SHA256", "readsecret", "writesecret", out, 0) mustEqual sha256.length
+        Arrays.equals(out, sha256) must beTrue
+      }
+
+      "sign CharSequences with " + name in {
+        val builder = new java.lang.StringBuilder(normalizedRequest)
+        Arrays.equals(signer.getBytes(builder, "HMAC-SHA1", "readsecret", "writesecret"), sha1) must beTrue
+        val out = new Array[Byte](sha256.length)
+        signer.sign(builder, "HMAC-SHA256", "readsecret", "writesecret", out, 0) mustEqual sha256.length
+        Arrays.equals(out, sha256) must beTrue
+
+        val long = new java.lang.StringBuilder
+        for (i <- 1 to 100) long.append("caf\u00e9 \ud83d\ude00 \u65e5\u672c ")
+        Arrays.equals(
+          signer.getBytes(long, "HMAC-SHA1", "readsecret", "writesecret"),
+          Signer.getStandardSigner.getBytes(long.toString, "HMAC-SHA1", "readsecret", "writesecret")) must beTrue
+      }
+    }
+  }
 }
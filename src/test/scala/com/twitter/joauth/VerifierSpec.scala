@@ -12,7 +12,9 @@
 
 package com.twitter.joauth
 
+import com.twitter.joauth.testhelpers.OAuth1TestCases
 import java.util.Date
+import scala.collection.JavaConversions._
 import org.specs.mock.Mockito
 import org.specs.SpecificationWithJUnit
 
@@ -116,4 +118,204 @@ class VerifierSpec extends SpecificationWithJUnit with Mockito {
       verify.verify(request, "readsecret", "writesecret") must be_==(VerifierResult.OK)
     }
   }
+
+  "Verifier with deferred normalization" should {
+    val signers = List(
+      Signer.getStandardSigner,
+      Signer.newPooledSigner,
+      Signer.newCachingSigner(10, 1, java.util.concurrent.TimeUnit.MINUTES),
+      Signer.newPureJavaSigner)
+
+    "stream the normalized request into the signer" in {
+      for (testCase <- OAuth1TestCases(); if testCase.canBeUnpackedAsOAuth; post <- List(true, false); signer <- signers) {
+        val verify = new Verifier.StandardVerifier(signer, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+        val normalized = testCase.normalizedRequest(post, false)
+        val signature = Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret)
+        val request = new UnpackedRequest.OAuth1Request(
+          testCase.token,
+          testCase.consumerKey,
+          testCase.nonce,
+          testCase.timestampSecs,
+          signature,
+          OAuthParams.HMAC_SHA1,
+          OAuthParams.ONE_DOT_OH,
+          testCase.parsedRequest(post, false),
+          testCase.oAuth1Params(post),
+          Normalizer.getStandardNormalizer)
+
+        request.isNormalizedRequestDeferred must beTrue
+        verify.verify(request, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.OK)
+        verify.verify(request, "wrong", testCase.consumerSecret) must be_==(VerifierResult.BAD_SIGNATURE)
+        request.normalizedRequest must be_==(normalized)
+      }
+    }
+  }
+
+  "Verifier with several candidate secrets" should {
+    val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+    val normalized = testCase.normalizedRequest(true, false)
+    val signature = Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret)
+    def newRequest(deferred: Boolean) = if (deferred) {
+      new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce, testCase.timestampSecs,
+        signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, testCase.parsedRequest(true, false),
+        testCase.oAuth1Params(true), Normalizer.getStandardNormalizer)
+    } else {
+      new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey, testCase.nonce, testCase.timestampSecs,
+        signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, testCase.parsedRequest(true, false), normalized)
+    }
+    val oldSecrets = new Verifier.Secrets("old-token-secret", "old-consumer-secret")
+    val newSecrets = new Verifier.Secrets(testCase.tokenSecret, testCase.consumerSecret)
+
+    "return the index of the matching candidate" in {
+      val verify = new Verifier.StandardVerifier(signer, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      for (deferred <- List(true, false)) {
+        val result = verify.verify(newRequest(deferred), java.util.Arrays.asList(oldSecrets, newSecrets))
+        result.result must be_==(VerifierResult.OK)
+        result.matchedIndex must be_==(1)
+        verify.verify(newRequest(deferred), java.util.Arrays.asList(newSecrets, oldSecrets)).matchedIndex must be_==(0)
+      }
+    }
+    "return BAD_SIGNATURE if no candidate matches" in {
+      val verify = new Verifier.StandardVerifier(signer, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      val result = verify.verify(newRequest(true), java.util.Arrays.asList(oldSecrets))
+      result.result must be_==(VerifierResult.BAD_SIGNATURE)
+      result.matchedIndex must be_==(Verifier.MultiSecretResult.NO_MATCH)
+      verify.verify(newRequest(true), new java.util.ArrayList[Verifier.Secrets]).result must be_==(VerifierResult.BAD_SIGNATURE)
+    }
+    "check the nonce only once" in {
+      var calls = 0
+      val countingNonce = new NonceValidator {
+        override def validate(nonce: String) = { calls += 1; true }
+      }
+      val verify = new Verifier.StandardVerifier(signer, -1, -1, countingNonce)
+      verify.verify(newRequest(true), java.util.Arrays.asList(oldSecrets, oldSecrets, newSecrets)).result must be_==(VerifierResult.OK)
+      calls must be_==(1)
+    }
+    "check the timestamp before anything else" in {
+      val verify = new Verifier.StandardVerifier(signer, 5, 5, checkNonce)
+      val result = verify.verify(newRequest(true), java.util.Arrays.asList(newSecrets))
+      result.result must be_==(VerifierResult.BAD_TIMESTAMP)
+      there was no(checkNonce).validate(any[String])
+    }
+    "verify two-legged requests against candidate consumer secrets" in {
+      val twoLeggedNormalized = testCase.normalizedRequest(true, false)
+      val twoLeggedSignature = Signer.getStandardSigner.getString(twoLeggedNormalized, "", testCase.consumerSecret)
+      val request = new UnpackedRequest.OAuth1TwoLeggedRequest(testCase.consumerKey, testCase.nonce,
+        testCase.timestampSecs, twoLeggedSignature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+        testCase.parsedRequest(true, false), twoLeggedNormalized)
+      val verify = new Verifier.StandardVerifier(signer, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      verify.verify(request, java.util.Arrays.asList("old", testCase.consumerSecret)).matchedIndex must be_==(1)
+    }
+  }
+
+  "Verifier stage order" should {
+    val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+    val normalized = testCase.normalizedRequest(true, false)
+    def newRequest(signature: String) = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey,
+      testCase.nonce, testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+      testCase.parsedRequest(true, false), normalized)
+    val good = newRequest(Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret))
+    val forged = newRequest(Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, "forged"))
+
+    "record the nonce before checking the signature by default" in {
+      val verify = new Verifier.StandardVerifier(signer, -1, -1, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      verify.stages.toList must be_==(Verifier.NONCE_BEFORE_SIGNATURE.toList)
+      verify.verify(forged, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.BAD_SIGNATURE)
+      verify.checkCount(Verifier.Stage.NONCE) must be_==(1)
+      verify.rejectionCount(Verifier.Stage.SIGNATURE) must be_==(1)
+    }
+
+    "only record the nonce of correctly signed requests" in {
+      var nonceChecks = 0
+      val countingNonce = new NonceValidator {
+        override def validate(nonce: String) = { nonceChecks += 1; true }
+      }
+      val verify = new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1, countingNonce,
+        Verifier.SIGNATURE_BEFORE_NONCE)
+      for (i <- 1 to 5) {
+        verify.verify(forged, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.BAD_SIGNATURE)
+      }
+      verify.verify(good, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.OK)
+      nonceChecks must be_==(1)
+      verify.checkCount(Verifier.Stage.TIMESTAMP) must be_==(6)
+      verify.checkCount(Verifier.Stage.SIGNATURE) must be_==(6)
+      verify.rejectionCount(Verifier.Stage.SIGNATURE) must be_==(5)
+      verify.checkCount(Verifier.Stage.NONCE) must be_==(1)
+      verify.rejectionCount(Verifier.Stage.NONCE) must be_==(0)
+    }
+
+    "still reject replayed nonces" in {
+      val verify = new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1,
+        new NonceValidator.ConstNonceValidator(false), Verifier.SIGNATURE_BEFORE_NONCE)
+      verify.verify(good, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.BAD_NONCE)
+      verify.rejectionCount(Verifier.Stage.NONCE) must be_==(1)
+      val candidates = java.util.Arrays.asList(new Verifier.Secrets(testCase.tokenSecret, testCase.consumerSecret))
+      verify.verify(good, candidates).result must be_==(VerifierResult.BAD_NONCE)
+    }
+
+    "require every stage exactly once" in {
+      new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1, checkNonce,
+        java.util.Arrays.asList(Verifier.Stage.TIMESTAMP, Verifier.Stage.SIGNATURE)) must throwA[IllegalArgumentException]
+      new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1, checkNonce,
+        java.util.Arrays.asList(Verifier.Stage.TIMESTAMP, Verifier.Stage.SIGNATURE, Verifier.Stage.SIGNATURE)) must
+        throwA[IllegalArgumentException]
+    }
+  }
+
+  "Verifier overlapping the nonce check" should {
+    val testCase = OAuth1TestCases().filter(_.canBeUnpackedAsOAuth).head
+    val normalized = testCase.normalizedRequest(true, false)
+    def newRequest(signature: String) = new UnpackedRequest.OAuth1Request(testCase.token, testCase.consumerKey,
+      testCase.nonce, testCase.timestampSecs, signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH,
+      testCase.parsedRequest(true, false), normalized)
+    val good = newRequest(Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, testCase.consumerSecret))
+    val forged = newRequest(Signer.getStandardSigner.getString(normalized, testCase.tokenSecret, "forged"))
+    val executor = java.util.concurrent.Executors.newSingleThreadExecutor
+
+    def newVerifier(nonce: NonceValidator, stages: java.util.List[Verifier.Stage]) =
+      new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1, nonce, stages, executor)
+
+    "check the nonce on the executor" in {
+      var nonceThread: Thread = null
+      val recordingNonce = new NonceValidator {
+        override def validate(nonce: String) = { nonceThread = Thread.currentThread; true }
+      }
+      val verify = newVerifier(recordingNonce, Verifier.NONCE_BEFORE_SIGNATURE)
+      verify.overlapsNonceCheck must beTrue
+      verify.verify(good, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.OK)
+      nonceThread must notBeNull
+      nonceThread must be_!=(Thread.currentThread)
+    }
+
+    "give the same results as checking in order" in {
+      for (nonceOk <- List(true, false); request <- List(good, forged)) {
+        val nonce = new NonceValidator.ConstNonceValidator(nonceOk)
+        val expected = new Verifier.StandardVerifier(signer, new RsaSignatureValidator, -1, -1, nonce,
+          Verifier.NONCE_BEFORE_SIGNATURE).verify(request, testCase.tokenSecret, testCase.consumerSecret)
+        val verify = newVerifier(nonce, Verifier.NONCE_BEFORE_SIGNATURE)
+        verify.verify(request, testCase.tokenSecret, testCase.consumerSecret) must be_==(expected)
+      }
+      newVerifier(new NonceValidator.ConstNonceValidator(false), Verifier.NONCE_BEFORE_SIGNATURE)
+        .verify(forged, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.BAD_NONCE)
+    }
+
+    "not start the nonce check for a bad timestamp" in {
+      val verify = new Verifier.StandardVerifier(signer, new RsaSignatureValidator, 5, 5, checkNonce,
+        Verifier.NONCE_BEFORE_SIGNATURE, executor)
+      verify.verify(good, testCase.tokenSecret, testCase.consumerSecret) must be_==(VerifierResult.BAD_TIMESTAMP)
+      there was no(checkNonce).validate(any[String])
+    }
+
+    "rethrow exceptions from the nonce validator" in {
+      val throwingNonce = new NonceValidator {
+        override def validate(nonce: String): Boolean = throw new IllegalStateException("nonce store down")
+      }
+      newVerifier(throwingNonce, Verifier.NONCE_BEFORE_SIGNATURE)
+        .verify(good, testCase.tokenSecret, testCase.consumerSecret) must throwA[IllegalStateException]
+    }
+
+    "check the nonce on the caller if the signature comes first" in {
+      newVerifier(checkNonce, Verifier.SIGNATURE_BEFORE_NONCE).overlapsNonceCheck must beFalse
+    }
+  }
 }
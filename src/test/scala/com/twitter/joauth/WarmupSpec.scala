@@ -0,0 +1,61 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth
+
+import org.specs.SpecificationWithJUnit
+
+class WarmupSpec extends SpecificationWithJUnit {
+  val unpacker = Unpacker.StandardUnpackerFactory.newUnpacker()
+
+  "Warmup" should {
+    "run every kind of request through the unpacker and verifier" in {
+      val warmup = new Warmup(unpacker, Verifier.VerifierFactory.newVerifier(5, 5))
+      val result = warmup.run(10)
+      result.iterations must be_==(10)
+      result.requests must be_==(30)
+      result.failures.size must be_==(0)
+      result.elapsedNanos must be_>(0L)
+    }
+
+    "warm up with the verifier's signer" in {
+      val signer = Signer.newPureJavaSigner
+      val verifier = Verifier.VerifierFactory.newVerifier(signer, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+      new Warmup(unpacker, verifier, signer).run(4).failures.size must be_==(0)
+    }
+
+    "keep warm-up nonces away from a StandardVerifier's NonceValidator" in {
+      var seen = 0
+      val nonceValidator = new NonceValidator {
+        def validate(nonce: String) = { seen += 1; false }
+      }
+      val verifier = Verifier.VerifierFactory.newVerifier(5, 5, nonceValidator).asInstanceOf[Verifier.StandardVerifier]
+      new Warmup(unpacker, verifier).run(3).failures.size must be_==(0)
+      seen must be_==(0)
+      verifier.checkCount(Verifier.Stage.NONCE) must be_==(0L)
+    }
+
+    "report requests that don't verify" in {
+      val verifier = new Verifier {
+        def verify(request: UnpackedRequest.OAuth1Request, tokenSecret: String, consumerSecret: String) =
+          VerifierResult.BAD_NONCE
+        def verify(request: UnpackedRequest.OAuth1TwoLeggedRequest, consumerSecret: String) =
+          VerifierResult.BAD_NONCE
+      }
+      val result = new Warmup(unpacker, verifier).run(3)
+      result.requests must be_==(9)
+      result.failures.size must be_==(6)
+      result.failures.get(0) must be_==("oauth1: BAD_NONCE")
+      result.failures.get(1) must be_==("two-legged: BAD_NONCE")
+    }
+  }
+}
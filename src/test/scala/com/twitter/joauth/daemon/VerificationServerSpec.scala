@@ -0,0 +1,135 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.daemon
+
+import com.twitter.joauth._
+import com.twitter.joauth.testhelpers.MockRequest
+import java.net.InetSocketAddress
+import java.util.concurrent.{Executors, TimeUnit}
+import org.specs.SpecificationWithJUnit
+import scala.collection.JavaConversions._
+
+class VerificationServerSpec extends SpecificationWithJUnit {
+  val signer = new RequestSigner("consumer", "consumer-secret", "token", "token-secret")
+
+  def signedRequest(i: Int, forged: Boolean) = {
+    val header = signer.authorizationHeader("GET", "https", "api.example.com", 443, "/1.1/thing.json",
+      java.util.Arrays.asList(new Request.Pair("i", i.toString)))
+    val request = new MockRequest
+    request.scheme = "https"
+    request.host = "api.example.com"
+    request.port = 443
+    request.path = "/1.1/thing.json"
+    request.queryString = "i=" + i
+    request.authHeader = if (forged) header.replace("oauth_signature=\"", "oauth_signature=\"x") else header
+    request
+  }
+
+  "VerificationServer" should {
+    val executor = Executors.newFixedThreadPool(4)
+    val store = new SecretStore.InMemorySecretStore()
+      .putConsumer("consumer", "consumer-secret")
+      .putToken("token", "token-secret")
+    val verifier = new Verifier.StandardVerifier(Signer.newPooledSigner, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+    var server: VerificationServer = null
+    var client: VerificationClient = null
+
+    doBefore {
+      server = new VerificationServer(Unpacker.StandardUnpackerFactory.newUnpacker,
+        new AsyncVerifier(verifier, store, executor), executor).start()
+      client = new VerificationClient(server.address)
+    }
+    doAfter {
+      client.close()
+      server.close()
+    }
+
+    "only listen on the loopback interface by default" in {
+      server.address.getAddress.isLoopbackAddress must beTrue
+    }
+
+    "unpack and verify a request" in {
+      val response = client.verify(signedRequest(1, false)).get(5, TimeUnit.SECONDS)
+      response.status must be_==(Protocol.Status.OK)
+      response.consumerKey must be_==("consumer")
+      response.token must be_==("token")
+      client.verify(signedRequest(1, true)).get(5, TimeUnit.SECONDS).status must be_==(Protocol.Status.BAD_SIGNATURE)
+    }
+
+    "verify a pipelined batch, returning responses in order" in {
+      val requests = (0 until 2000).map(i => signedRequest(i, i % 7 == 0))
+      val responses = client.verifyAll(requests)
+      responses.size must be_==(2000)
+      for ((response, i) <- responses.zipWithIndex) {
+        response.status must be_==(if (i % 7 == 0) Protocol.Status.BAD_SIGNATURE else Protocol.Status.OK)
+      }
+      client.pendingCount must be_==(0)
+    }
+
+    "pause reading from a connection with too many requests outstanding" in {
+      val limited = new VerificationServer(new InetSocketAddress(server.address.getAddress, 0),
+        Unpacker.StandardUnpackerFactory.newUnpacker, new AsyncVerifier(verifier, store, executor), executor, 4).start()
+      val limitedClient = new VerificationClient(limited.address)
+      try {
+        val responses = limitedClient.verifyAll((0 until 500).map(i => signedRequest(i, false)))
+        responses.forall(_.status == Protocol.Status.OK) must beTrue
+      } finally {
+        limitedClient.close()
+        limited.close()
+      }
+    }
+
+    "verify requests the client has already unpacked" in {
+      val normalized = "GET&https%3A%2F%2Fapi.example.com%2Fthing&oauth_consumer_key%3Dconsumer"
+      val signature = Signer.getStandardSigner.getString(normalized, "token-secret", "consumer-secret")
+      val request = new UnpackedRequest.OAuth1Request("token", "consumer", "nonce", System.currentTimeMillis / 1000,
+        signature, OAuthParams.HMAC_SHA1, OAuthParams.ONE_DOT_OH, null, normalized)
+      client.verify(request).get(5, TimeUnit.SECONDS).status must be_==(Protocol.Status.OK)
+    }
+
+    "report requests without credentials and unknown consumers" in {
+      val anonymous = new MockRequest
+      client.verify(anonymous).get(5, TimeUnit.SECONDS).status must be_==(Protocol.Status.NOT_OAUTH)
+      store.removeConsumer("consumer")
+      client.verify(signedRequest(1, false)).get(5, TimeUnit.SECONDS).status must be_==(
+        Protocol.Status.UNKNOWN_CREDENTIALS)
+      store.putConsumer("consumer", "consumer-secret")
+    }
+
+    "close connections that send a frame with no request id" in {
+      val socket = new java.net.Socket(server.address.getAddress, server.address.getPort)
+      try {
+        val out = new java.io.DataOutputStream(socket.getOutputStream)
+        out.writeInt(2)
+        out.writeShort(0)
+        out.flush()
+        socket.setSoTimeout(5000)
+        socket.getInputStream.read() must be_==(-1)
+      } finally {
+        socket.close()
+      }
+    }
+
+    "serve several clients at once" in {
+      val other = new VerificationClient(server.address)
+      try {
+        val first = client.verify(signedRequest(1, false))
+        val second = other.verify(signedRequest(2, false))
+        first.get(5, TimeUnit.SECONDS).status must be_==(Protocol.Status.OK)
+        second.get(5, TimeUnit.SECONDS).status must be_==(Protocol.Status.OK)
+      } finally {
+        other.close()
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2011 Twitter, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+// file except in compliance with the License. You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.twitter.joauth.flow
+
+import com.google.common.util.concurrent.{Futures, ListenableFuture, MoreExecutors, SettableFuture}
+import com.twitter.joauth._
+import com.twitter.joauth.testhelpers.MockRequest
+import org.specs.SpecificationWithJUnit
+import scala.collection.mutable.ArrayBuffer
+
+class VerifyingProcessorSpec extends SpecificationWithJUnit {
+  val signer = new RequestSigner("consumer", "consumer-secret", "token", "token-secret")
+
+  def request(i: Int, signed: Boolean = true) = {
+    val request = new MockRequest
+    request.scheme = "https"
+    request.host = "api.example.com"
+    request.port = 443
+    request.path = "/1.1/thing.json"
+    request.queryString = "i=" + i
+    if (signed) {
+      request.authHeader = signer.authorizationHeader("GET", "https", "api.example.com", 443, "/1.1/thing.json",
+        java.util.Arrays.asList(new Request.Pair("i", i.toString)))
+    }
+    request
+  }
+
+  class TestUpstream extends Flow.Subscription {
+    var requested = 0L
+    var cancelled = false
+    def request(n: Long) { requested += n }
+    def cancel() { cancelled = true }
+  }
+
+  class TestSubscriber(initial: Long) extends Flow.Subscriber[VerifyingProcessor.Outcome] {
+    var subscription: Flow.Subscription = null
+    val outcomes = new ArrayBuffer[VerifyingProcessor.Outcome]
+    var error: Throwable = null
+    var completed = false
+    def onSubscribe(s: Flow.Subscription) { subscription = s; if (initial > 0) s.request(initial) }
+    def onNext(outcome: VerifyingProcessor.Outcome) { outcomes += outcome }
+    def onError(t: Throwable) { error = t }
+    def onComplete() { completed = true }
+  }
+
+  // a store whose token lookups complete only when the test says so
+  class ManualSecretStore extends SecretStore {
+    val tokenLookups = new ArrayBuffer[SettableFuture[String]]
+    def consumerCredential(consumerKey: String): ListenableFuture[ConsumerCredential] =
+      Futures.immediateFuture(ConsumerCredential.hmac("consumer-secret"))
+    def tokenSecret(token: String): ListenableFuture[String] = {
+      val f = SettableFuture.create[String]
+      tokenLookups += f
+      f
+    }
+    def bearerToken(token: String): ListenableFuture[String] = Futures.immediateFuture(null)
+  }
+
+  "VerifyingProcessor" should {
+    val unpacker = Unpacker.StandardUnpackerFactory.newUnpacker
+    val verifier = new Verifier.StandardVerifier(Signer.newPooledSigner, 5, 5, NonceValidator.NO_OP_NONCE_VALIDATOR)
+    val store = new SecretStore.InMemorySecretStore()
+      .putConsumer("consumer", "consumer-secret")
+      .putToken("token", "token-secret")
+    val asyncVerifier = new AsyncVerifier(verifier, store, MoreExecutors.sameThreadExecutor)
+
+    "emit an outcome for every request, then complete" in {
+      val processor = new VerifyingProcessor(unpacker, asyncVerifier, 4, true)
+      val upstream = new TestUpstream
+      val subscriber = new TestSubscriber(Long.MaxValue)
+      processor.onSubscribe(upstream)
+      processor.subscribe(subscriber)
+
+      processor.onNext(request(1))
+      processor.onNext(request(2, false))
+      val forged = request(3)
+      forged.queryString = "i=4"
+      processor.onNext(forged)
+      processor.onComplete()
+
+      subscriber.outcomes.map(_.result).toList must be_==(List(VerifierResult.OK, null, VerifierResult.BAD_SIGNATURE))
+      subscriber.outcomes(0).isVerified must beTrue
+      subscriber.outcomes(1).unpacked must notBeNull
+      subscriber.completed must beTrue
+    }
+
+    "only request as much as the subscriber wants, up to maxInFlight" in {
+      val processor = new VerifyingProcessor(unpacker, asyncVerifier, 4, true)
+      val upstream = new TestUpstream
+      processor.onSubscribe(upstream)
+      upstream.requested must be_==(0L)
+
+      val subscriber = new TestSubscriber(2)
+      processor.subscribe(subscriber)
+      upstream.requested must be_==(2L)
+
+      subscriber.subscription.request(100)
+      upstream.requested must be_==(4L)
+      processor.onNext(request(1))
+      upstream.requested must be_==(5L)
+    }
+
+    "limit the requests being verified" in {
+      val manual = new ManualSecretStore
+      val processor = new VerifyingProcessor(unpacker,
+        new AsyncVerifier(verifier, manual, MoreExecutors.sameThreadExecutor), 2, false)
+      val upstream = new TestUpstream
+      val subscriber = new TestSubscriber(Long.MaxValue)
+      processor.onSubscribe(upstream)
+      processor.subscribe(subscriber)
+      upstream.requested must be_==(2L)
+
+      processor.onNext(request(1))
+      processor.onNext(request(2))
+      processor.outstanding must be_==(2)
+      upstream.requested must be_==(2L)
+
+      manual.tokenLookups(1).set("token-secret")
+      subscriber.outcomes.size must be_==(1)
+      upstream.requested must be_==(3L)
+    }
+
+    "emit outcomes in request order, or as they complete" in {
+      def run(ordered: Boolean) = {
+        val manual = new ManualSecretStore
+        val processor = new VerifyingProcessor(unpacker,
+          new AsyncVerifier(verifier, manual, MoreExecutors.sameThreadExecutor), 4, ordered)
+        val subscriber = new TestSubscriber(Long.MaxValue)
+        processor.onSubscribe(new TestUpstream)
+        processor.subscribe(subscriber)
+        val first = request(1)
+        val second = request(2)
+        processor.onNext(first)
+        processor.onNext(second)
+        manual.tokenLookups(1).set("token-secret")
+        manual.tokenLookups(0).set("token-secret")
+        subscriber.outcomes.map(_.request).toList must be_==(if (ordered) List(first, second) else List(second, first))
+      }
+      run(true)
+      run(false)
+    }
+
+    "finish the requests in flight before completing" in {
+      val manual = new ManualSecretStore
+      val processor = new VerifyingProcessor(unpacker,
+        new AsyncVerifier(verifier, manual, MoreExecutors.sameThreadExecutor), 4, true)
+      val subscriber = new TestSubscriber(Long.MaxValue)
+      processor.onSubscribe(new TestUpstream)
+      processor.subscribe(subscriber)
+      processor.onNext(request(1))
+      processor.onError(new RuntimeException("upstream failed"))
+      subscriber.error must beNull
+
+      manual.tokenLookups(0).set("token-secret")
+      subscriber.outcomes.size must be_==(1)
+      subscriber.error.getMessage must be_==("upstream failed")
+    }
+
+    "report failed lookups in the outcome" in {
+      val manual = new ManualSecretStore
+      val processor = new VerifyingProcessor(unpacker,
+        new AsyncVerifier(verifier, manual, MoreExecutors.sameThreadExecutor), 4, true)
+      val subscriber = new TestSubscriber(Long.MaxValue)
+      processor.onSubscribe(new TestUpstream)
+      processor.subscribe(subscriber)
+      processor.onNext(request(1))
+      manual.tokenLookups(0).setException(new RuntimeException("store down"))
+      subscriber.outcomes(0).result must beNull
+      subscriber.outcomes(0).failure.getMessage must be_==("store down")
+    }
+
+    "cancel upstream when the subscriber cancels" in {
+      val processor = new VerifyingProcessor(unpacker, asyncVerifier, 4, true)
+      val upstream = new TestUpstream
+      val subscriber = new TestSubscriber(1)
+      processor.onSubscribe(upstream)
+      processor.subscribe(subscriber)
+      subscriber.subscription.cancel()
+      upstream.cancelled must beTrue
+      processor.onNext(request(1))
+      subscriber.outcomes.size must be_==(0)
+    }
+
+    "fail bad requests and second subscribers" in {
+      val processor = new VerifyingProcessor(unpacker, asyncVerifier, 4, true)
+      val upstream = new TestUpstream
+      val subscriber = new TestSubscriber(0)
+      processor.onSubscribe(upstream)
+      processor.subscribe(subscriber)
+      subscriber.subscription.request(0)
+      subscriber.error.isInstanceOf[IllegalArgumentException] must beTrue
+      upstream.cancelled must beTrue
+
+      val second = new TestSubscriber(1)
+      processor.subscribe(second)
+      second.error.isInstanceOf[IllegalStateException] must beTrue
+    }
+  }
+}